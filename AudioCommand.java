@@ -0,0 +1,30 @@
+// A request from the UI to the audio engine thread.
+
+class AudioCommand {
+    enum Type { PLAY, PAUSE, RESUME, VOLUME, OUTPUT, STOP, CLOSE }
+
+    final Type type;
+    final String path;
+    final float volume;
+
+    // When the command was sent, used to time track changes from the click
+    final long sentNanos = System.nanoTime();
+
+    private AudioCommand(Type type, String path, float volume) {
+        this.type = type;
+        this.path = path;
+        this.volume = volume;
+    }
+
+    static AudioCommand of(Type type) {
+        return new AudioCommand(type, null, 0f);
+    }
+
+    static AudioCommand play(String path) {
+        return new AudioCommand(Type.PLAY, path, 0f);
+    }
+
+    static AudioCommand volume(float volume) {
+        return new AudioCommand(Type.VOLUME, null, volume);
+    }
+}
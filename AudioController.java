@@ -1,76 +1,927 @@
 // Controls playing/pausing songs.
 
 import javax.sound.sampled.*;
-import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToDoubleFunction;
 
 public class AudioController {
-    // Keep reference to the clip so it doesn't get garbage collected
-    private Clip currentClip;
-    public boolean clipPaused = false;
+    // Size of the reusable render buffer. Memory per track stays the same whatever the file length.
+    static final int BUFFER_BYTES = 64 * 1024;
 
-    public Clip getcurrentClip() {
-        return currentClip;
+    // Commands from any thread, only the engine thread takes them off the queue
+    private final ConcurrentLinkedQueue<AudioCommand> commands = new ConcurrentLinkedQueue<>();
+    private final ArrayList<AudioCommand> batch = new ArrayList<>();
+    // Copied on add/remove and read as a plain array, walking it on the engine thread allocates nothing
+    private volatile AudioListener[] listeners = new AudioListener[0];
+
+    // The one thread that owns the line and the source, null until start(). Prefetching gets its own
+    // single thread so a slow disk never holds up the render loop.
+    private volatile Thread engineThread;
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "audio-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean shutdown = false;
+
+    // Engine thread state. The volatile ones are also read by the getters on other threads.
+    private final byte[] renderBuffer = new byte[BUFFER_BYTES];
+    private int pendingOffset = 0;
+    private int pendingBytes = 0;
+    // End of the part of renderBuffer that has been through the DSP chain. Processing happens just
+    // before each write, so a volume change is heard after the line's buffer rather than ours too.
+    private int processedEnd = 0;
+    private volatile SourceDataLine line;
+    private volatile PcmSource source;
+    private volatile String currentPath;
+    private volatile boolean running = false;
+    public volatile boolean clipPaused = false;
+
+    // Set once the source has run out and we're waiting for the line to play the tail
+    private boolean draining = false;
+    private long endFrame = 0;
+    // Prefetched track that needs the line reopened, started once the tail has played
+    private PrefetchedTrack deferredNext;
+
+    // Source frame at the last seek/track start and the line frame counter at that moment,
+    // so position = baseFrame + frames the line has played since.
+    private volatile long baseFrame = 0;
+    private volatile long lineMark = 0;
+
+    // Software DSP on everything written to the line, volume is the first stage so it works on any device
+    private final DspChain dsp = new DspChain();
+    private final GainProcessor gain = new GainProcessor();
+    private volatile float volume = 1f;
+    // Per-track loudness normalization, ahead of the volume. The lookup gives the gain for a file path.
+    private final GainProcessor trackGain = new GainProcessor();
+    private volatile ToDoubleFunction<String> trackGainLookup = path -> 1.0;
+
+    // Crossfades between tracks (0 = off, gapless as before). The outgoing track is mixed into the
+    // incoming one's buffer before the DSP chain, so it's still one line and one write per buffer.
+    private final Crossfader crossfader = new Crossfader();
+    private volatile long crossfadeMillis = 0;
+    private volatile Crossfader.Curve crossfadeCurve = Crossfader.Curve.EQUAL_POWER;
+
+    // Latest seek asked for (-1 = none). Scrubbing sends dozens of these, only the newest one
+    // is applied and at most once per line buffer period so the audio doesn't stutter.
+    private final AtomicLong pendingSeekFrame = new AtomicLong(-1);
+    private volatile long pendingSeekNanos = 0;
+    private long lastSeekNanos = 0;
+    private long bufferPeriodNanos = 0;
+
+    // Seek latency: from the request to the first write at the new position
+    private long seekStartNanos = -1;
+    private volatile double lastSeekMillis = 0;
+    private volatile double maxSeekMillis = 0;
+
+    // How often position updates go out to listeners while playing, the UI slows this
+    // down when minimized and speeds it up while scrubbing
+    static final long DEFAULT_POSITION_INTERVAL_MILLIS = 200;
+    private volatile long positionIntervalNanos = DEFAULT_POSITION_INTERVAL_MILLIS * 1_000_000;
+    private volatile long nextPositionNanos = 0;
+
+    // Next track, opened and pre-buffered while the current one plays
+    private final AtomicReference<PrefetchedTrack> prefetched = new AtomicReference<>();
+
+    // Decoded PCM of recently played tracks, so going back to one doesn't read the file again
+    final PcmCache pcmCache = new PcmCache(PcmCache.DEFAULT_BUDGET_BYTES);
+
+    // Track change gap measurement. gapStartNanos is when silence would start if the next track came late
+    // (-1 = not in a change) and gapCheckFrame the line frame where the old track's audio ends (-1 when the
+    // line was reopened, nothing is queued). It's only a gap if the line has played past that frame by the
+    // first write of the next track. drainDeadlineNanos is when the audio queued in the line runs out.
+    private final Object gapLock = new Object();
+    private long gapStartNanos = -1;
+    private long gapCheckFrame = -1;
+    private long drainDeadlineNanos = 0;
+    private int gapCount = 0;
+    private double lastGapMillis = 0;
+    private double maxGapMillis = 0;
+    private double totalGapMillis = 0;
+
+    // Time to first audio: from the play request to the first write of the new track (-1 = measured)
+    private long firstAudioStartNanos = -1;
+    // Set once the line has had audio written since the last start/flush, an empty line after that is an underrun
+    private boolean primed = false;
+
+    // Output device and line buffer asked for, null/0 = the system default. Applied by the engine,
+    // which reopens the line and carries on from what was being heard.
+    private volatile String mixerName = null;
+    private volatile int requestedBufferFrames = 0;
+    // What the line actually gave us, the mixer is free to round the buffer
+    private volatile int bufferFrames = 0;
+    private volatile double outputLatencyMillis = 0;
+    // Extra time allowed past the drain deadline before it counts as an underrun, available() and
+    // nanoTime are never exactly in step
+    static final long UNDERRUN_SLACK_NANOS = 1_000_000;
+
+    public AudioController() {
+        dsp.add(trackGain);
+        dsp.add(gain);
+    }
+
+    /**
+     * Starts the engine thread. Commands sent before this wait in the queue.
+     */
+    public synchronized void start() {
+        if (engineThread != null) {
+            return;
+        }
+        Thread thread = new Thread(this::runEngine, "audio-engine");
+        thread.setDaemon(true);
+        // Render loop is the one thing that must never wait for the UI or the library threads
+        thread.setPriority(Thread.MAX_PRIORITY);
+        Diagnostics.audioThread = thread;
+        Diagnostics.pcmCache = pcmCache;
+        engineThread = thread;
+        thread.start();
     }
 
+    public SourceDataLine getLine() {
+        return line;
+    }
+
+    public String getCurrentPath() {
+        return currentPath;
+    }
+
+    public synchronized void addListener(AudioListener listener) {
+        AudioListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(AudioListener listener) {
+        int i = Arrays.asList(listeners).indexOf(listener);
+        if (i >= 0) {
+            AudioListener[] updated = new AudioListener[listeners.length - 1];
+            System.arraycopy(listeners, 0, updated, 0, i);
+            System.arraycopy(listeners, i + 1, updated, i, updated.length - i);
+            listeners = updated;
+        }
+    }
+
+    private void send(AudioCommand command) {
+        commands.offer(command);
+        LockSupport.unpark(engineThread);
+    }
+
+    /**
+     * Starts playing a file. Returns straight away, listeners hear about it once it's open.
+     */
     public void playSound(String filePath) {
-        try {
-            if (filePath.endsWith(".wav")) {
-                // Close previous clip if exists
-                if (currentClip != null && currentClip.isOpen()) {
-                    currentClip.close();
+        if (PcmSource.isSupported(filePath)) {
+            send(AudioCommand.play(filePath));
+        } else {
+            System.out.println("Unsupported audio format. Please use .wav or .flac files.");
+        }
+    }
+
+    public void pause() {
+        send(AudioCommand.of(AudioCommand.Type.PAUSE));
+    }
+
+    public void resume() {
+        send(AudioCommand.of(AudioCommand.Type.RESUME));
+    }
+
+    /**
+     * Stops the current track, the line stays open for the next one
+     */
+    public void stop() {
+        send(AudioCommand.of(AudioCommand.Type.STOP));
+    }
+
+    /**
+     * Stops playback, closes the output line and ends the engine thread
+     */
+    public void close() {
+        send(AudioCommand.of(AudioCommand.Type.CLOSE));
+        prefetcher.shutdownNow();
+    }
+
+    /**
+     * Opens and pre-buffers the track that should play after the current one, null clears it.
+     * The file is opened on the prefetch thread.
+     */
+    public void prefetch(String filePath) {
+        prefetcher.execute(() -> {
+            PrefetchedTrack next = null;
+            if (filePath != null && PcmSource.isSupported(filePath)) {
+                next = PrefetchedTrack.open(filePath, pcmCache);
+            }
+            PrefetchedTrack old = prefetched.getAndSet(next);
+            if (old != null) {
+                old.close();
+            }
+        });
+    }
+
+    private void runEngine() {
+        while (!shutdown) {
+            processCommands();
+            if (shutdown) {
+                break;
+            }
+
+            long seekWait = applyPendingSeek();
+
+            if (running && !clipPaused) {
+                if (!renderStep()) {
+                    // Line buffer is full, give it a moment to play out
+                    LockSupport.parkNanos(2_000_000);
                 }
+                publishPosition(false);
+            } else if (seekWait > 0) {
+                // Paused with a seek waiting for its turn
+                LockSupport.parkNanos(seekWait);
+            } else {
+                // Nothing to play, sleep until the next command
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Takes every queued command. Anything queued before the last play/stop is dropped
+     * (except volume), so skipping through a playlist only ever opens the last track.
+     */
+    private void processCommands() {
+        AudioCommand command;
+        while ((command = commands.poll()) != null) {
+            batch.add(command);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int lastTrackCommand = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            AudioCommand.Type type = batch.get(i).type;
+            if (type == AudioCommand.Type.PLAY || type == AudioCommand.Type.STOP || type == AudioCommand.Type.CLOSE) {
+                lastTrackCommand = i;
+            }
+        }
 
-                AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(new File(filePath));
-                currentClip = AudioSystem.getClip();
-                currentClip.open(audioInputStream);
+        for (int i = 0; i < batch.size(); i++) {
+            command = batch.get(i);
+            if (i < lastTrackCommand && command.type != AudioCommand.Type.VOLUME
+                    && command.type != AudioCommand.Type.OUTPUT) {
+                continue;
+            }
+            handle(command);
+        }
+        batch.clear();
+    }
 
-                // Add a listener to know when the clip finishes
-                currentClip.addLineListener(event -> {
-                    if (event.getType() == LineEvent.Type.STOP) {
-                        System.out.println("Audio finished playing");
+    private void handle(AudioCommand command) {
+        switch (command.type) {
+            case PLAY -> startTrack(command);
+            case PAUSE -> {
+                if (running && !clipPaused) {
+                    line.stop();
+                    clipPaused = true;
+                    // The line is meant to go quiet now, not an underrun
+                    primed = false;
+                    for (AudioListener listener : listeners) {
+                        listener.paused();
+                    }
+                }
+            }
+            case RESUME -> {
+                if (running && clipPaused) {
+                    line.start();
+                    clipPaused = false;
+                    for (AudioListener listener : listeners) {
+                        listener.resumed();
                     }
-                });
+                }
+            }
+            case VOLUME -> {
+                volume = command.volume;
+                gain.setGain(volume);
+            }
+            case OUTPUT -> reopenOutput();
+            case STOP -> {
+                stopTrack();
+                for (AudioListener listener : listeners) {
+                    listener.stopped();
+                }
+            }
+            case CLOSE -> {
+                stopTrack();
+                if (line != null) {
+                    line.close();
+                    line = null;
+                }
+                PrefetchedTrack old = prefetched.getAndSet(null);
+                if (old != null) {
+                    old.close();
+                }
+                shutdown = true;
+            }
+        }
+    }
 
-                currentClip.start();
-                System.out.println("Audio started playing");
-                clipPaused = false;
-                // Keep the program alive while audio plays
-                Thread.sleep(currentClip.getMicrosecondLength() / 1000);
+    private void startTrack(AudioCommand command) {
+        String filePath = command.path;
+        pendingSeekFrame.set(-1);
+        // Time to first audio, not a gap between tracks
+        synchronized (gapLock) {
+            gapStartNanos = -1;
+        }
+        firstAudioStartNanos = command.sentNanos;
 
-            } else {
-                System.out.println("Unsupported audio format. Please use .wav files.");
+        // Keep the playing track open to fade out, if a crossfade can start from it
+        float outgoingGain = trackGain.getGain();
+        PcmSource outgoing = detachForCrossfade();
+        long outgoingRemaining = outgoing == null ? 0 : outgoing.getFrameLength() - outgoing.getFramePosition();
+
+        // Stop previous track if exists
+        stopTrack();
+
+        try {
+            // Use the prefetched copy if it's the track we were asked for. Anything else is left alone,
+            // it may already be the prefetch for the track after this one.
+            PrefetchedTrack first = prefetched.get();
+            if (first == null || !first.path.equals(filePath) || !prefetched.compareAndSet(first, null)) {
+                first = null;
             }
-        } catch (Exception ex) {
+
+            source = first != null ? first.source : openSource(filePath);
+            currentPath = filePath;
+            openLine(source.getFormat());
+            trackGain.jumpTo(lookupTrackGain(filePath));
+
+            line.flush();
+            dsp.reset();
+            baseFrame = 0;
+            lineMark = line.getLongFramePosition();
+            if (first != null) {
+                System.arraycopy(first.head, 0, renderBuffer, 0, first.headBytes);
+                pendingBytes = first.headBytes;
+            }
+            if (outgoing != null && outgoing.getFormat().matches(line.getFormat())) {
+                crossfader.start(outgoing, Math.min(crossfadeFrames(line.getFormat()), outgoingRemaining),
+                        outgoingGain / Math.max(1e-6f, trackGain.getGain()), crossfadeCurve);
+                outgoing = null;
+                crossfader.mix(renderBuffer, 0, pendingBytes, line.getFormat());
+            }
+            clipPaused = false;
+            running = true;
+            line.start();
+
+            for (AudioListener listener : listeners) {
+                listener.trackStarted(filePath);
+            }
+            publishPosition(true);
+        } catch (Exception | InternalError ex) {
+            running = false;
             System.out.println("Error playing sound: " + ex.getMessage());
             ex.printStackTrace();
+            Exception error = asException(ex);
+            for (AudioListener listener : listeners) {
+                listener.error(filePath, error);
+            }
+        } finally {
+            if (outgoing != null) {
+                // Different format, the new track starts with a cut
+                closeQuietly(outgoing);
+            }
         }
     }
 
-    public void pause() {
-        if (currentClip != null) {
-            currentClip.stop();
+    /**
+     * Opens a track from the PCM cache if it's there, otherwise from the file, recording it into the cache as it plays
+     */
+    private PcmSource openSource(String filePath) throws IOException, UnsupportedAudioFileException {
+        PcmSource cached = pcmCache.open(filePath);
+        return cached != null ? cached : pcmCache.record(filePath, PcmSource.open(filePath));
+    }
+
+    /**
+     * Takes the playing source away from the engine for the crossfade into a newly asked-for track,
+     * rewound to what's actually being heard. Null if crossfading is off or there's nothing audible to fade.
+     */
+    private PcmSource detachForCrossfade() {
+        if (crossfadeMillis <= 0 || !running || clipPaused || draining || source == null || line == null
+                || !DspChain.supports(line.getFormat())) {
+            return null;
+        }
+        // Whatever was fading out already is dropped, it's near silent by now
+        crossfader.cancel();
+        PcmSource playing = source;
+        try {
+            playing.seekFrame(Math.max(0, Math.min(getFramePosition(), playing.getFrameLength())));
+        } catch (IOException ex) {
+            System.out.println("Error rewinding for crossfade: " + ex.getMessage());
+            return null;
+        }
+        source = null;
+        return playing;
+    }
 
+    /**
+     * Configured crossfade length in frames of this format
+     */
+    private long crossfadeFrames(AudioFormat format) {
+        return (long) (crossfadeMillis / 1000.0 * format.getFrameRate());
+    }
+
+    /**
+     * Frames to play before the crossfade into the prefetched track should start, 0 if it should start now,
+     * -1 if this track won't crossfade (off, unknown length, or a format the mixer can't handle)
+     */
+    private long framesUntilCrossfade() {
+        AudioFormat format = line.getFormat();
+        long length = source.getFrameLength();
+        if (crossfadeMillis <= 0 || crossfader.isActive() || length == AudioSystem.NOT_SPECIFIED
+                || !DspChain.supports(format)) {
+            return -1;
+        }
+        // Never more than half the track, so a short one doesn't spend all its time fading
+        long fade = Math.min(crossfadeFrames(format), length / 2);
+        return Math.max(0, length - source.getFramePosition() - fade);
+    }
+
+    /**
+     * Starts mixing the prefetched track in under the tail of this one. Returns false if it isn't
+     * ready or can't go on this line, playback carries on as normal and it's tried again next buffer.
+     */
+    private boolean startCrossfade() {
+        PrefetchedTrack next = prefetched.get();
+        if (next == null || !next.source.getFormat().matches(line.getFormat()) || !prefetched.compareAndSet(next, null)) {
+            return false;
+        }
+        PcmSource outgoing = source;
+        long remaining = outgoing.getFrameLength() - outgoing.getFramePosition();
+        float outgoingGain = trackGain.getGain();
+
+        // The incoming track's first frame plays straight after what's been written of this one
+        lineMark += outgoing.getFramePosition() - baseFrame;
+        switchTo(next, Diagnostics.Transition.CROSSFADE);
+        crossfader.start(outgoing, remaining, outgoingGain / Math.max(1e-6f, trackGain.getGain()), crossfadeCurve);
+        crossfader.mix(renderBuffer, 0, pendingBytes, line.getFormat());
+        return true;
+    }
+
+    /**
+     * Releases the current track's file, the line stays open for the next one
+     */
+    private void stopTrack() {
+        running = false;
+        clipPaused = false;
+        draining = false;
+        primed = false;
+        pendingOffset = 0;
+        pendingBytes = 0;
+        processedEnd = 0;
+        if (deferredNext != null) {
+            deferredNext.close();
+            deferredNext = null;
+        }
+        crossfader.cancel();
+        if (line != null) {
+            line.stop();
+            line.flush();
+        }
+        if (source != null) {
+            closeQuietly(source);
+            source = null;
+        }
+    }
+
+    private static void closeQuietly(PcmSource src) {
+        try {
+            src.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the line so the new mixer/buffer settings take effect, reopening it straight away if something's
+     * playing. Playback carries on from the frame that was being heard.
+     */
+    private void reopenOutput() {
+        long heard = getFramePosition();
+        if (line != null) {
+            line.close();
+            line = null;
+        }
+        if (!running || source == null) {
+            return;
+        }
+        try {
+            openLine(source.getFormat());
+            seek(Math.max(0, Math.min(heard, source.getFrameLength())));
             if (!clipPaused) {
-                clipPaused = true;
+                line.start();
+            }
+            publishPosition(true);
+        } catch (Exception ex) {
+            String path = currentPath;
+            System.out.println("Error reopening output: " + ex.getMessage());
+            ex.printStackTrace();
+            stopTrack();
+            for (AudioListener listener : listeners) {
+                listener.error(path, ex);
             }
         }
     }
 
-    public void resume() {
-        if (currentClip != null) {
-            currentClip.start();
-            if (clipPaused) {
-                clipPaused = false;
+    /**
+     * Opens the output line on the chosen mixer with the chosen buffer, reusing the current one if the format hasn't changed
+     */
+    private SourceDataLine openLine(AudioFormat format) throws LineUnavailableException {
+        if (line != null && line.isOpen() && line.getFormat().matches(format)) {
+            return line;
+        }
+        if (line != null) {
+            line.close();
+        }
+        Mixer.Info mixer = findMixer(mixerName);
+        line = mixer != null ? AudioSystem.getSourceDataLine(format, mixer) : AudioSystem.getSourceDataLine(format);
+        int frames = requestedBufferFrames;
+        if (frames > 0) {
+            line.open(format, frames * format.getFrameSize());
+        } else {
+            line.open(format);
+        }
+        bufferFrames = line.getBufferSize() / format.getFrameSize();
+        outputLatencyMillis = bufferFrames * 1000.0 / format.getFrameRate();
+        bufferPeriodNanos = (long) (line.getBufferSize() / (double) format.getFrameSize() / format.getFrameRate() * 1e9);
+        Diagnostics.outputOpened(String.format("%s, %d frames (%.1f ms) at %.0f Hz",
+                mixer != null ? mixer.getName() : "default mixer", bufferFrames, outputLatencyMillis, format.getFrameRate()), format);
+        if (!DspChain.supports(format)) {
+            System.out.println("No software volume for " + format);
+        }
+        return line;
+    }
+
+    /**
+     * One pass of the render loop: refill the buffer from the source if it's empty, then write
+     * as much as the line has room for. Never blocks. Returns false if there was nothing to do.
+     */
+    private boolean renderStep() {
+        try {
+            if (pendingBytes == 0) {
+                if (draining) {
+                    return finishTail();
+                }
+
+                // Stop reading exactly where the crossfade should begin
+                int want = renderBuffer.length;
+                long untilCrossfade = framesUntilCrossfade();
+                if (untilCrossfade == 0 && startCrossfade()) {
+                    return true;
+                } else if (untilCrossfade > 0) {
+                    int frameSize = line.getFormat().getFrameSize();
+                    want = (int) Math.min(want, untilCrossfade * frameSize);
+                }
+
+                int n = source.read(renderBuffer, 0, want);
+                if (n <= 0) {
+                    trackRanOut();
+                    return true;
+                }
+                crossfader.mix(renderBuffer, 0, n, line.getFormat());
+                pendingOffset = 0;
+                pendingBytes = n;
+                processedEnd = 0;
+            }
+
+            int frameSize = line.getFormat().getFrameSize();
+            int room = line.available();
+            if (room < frameSize) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (primed && (room >= line.getBufferSize() || now > drainDeadlineNanos + UNDERRUN_SLACK_NANOS)) {
+                // Everything we gave the line has played and it's been waiting on us. The deadline catches
+                // lines whose available() doesn't go all the way back up.
+                Diagnostics.underrun(currentPath);
+            }
+            int toWrite = Math.min(pendingBytes, room - (room % frameSize));
+            int end = pendingOffset + toWrite;
+            if (end > processedEnd) {
+                int from = Math.max(pendingOffset, processedEnd);
+                dsp.process(renderBuffer, from, end - from, line.getFormat());
+                processedEnd = end;
+            }
+            long writeStart = System.nanoTime();
+            int written = line.write(renderBuffer, pendingOffset, toWrite);
+            long writeNanos = System.nanoTime() - writeStart;
+            if (writeNanos > bufferPeriodNanos / 2) {
+                // Only what fits is written so this shouldn't block, if it does the device or host is struggling
+                Diagnostics.writeStall(currentPath, writeNanos);
+            }
+            pendingOffset += written;
+            pendingBytes -= written;
+            if (pendingBytes == 0) {
+                pendingOffset = 0;
+                processedEnd = 0;
+            }
+            measureWrite(frameSize);
+            return true;
+        } catch (Exception | InternalError ex) {
+            String path = currentPath;
+            System.out.println("Error playing sound: " + ex.getMessage());
+            ex.printStackTrace();
+            stopTrack();
+            Exception error = asException(ex);
+            for (AudioListener listener : listeners) {
+                listener.error(path, error);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A file truncated under a memory mapping throws InternalError on the next read, listeners get it as an
+     * IOException and the engine moves on like for any other unreadable track
+     */
+    private static Exception asException(Throwable ex) {
+        return ex instanceof Exception exception ? exception : new IOException(ex.getMessage(), ex);
+    }
+
+    /**
+     * Source is out of data. Moves straight on to the prefetched track if it has the same format,
+     * otherwise lets the tail play out first.
+     */
+    private void trackRanOut() {
+        // A track shorter than the fade that's still fading the previous one in
+        crossfader.cancel();
+        PrefetchedTrack next = prefetched.getAndSet(null);
+        if (next != null && next.source.getFormat().matches(line.getFormat())) {
+            // Same format, keep writing to the line. The new track starts where the old one's frames end,
+            // it's only a gap if the line has played up to there before the first write.
+            lineMark += source.getFramePosition() - baseFrame;
+            synchronized (gapLock) {
+                gapStartNanos = drainDeadlineNanos;
+                gapCheckFrame = lineMark;
+            }
+            closeQuietly(source);
+            switchTo(next, Diagnostics.Transition.GAPLESS);
+            return;
+        }
+
+        draining = true;
+        endFrame = source.getFramePosition();
+        deferredNext = next;
+    }
+
+    /**
+     * Checks (without blocking) whether the tail has played out, then opens the deferred track or reports the end
+     */
+    private boolean finishTail() throws LineUnavailableException {
+        if (getFramePosition() < endFrame) {
+            return false;
+        }
+        draining = false;
+        primed = false;
+
+        if (deferredNext != null) {
+            // The line has to be reopened for the new format so this change can't be gapless
+            PrefetchedTrack next = deferredNext;
+            deferredNext = null;
+            synchronized (gapLock) {
+                gapStartNanos = System.nanoTime();
+                gapCheckFrame = -1;
+            }
+            openLine(next.source.getFormat());
+            line.start();
+            lineMark = line.getLongFramePosition();
+            closeQuietly(source);
+            switchTo(next, Diagnostics.Transition.REOPENED_LINE);
+            return true;
+        }
+
+        String path = currentPath;
+        stopTrack();
+        for (AudioListener listener : listeners) {
+            listener.trackFinished(path);
+        }
+        return true;
+    }
+
+    /**
+     * Makes the prefetched track the current one. The caller closes or hands on the old source.
+     */
+    private void switchTo(PrefetchedTrack next, Diagnostics.Transition transition) {
+        source = next.source;
+        currentPath = next.path;
+        // Everything of the old track has already been through the chain, so the new gain starts exactly at the boundary
+        trackGain.jumpTo(lookupTrackGain(next.path));
+        baseFrame = 0;
+        System.arraycopy(next.head, 0, renderBuffer, 0, next.headBytes);
+        pendingOffset = 0;
+        pendingBytes = next.headBytes;
+        processedEnd = 0;
+
+        Diagnostics.trackChanged(next.path, transition);
+        for (AudioListener listener : listeners) {
+            listener.trackChanged(next.path);
+        }
+        publishPosition(true);
+    }
+
+    /**
+     * Applies the newest pending seek if a buffer period has passed since the last one.
+     * Returns how long the caller should wait before trying again, 0 if there's nothing waiting.
+     */
+    private long applyPendingSeek() {
+        if (pendingSeekFrame.get() < 0) {
+            return 0;
+        }
+        if (!running) {
+            pendingSeekFrame.set(-1);
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        long wait = lastSeekNanos + bufferPeriodNanos - now;
+        if (wait > 0) {
+            return wait;
+        }
+
+        long frame = pendingSeekFrame.getAndSet(-1);
+        if (frame >= 0) {
+            lastSeekNanos = now;
+            seekStartNanos = clipPaused ? -1 : pendingSeekNanos;
+            seek(frame);
+            publishPosition(true);
+        }
+        return 0;
+    }
+
+    private void seek(long frame) {
+        try {
+            source.seekFrame(frame);
+        } catch (IOException ex) {
+            System.out.println("Error seeking: " + ex.getMessage());
+            return;
+        }
+        line.flush();
+        dsp.reset();
+        // A seek mid-crossfade lands in the incoming track alone
+        crossfader.cancel();
+        pendingOffset = 0;
+        pendingBytes = 0;
+        processedEnd = 0;
+        draining = false;
+        primed = false;
+        if (deferredNext != null) {
+            // Seeked back from the tail, the deferred track is next again
+            if (!prefetched.compareAndSet(null, deferredNext)) {
+                deferredNext.close();
             }
+            deferredNext = null;
+        }
+        baseFrame = source.getFramePosition();
+        lineMark = line.getLongFramePosition();
+    }
+
+    /**
+     * Sends the position to listeners if the update interval has passed (or straight away if forced).
+     * Called from the render loop so there's no extra timer thread.
+     */
+    private void publishPosition(boolean force) {
+        long now = System.nanoTime();
+        if (!force && now < nextPositionNanos) {
+            return;
+        }
+        nextPositionNanos = now + positionIntervalNanos;
+
+        long position = getMicrosecondPosition();
+        long length = getMicrosecondLength();
+        for (AudioListener listener : listeners) {
+            listener.positionChanged(position, length);
         }
     }
 
+    /**
+     * Sets how often position updates are sent while playing
+     */
+    public void setPositionUpdateInterval(long millis) {
+        positionIntervalNanos = Math.max(1, millis) * 1_000_000;
+        // Take effect now rather than after the old interval runs out
+        nextPositionNanos = 0;
+        LockSupport.unpark(engineThread);
+    }
+
+    /**
+     * Records the gap on the first write of a new track and when the queued audio will run out
+     */
+    private void measureWrite(int frameSize) {
+        long now = System.nanoTime();
+        primed = true;
+        if (firstAudioStartNanos >= 0) {
+            Diagnostics.firstAudio(currentPath, now - firstAudioStartNanos);
+            firstAudioStartNanos = -1;
+        }
+        if (seekStartNanos >= 0) {
+            recordSeek(now - seekStartNanos);
+            seekStartNanos = -1;
+        }
+        synchronized (gapLock) {
+            if (gapStartNanos >= 0) {
+                boolean starved = gapCheckFrame < 0 || line.getLongFramePosition() >= gapCheckFrame;
+                recordGap(starved ? now - gapStartNanos : 0);
+                gapStartNanos = -1;
+            }
+        }
+        long queued = line.getBufferSize() - line.available();
+        drainDeadlineNanos = now + (long) (queued / (double) frameSize / line.getFormat().getFrameRate() * 1e9);
+    }
+
+    private void recordGap(long nanos) {
+        // The drain deadline is an estimate, a line that ran dry a little early can come out negative
+        nanos = Math.max(0, nanos);
+        lastGapMillis = nanos / 1e6;
+        maxGapMillis = Math.max(maxGapMillis, lastGapMillis);
+        totalGapMillis += lastGapMillis;
+        gapCount++;
+        Diagnostics.trackGap(nanos);
+    }
+
+    private void recordSeek(long nanos) {
+        lastSeekMillis = nanos / 1e6;
+        maxSeekMillis = Math.max(maxSeekMillis, lastSeekMillis);
+        Diagnostics.seek(nanos);
+    }
+
+    public double getLastSeekMillis() {
+        return lastSeekMillis;
+    }
+
+    public double getMaxSeekMillis() {
+        return maxSeekMillis;
+    }
+
+    public double getLastGapMillis() {
+        synchronized (gapLock) {
+            return lastGapMillis;
+        }
+    }
+
+    public double getMaxGapMillis() {
+        synchronized (gapLock) {
+            return maxGapMillis;
+        }
+    }
+
+    public double getAverageGapMillis() {
+        synchronized (gapLock) {
+            return gapCount == 0 ? 0 : totalGapMillis / gapCount;
+        }
+    }
+
+    public boolean isPlaying() {
+        return running && !clipPaused;
+    }
+
+    private long getFramePosition() {
+        SourceDataLine out = line;
+        if (out == null) {
+            return 0;
+        }
+        return baseFrame + (out.getLongFramePosition() - lineMark);
+    }
+
+    public long getMicrosecondPosition() {
+        PcmSource src = source;
+        if (src == null) {
+            return 0;
+        }
+        long frame = Math.max(0, Math.min(getFramePosition(), src.getFrameLength()));
+        return (long) (frame * 1_000_000.0 / src.getFormat().getFrameRate());
+    }
+
+    public long getMicrosecondLength() {
+        PcmSource src = source;
+        if (src == null || src.getFrameLength() == AudioSystem.NOT_SPECIFIED) {
+            return 0;
+        }
+        return (long) (src.getFrameLength() * 1_000_000.0 / src.getFormat().getFrameRate());
+    }
+
     /**
      * Sets the playback position in microseconds
      */
     public void setPosition(long microseconds) {
-        if (currentClip != null && currentClip.isOpen()) {
-            long maxPosition = currentClip.getMicrosecondLength();
+        PcmSource src = source;
+        if (src != null && running) {
+            long maxPosition = getMicrosecondLength();
 
             // Ensure position is within valid range
             if (microseconds < 0) {
@@ -79,34 +930,144 @@ public class AudioController {
                 microseconds = maxPosition;
             }
 
-            boolean wasRunning = currentClip.isRunning();
-            currentClip.setMicrosecondPosition(microseconds);
-
-            // Resume playback if it was playing
-            if (wasRunning && !currentClip.isRunning()) {
-                currentClip.start();
-            }
+            // Whole frames, so the source lands on a frame boundary
+            pendingSeekNanos = System.nanoTime();
+            pendingSeekFrame.set((long) (microseconds / 1_000_000.0 * src.getFormat().getFrameRate()));
+            LockSupport.unpark(engineThread);
         }
     }
 
-    //https://stackoverflow.com/questions/40514910/set-volume-of-java-clip
-    //converts logorithmic decibal scale to linear for simplicity.
-    //range of 0.0 to like 2.0.
+    // Linear gain, range of 0.0 to 2.0. Applied in software so it works on any line and before
+    // anything is playing.
 
     public float getVolume() {
-        if (currentClip != null && currentClip.isOpen()) {
-            FloatControl gainControl = (FloatControl) currentClip.getControl(FloatControl.Type.MASTER_GAIN);
-            return (float) Math.pow(10f, gainControl.getValue() / 20f);
-        }
-        return 0f;
+        return volume;
     }
 
     public void setVolume(float volume) {
-        if (currentClip != null && currentClip.isOpen()) {
-            if (volume < 0f || volume > 2f)
-                throw new IllegalArgumentException("Volume not valid: " + volume);
-            FloatControl gainControl = (FloatControl) currentClip.getControl(FloatControl.Type.MASTER_GAIN);
-            gainControl.setValue(20f * (float) Math.log10(volume));
+        if (volume < 0f || volume > 2f)
+            throw new IllegalArgumentException("Volume not valid: " + volume);
+        send(AudioCommand.volume(volume));
+    }
+
+    /**
+     * Sets where per-track normalization gains come from, applied from the next track on
+     */
+    public void setTrackGainLookup(ToDoubleFunction<String> lookup) {
+        trackGainLookup = lookup;
+    }
+
+    /**
+     * Looks the current track's gain up again (e.g. normalization switched on or off), ramped like a volume change
+     */
+    public void refreshTrackGain() {
+        String path = currentPath;
+        if (path != null) {
+            trackGain.setGain(lookupTrackGain(path));
+        }
+    }
+
+    private float lookupTrackGain(String path) {
+        try {
+            return (float) trackGainLookup.applyAsDouble(path);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return 1f;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Sets the crossfade between tracks, both when a track runs into the next and when a new one is
+     * started over it. 0 turns it off, track changes are gapless cuts again. Applies from the next change.
+     */
+    public void setCrossfade(long millis, Crossfader.Curve curve) {
+        crossfadeMillis = Math.max(0, millis);
+        crossfadeCurve = curve;
+    }
+
+    public long getCrossfadeMillis() {
+        return crossfadeMillis;
+    }
+
+    public Crossfader.Curve getCrossfadeCurve() {
+        return crossfadeCurve;
+    }
+
+    /**
+     * Sets how much off-heap memory the PCM cache of recent tracks may use, 0 turns it off
+     */
+    public void setPcmCacheBudget(long bytes) {
+        pcmCache.setBudget(bytes);
+    }
+
+    /**
+     * Chooses the output mixer (null for the system default) and the line buffer in frames (0 for the
+     * mixer's default). Smaller buffers mean less latency and less headroom for a busy machine.
+     * The line is reopened on the engine thread, playback carries on where it was.
+     */
+    public void setOutput(String mixerName, int bufferFrames) {
+        this.mixerName = mixerName;
+        this.requestedBufferFrames = Math.max(0, bufferFrames);
+        send(AudioCommand.of(AudioCommand.Type.OUTPUT));
+    }
+
+    public String getMixerName() {
+        return mixerName;
+    }
+
+    public int getRequestedBufferFrames() {
+        return requestedBufferFrames;
+    }
+
+    /**
+     * Buffer the open line actually has, in frames, 0 before the first track
+     */
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    /**
+     * Output latency the open line gives, its whole buffer played out
+     */
+    public double getOutputLatencyMillis() {
+        return outputLatencyMillis;
+    }
+
+    /**
+     * Names of the mixers that can play audio
+     */
+    public static List<String> outputMixers() {
+        ArrayList<String> names = new ArrayList<>();
+        Line.Info lineInfo = new Line.Info(SourceDataLine.class);
+        for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+            if (AudioSystem.getMixer(info).isLineSupported(lineInfo)) {
+                names.add(info.getName());
+            }
+        }
+        return names;
+    }
+
+    private static Mixer.Info findMixer(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+            if (info.getName().equals(name)) {
+                return info;
+            }
+        }
+        System.out.println("Mixer not found, using the default: " + name);
+        return null;
+    }
+
+    /**
+     * Adds a processor to the end of the DSP chain, after the volume
+     */
+    public void addProcessor(AudioProcessor processor) {
+        dsp.add(processor);
+    }
+
+    public void removeProcessor(AudioProcessor processor) {
+        dsp.remove(processor);
+    }
+}
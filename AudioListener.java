@@ -0,0 +1,34 @@
+// Playback state changes published by AudioController. Called on the audio engine thread,
+// so UI code should hop onto the EDT with SwingUtilities.invokeLater.
+
+interface AudioListener {
+
+    /**
+     * A track was opened and started playing
+     */
+    default void trackStarted(String filePath) {}
+
+    /**
+     * Playback moved on to the prefetched track by itself
+     */
+    default void trackChanged(String filePath) {}
+
+    /**
+     * The track played to its end and there was nothing prefetched after it
+     */
+    default void trackFinished(String filePath) {}
+
+    /**
+     * Current position, sent at the rate set by AudioController.setPositionUpdateInterval.
+     * Comes often, store it rather than queueing an event each time.
+     */
+    default void positionChanged(long microseconds, long lengthMicroseconds) {}
+
+    default void paused() {}
+
+    default void resumed() {}
+
+    default void stopped() {}
+
+    default void error(String filePath, Exception ex) {}
+}
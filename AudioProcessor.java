@@ -0,0 +1,23 @@
+// A step in the software DSP chain, works in place on interleaved float samples.
+
+interface AudioProcessor {
+
+    /**
+     * Processes frames interleaved frames in place, samples are -1..1. Runs on the audio thread
+     * for every buffer written, so it must not allocate or block.
+     */
+    void process(float[] samples, int frames, int channels, float sampleRate);
+
+    /**
+     * True while the processor would leave the samples untouched, lets the chain skip the float conversion
+     */
+    default boolean isIdle() {
+        return false;
+    }
+
+    /**
+     * Called when playback jumps (new track, seek) so no state carries over
+     */
+    default void reset() {
+    }
+}
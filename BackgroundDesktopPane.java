@@ -0,0 +1,78 @@
+// JDesktopPane that draws a background image, scaled once per size instead of on every repaint.
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+@SuppressWarnings("serial")
+public class BackgroundDesktopPane extends JDesktopPane {
+    private BufferedImage sourceImage;
+
+    // Source scaled to the current size. The compatible BufferedImage is the master copy,
+    // the VolatileImage is the accelerated copy we actually draw and may lose its contents.
+    private BufferedImage scaled;
+    private VolatileImage accelerated;
+
+    /**
+     * Sets the image to draw, call on the EDT once it has been loaded
+     */
+    void setBackgroundImage(BufferedImage image) {
+        sourceImage = image;
+        scaled = null;
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        int w = getWidth();
+        int h = getHeight();
+        if (sourceImage == null || w <= 0 || h <= 0) {
+            return;
+        }
+
+        // Only rescale when the size actually changed
+        if (scaled == null || scaled.getWidth() != w || scaled.getHeight() != h) {
+            scaled = scale(w, h);
+            accelerated = null;
+        }
+
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc == null) {
+            g.drawImage(scaled, 0, 0, null);
+            return;
+        }
+
+        do {
+            int state = accelerated == null || accelerated.getWidth() != w || accelerated.getHeight() != h
+                    ? VolatileImage.IMAGE_INCOMPATIBLE
+                    : accelerated.validate(gc);
+            if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+                accelerated = gc.createCompatibleVolatileImage(w, h);
+                copyScaled();
+            } else if (state == VolatileImage.IMAGE_RESTORED) {
+                copyScaled();
+            }
+            g.drawImage(accelerated, 0, 0, null);
+        } while (accelerated.contentsLost());
+    }
+
+    private BufferedImage scale(int w, int h) {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image = gc != null
+                ? gc.createCompatibleImage(w, h)
+                : new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(sourceImage, 0, 0, w, h, null);
+        g2.dispose();
+        return image;
+    }
+
+    private void copyScaled() {
+        Graphics2D g2 = accelerated.createGraphics();
+        g2.drawImage(scaled, 0, 0, null);
+        g2.dispose();
+    }
+}
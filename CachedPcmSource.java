@@ -0,0 +1,57 @@
+// Plays a track out of the PCM cache. Reads are copies out of the direct buffer, seeks are free.
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+
+public class CachedPcmSource implements PcmSource {
+    // Holding the buffer keeps it alive even if the cache evicts the track mid-play
+    private final ByteBuffer data;
+    private final AudioFormat format;
+    private final long frameLength;
+    private final int frameSize;
+    private long framePosition = 0;
+
+    CachedPcmSource(PcmCache.Entry entry) {
+        data = entry.data;
+        format = entry.format;
+        frameLength = entry.frameLength;
+        frameSize = format.getFrameSize();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (framePosition >= frameLength) {
+            return -1;
+        }
+        long frames = Math.min(length / frameSize, frameLength - framePosition);
+        int bytes = (int) frames * frameSize;
+        // Absolute get, the shared buffer's position is never touched
+        data.get((int) (framePosition * frameSize), buffer, offset, bytes);
+        framePosition += frames;
+        return bytes;
+    }
+
+    @Override
+    public void seekFrame(long frame) {
+        framePosition = Math.max(0, Math.min(frame, frameLength));
+    }
+
+    @Override
+    public void close() {
+    }
+}
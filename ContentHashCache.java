@@ -0,0 +1,128 @@
+// On-disk cache of audio content fingerprints keyed by path, size and mtime, so duplicate scans only read changed files.
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ContentHashCache {
+    static final int MAGIC = 0x4D504348; // "MPCH"
+    static final int VERSION = 1;
+
+    static class Entry {
+        long size;
+        long lastModified;
+        // Sample format and length, e.g. "44100/2/16/9261000". Only files of the same shape can be duplicates.
+        String shape;
+        // MD5 of the PCM samples in hex, null until a file of the same shape turns up and it gets hashed
+        String hash;
+    }
+
+    private final File cacheFile;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+    private volatile boolean loaded = false;
+
+    ContentHashCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Gets the cached entry for a file, null if there isn't one or the file changed since
+     */
+    Entry get(String filePath, long size, long lastModified) {
+        Entry entry = entries.get(filePath);
+        return entry != null && entry.size == size && entry.lastModified == lastModified ? entry : null;
+    }
+
+    void put(String filePath, Entry entry) {
+        entries.put(filePath, entry);
+        dirty = true;
+    }
+
+    /**
+     * Drops entries for files that are no longer in the library
+     */
+    void retainOnly(Collection<String> filePaths) {
+        if (entries.keySet().retainAll(filePaths)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Loads the cache file the first time it's called, later calls do nothing
+     */
+    synchronized void loadOnce() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!cacheFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.lastModified = in.readLong();
+                entry.shape = in.readUTF();
+                entry.hash = in.readBoolean() ? in.readUTF() : null;
+                entries.put(path, entry);
+            }
+            System.out.println("Loaded content hash cache: " + count + " files");
+        } catch (IOException ex) {
+            System.err.println("Could not read content hash cache: " + ex.getMessage());
+            entries.clear();
+        }
+    }
+
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create cache directory: " + dir);
+            return;
+        }
+
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ArrayList<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+            out.writeInt(snapshot.size());
+            for (var e : snapshot) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.shape);
+                out.writeBoolean(entry.hash != null);
+                if (entry.hash != null) {
+                    out.writeUTF(entry.hash);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not write content hash cache: " + ex.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException ex) {
+            System.err.println("Could not replace content hash cache: " + ex.getMessage());
+        }
+    }
+}
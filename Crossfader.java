@@ -0,0 +1,166 @@
+// Mixes the end of the outgoing track into the start of the next one, so a crossfade plays on the one output line.
+// All buffers and the gain curves are allocated up front, nothing is allocated while mixing.
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+public class Crossfader {
+    enum Curve {
+        // Constant power through the overlap, sin/cos gains. Right for unrelated tracks.
+        EQUAL_POWER("Equal power"),
+        // Constant amplitude, sounds dipped in the middle unless the tracks are correlated
+        LINEAR("Linear");
+
+        final String label;
+
+        Curve(String label) {
+            this.label = label;
+        }
+    }
+
+    // Fade-in gain at TABLE_SIZE + 1 points through the overlap, interpolated per frame.
+    // The fade-out is the same curve read backwards.
+    static final int TABLE_SIZE = 1024;
+    private static final float[] EQUAL_POWER_TABLE = new float[TABLE_SIZE + 2];
+    private static final float[] LINEAR_TABLE = new float[TABLE_SIZE + 2];
+
+    static {
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            double t = i / (double) TABLE_SIZE;
+            EQUAL_POWER_TABLE[i] = (float) Math.sin(t * Math.PI / 2);
+            LINEAR_TABLE[i] = (float) t;
+        }
+        // One past the end so interpolating at the last point needs no bounds check
+        EQUAL_POWER_TABLE[TABLE_SIZE + 1] = 1f;
+        LINEAR_TABLE[TABLE_SIZE + 1] = 1f;
+    }
+
+    private final float[] incoming = new float[AudioController.BUFFER_BYTES];
+    private final float[] outgoing = new float[AudioController.BUFFER_BYTES];
+    private final byte[] outgoingBytes = new byte[AudioController.BUFFER_BYTES];
+
+    // The fade carries on to its end even if the outgoing track runs out first, so the incoming one never jumps up
+    private boolean active = false;
+    private PcmSource outgoingSource;
+    private float[] table = EQUAL_POWER_TABLE;
+    private long fadeFrames = 0;
+    private long fadeDone = 0;
+    // Outgoing track's normalization relative to the incoming one, whose gain the chain applies to both
+    private float outgoingScale = 1f;
+
+    /**
+     * Starts fading out source over frames while whatever is passed to mix() fades in.
+     * Takes ownership of the source and closes it when the fade is over.
+     */
+    void start(PcmSource source, long frames, float scale, Curve curve) {
+        cancel();
+        active = true;
+        outgoingSource = source;
+        fadeFrames = Math.max(1, frames);
+        fadeDone = 0;
+        outgoingScale = scale;
+        table = curve == Curve.LINEAR ? LINEAR_TABLE : EQUAL_POWER_TABLE;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Ends the fade now and closes the outgoing track
+     */
+    void cancel() {
+        active = false;
+        closeOutgoing();
+    }
+
+    private void closeOutgoing() {
+        if (outgoingSource != null) {
+            try {
+                outgoingSource.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            outgoingSource = null;
+        }
+    }
+
+    /**
+     * buffer holds whole frames of the incoming track. Reads as many frames again from the outgoing one
+     * and mixes them in place, each through its side of the curve. The format must be one DspChain supports.
+     */
+    void mix(byte[] buffer, int offset, int length, AudioFormat format) {
+        if (!active || length <= 0) {
+            return;
+        }
+        int channels = format.getChannels();
+        int frameSize = format.getFrameSize();
+        int frames = length / frameSize;
+        int samples = frames * channels;
+
+        int outgoingFrames = readOutgoing(frames * frameSize) / frameSize;
+
+        DspChain.decode(buffer, offset, samples, format, incoming);
+        DspChain.decode(outgoingBytes, 0, outgoingFrames * channels, format, outgoing);
+
+        float step = TABLE_SIZE / (float) fadeFrames;
+        int i = 0;
+        for (int f = 0; f < frames; f++) {
+            long position = fadeDone + f;
+            if (position >= fadeFrames) {
+                // Past the overlap, the incoming track plays at full level
+                break;
+            }
+            float x = position * step;
+            int index = (int) x;
+            float frac = x - index;
+            float inGain = table[index] + (table[index + 1] - table[index]) * frac;
+            float outX = TABLE_SIZE - x;
+            int outIndex = (int) outX;
+            float outFrac = outX - outIndex;
+            float outGain = (table[outIndex] + (table[outIndex + 1] - table[outIndex]) * outFrac) * outgoingScale;
+
+            if (f < outgoingFrames) {
+                for (int c = 0; c < channels; c++, i++) {
+                    // Can go over full scale mid-fade, encoding clips it
+                    incoming[i] = incoming[i] * inGain + outgoing[i] * outGain;
+                }
+            } else {
+                for (int c = 0; c < channels; c++, i++) {
+                    incoming[i] *= inGain;
+                }
+            }
+        }
+        DspChain.encode(buffer, offset, i, format, incoming);
+
+        fadeDone += frames;
+        if (fadeDone >= fadeFrames) {
+            cancel();
+        } else if (outgoingFrames < frames) {
+            closeOutgoing();
+        }
+    }
+
+    /**
+     * Reads up to length bytes of the outgoing track, less only if it runs out
+     */
+    private int readOutgoing(int length) {
+        if (outgoingSource == null) {
+            return 0;
+        }
+        int got = 0;
+        try {
+            while (got < length) {
+                int n = outgoingSource.read(outgoingBytes, got, length - got);
+                if (n <= 0) {
+                    break;
+                }
+                got += n;
+            }
+            return got;
+        } catch (IOException ex) {
+            System.out.println("Error reading the outgoing track, crossfade cut short: " + ex.getMessage());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+// Counters, latency histograms and JFR events for the playback and library hot paths.
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Diagnostics {
+    // Every hook returns straight away when this is off, it's one volatile read. Underruns and write
+    // stalls are still counted, they're single atomics and the Output window shows them.
+    // Start with -Dmusicplayer.diagnostics=false to have it off from the beginning.
+    static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("musicplayer.diagnostics", "true"));
+
+    static final LatencyHistogram folderScan = new LatencyHistogram("Folder scan");
+    static final LatencyHistogram libraryScan = new LatencyHistogram("Library scan");
+    static final LatencyHistogram firstAudio = new LatencyHistogram("Time to first audio");
+    static final LatencyHistogram seek = new LatencyHistogram("Seek latency");
+    static final LatencyHistogram trackGap = new LatencyHistogram("Track change gap");
+
+    static final AtomicLong foldersListed = new AtomicLong();
+    static final AtomicLong foldersFromIndex = new AtomicLong();
+    static final AtomicLong filesScanned = new AtomicLong();
+    static final AtomicLong underruns = new AtomicLong();
+    // Tracks the engine moved on to by itself, per way it went over
+    static final AtomicLong[] trackChanges = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+    private static volatile String lastTrackChangePath;
+    static final AtomicLong writeStalls = new AtomicLong();
+    private static volatile long maxWriteStallNanos = 0;
+    private static volatile double lastFilesPerSecond = 0;
+    private static volatile String lastUnderrunPath;
+
+    private static Recording recording;
+
+    // The audio engine thread, so the report can show what it allocates. Steady playback should show
+    // no growth here and no new collections.
+    static volatile Thread audioThread;
+    private static volatile long audioAllocatedAtReset = -1;
+    private static volatile long gcCountAtReset = 0;
+    private static volatile long gcMillisAtReset = 0;
+    private static volatile long resetNanos = System.nanoTime();
+
+    // Set by the audio engine, its counters go in the report
+    static volatile PcmCache pcmCache;
+    // Mixer, buffer and latency of the open output line
+    static volatile String output;
+
+    @Name("musicplayer.FolderScan")
+    @Label("Folder Scan")
+    @Category({"Music Player", "Library"})
+    static class FolderScanEvent extends Event {
+        @Label("Folder")
+        String folder;
+        @Label("Files")
+        int files;
+        @Label("From Index")
+        boolean fromIndex;
+        @Label("Duration")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("musicplayer.LibraryScan")
+    @Label("Library Scan")
+    @Category({"Music Player", "Library"})
+    static class LibraryScanEvent extends Event {
+        @Label("Folders")
+        int folders;
+        @Label("Files")
+        int files;
+        @Label("Files Per Second")
+        double filesPerSecond;
+        @Label("Duration")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("musicplayer.FirstAudio")
+    @Label("Time To First Audio")
+    @Category({"Music Player", "Playback"})
+    static class FirstAudioEvent extends Event {
+        @Label("File")
+        String path;
+        @Label("Duration")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("musicplayer.Seek")
+    @Label("Seek")
+    @Category({"Music Player", "Playback"})
+    static class SeekEvent extends Event {
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("musicplayer.Underrun")
+    @Label("Buffer Underrun")
+    @Category({"Music Player", "Playback"})
+    static class UnderrunEvent extends Event {
+        @Label("File")
+        String path;
+    }
+
+    @Name("musicplayer.WriteStall")
+    @Label("Line Write Stall")
+    @Category({"Music Player", "Playback"})
+    static class WriteStallEvent extends Event {
+        @Label("File")
+        String path;
+        @Label("Duration")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("musicplayer.TrackGap")
+    @Label("Track Change Gap")
+    @Category({"Music Player", "Playback"})
+    static class TrackGapEvent extends Event {
+        @Label("Gap")
+        @Timespan
+        long gap;
+    }
+
+    @Name("musicplayer.TrackChange")
+    @Label("Track Change")
+    @Category({"Music Player", "Playback"})
+    static class TrackChangeEvent extends Event {
+        @Label("File")
+        String path;
+        @Label("Transition")
+        String transition;
+    }
+
+    @Name("musicplayer.OutputOpened")
+    @Label("Output Line Opened")
+    @Category({"Music Player", "Playback"})
+    static class OutputOpenedEvent extends Event {
+        @Label("Output")
+        String output;
+        @Label("Format")
+        String format;
+    }
+
+    enum Transition { GAPLESS, CROSSFADE, REOPENED_LINE }
+
+    // Looked up once, isEnabled() is true only while a recording has the event switched on
+    private static final EventType FOLDER_SCAN = EventType.getEventType(FolderScanEvent.class);
+    private static final EventType LIBRARY_SCAN = EventType.getEventType(LibraryScanEvent.class);
+    private static final EventType FIRST_AUDIO = EventType.getEventType(FirstAudioEvent.class);
+    private static final EventType SEEK = EventType.getEventType(SeekEvent.class);
+    private static final EventType UNDERRUN = EventType.getEventType(UnderrunEvent.class);
+    private static final EventType WRITE_STALL = EventType.getEventType(WriteStallEvent.class);
+    private static final EventType TRACK_GAP = EventType.getEventType(TrackGapEvent.class);
+    private static final EventType TRACK_CHANGE = EventType.getEventType(TrackChangeEvent.class);
+    private static final EventType OUTPUT_OPENED = EventType.getEventType(OutputOpenedEvent.class);
+
+    static void folderScanned(String folder, int files, boolean fromIndex, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        folderScan.record(nanos);
+        (fromIndex ? foldersFromIndex : foldersListed).incrementAndGet();
+        filesScanned.addAndGet(files);
+        if (FOLDER_SCAN.isEnabled()) {
+            FolderScanEvent event = new FolderScanEvent();
+            event.folder = folder;
+            event.files = files;
+            event.fromIndex = fromIndex;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    static void libraryScanned(int folders, int files, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        libraryScan.record(nanos);
+        lastFilesPerSecond = nanos > 0 ? files / (nanos / 1e9) : 0;
+        if (LIBRARY_SCAN.isEnabled()) {
+            LibraryScanEvent event = new LibraryScanEvent();
+            event.folders = folders;
+            event.files = files;
+            event.filesPerSecond = lastFilesPerSecond;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    static void firstAudio(String path, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        firstAudio.record(nanos);
+        if (FIRST_AUDIO.isEnabled()) {
+            FirstAudioEvent event = new FirstAudioEvent();
+            event.path = path;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    static void seek(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        seek.record(nanos);
+        if (SEEK.isEnabled()) {
+            SeekEvent event = new SeekEvent();
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    static void underrun(String path) {
+        // Counted even when off, the Output window shows dropouts either way
+        underruns.incrementAndGet();
+        lastUnderrunPath = path;
+        if (enabled && UNDERRUN.isEnabled()) {
+            UnderrunEvent event = new UnderrunEvent();
+            event.path = path;
+            event.commit();
+        }
+    }
+
+    static void writeStall(String path, long nanos) {
+        writeStalls.incrementAndGet();
+        maxWriteStallNanos = Math.max(maxWriteStallNanos, nanos);
+        if (enabled && WRITE_STALL.isEnabled()) {
+            WriteStallEvent event = new WriteStallEvent();
+            event.path = path;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    static void trackGap(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        trackGap.record(nanos);
+        if (TRACK_GAP.isEnabled()) {
+            TrackGapEvent event = new TrackGapEvent();
+            event.gap = nanos;
+            event.commit();
+        }
+    }
+
+    static void trackChanged(String path, Transition transition) {
+        if (!enabled) {
+            return;
+        }
+        trackChanges[transition.ordinal()].incrementAndGet();
+        lastTrackChangePath = path;
+        if (TRACK_CHANGE.isEnabled()) {
+            TrackChangeEvent event = new TrackChangeEvent();
+            event.path = path;
+            event.transition = transition.name().toLowerCase().replace('_', ' ');
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the line just opened, shown in the report and the Output window whether or not diagnostics are on
+     */
+    static void outputOpened(String description, AudioFormat format) {
+        output = description;
+        if (enabled && OUTPUT_OPENED.isEnabled()) {
+            OutputOpenedEvent event = new OutputOpenedEvent();
+            event.output = description;
+            event.format = format.toString();
+            event.commit();
+        }
+    }
+
+    static void reset() {
+        folderScan.reset();
+        libraryScan.reset();
+        firstAudio.reset();
+        seek.reset();
+        trackGap.reset();
+        foldersListed.set(0);
+        foldersFromIndex.set(0);
+        filesScanned.set(0);
+        underruns.set(0);
+        writeStalls.set(0);
+        for (AtomicLong count : trackChanges) {
+            count.set(0);
+        }
+        lastTrackChangePath = null;
+        maxWriteStallNanos = 0;
+        lastFilesPerSecond = 0;
+        lastUnderrunPath = null;
+        audioAllocatedAtReset = audioThreadAllocatedBytes();
+        gcCountAtReset = gcCount();
+        gcMillisAtReset = gcMillis();
+        resetNanos = System.nanoTime();
+        PcmCache cache = pcmCache;
+        if (cache != null) {
+            cache.resetCounters();
+        }
+    }
+
+    /**
+     * Bytes allocated by the audio thread so far, -1 if the JVM can't tell
+     */
+    static long audioThreadAllocatedBytes() {
+        Thread thread = audioThread;
+        if (thread == null || !(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        return threads.getThreadAllocatedBytes(thread.threadId());
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Starts a JFR recording of the player's events, kept in memory until dumped
+     */
+    static synchronized void startRecording() {
+        if (recording != null) {
+            return;
+        }
+        recording = new Recording();
+        recording.setName("Music Player");
+        recording.enable(FolderScanEvent.class);
+        recording.enable(LibraryScanEvent.class);
+        recording.enable(FirstAudioEvent.class);
+        recording.enable(SeekEvent.class);
+        recording.enable(UnderrunEvent.class);
+        recording.enable(WriteStallEvent.class);
+        recording.enable(TrackGapEvent.class);
+        recording.enable(TrackChangeEvent.class);
+        recording.enable(OutputOpenedEvent.class);
+        recording.setToDisk(false);
+        recording.start();
+    }
+
+    static synchronized void stopRecording() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    static synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Writes the text report to the file, and the JFR recording next to it (same name, .jfr) if one is running
+     */
+    static synchronized void dump(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            out.print(report());
+        }
+        if (recording != null) {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            File jfr = new File(file.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".jfr");
+            recording.dump(jfr.toPath());
+        }
+    }
+
+    static String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(enabled ? "Diagnostics on" : "Diagnostics off");
+        out.append(isRecording() ? ", JFR recording\n\n" : "\n\n");
+
+        out.append("Library\n");
+        out.append(String.format("  Folders listed %d, from index %d, files %d, last scan %.0f files/s%n",
+                foldersListed.get(), foldersFromIndex.get(), filesScanned.get(), lastFilesPerSecond));
+        out.append("  ").append(libraryScan.summary()).append('\n');
+        out.append("  ").append(folderScan.summary()).append('\n');
+
+        out.append("\nPlayback\n");
+        if (output != null) {
+            out.append("  Output ").append(output).append('\n');
+        }
+        out.append("  ").append(firstAudio.summary()).append('\n');
+        out.append("  ").append(seek.summary()).append('\n');
+        out.append("  ").append(trackGap.summary()).append('\n');
+        out.append(String.format("  Track changes %d gapless, %d crossfaded, %d reopening the line%s%n",
+                trackChanges[Transition.GAPLESS.ordinal()].get(), trackChanges[Transition.CROSSFADE.ordinal()].get(),
+                trackChanges[Transition.REOPENED_LINE.ordinal()].get(),
+                lastTrackChangePath == null ? "" : " (last to " + new File(lastTrackChangePath).getName() + ")"));
+        out.append(String.format("  Buffer underruns %d%s%n", underruns.get(),
+                lastUnderrunPath == null ? "" : " (last in " + new File(lastUnderrunPath).getName() + ")"));
+        out.append(String.format("  Line write stalls %d (longest %.1f ms)%n", writeStalls.get(), maxWriteStallNanos / 1e6));
+
+        out.append("\nMemory\n");
+        PcmCache cache = pcmCache;
+        if (cache != null) {
+            out.append("  ").append(cache.summary()).append('\n');
+        }
+        long allocated = audioThreadAllocatedBytes();
+        if (allocated >= 0) {
+            long since = audioAllocatedAtReset < 0 ? allocated : allocated - audioAllocatedAtReset;
+            double seconds = Math.max(1e-9, (System.nanoTime() - resetNanos) / 1e9);
+            out.append(String.format("  Audio thread allocated %d bytes since %s (%.0f bytes/s)%n",
+                    since, audioAllocatedAtReset < 0 ? "start" : "reset", since / seconds));
+        }
+        out.append(String.format("  GC collections %d, %d ms since reset%n",
+                gcCount() - gcCountAtReset, gcMillis() - gcMillisAtReset));
+        return out.toString();
+    }
+}
@@ -0,0 +1,105 @@
+// Internal frame showing the Diagnostics report, refreshed while it's open.
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+
+@SuppressWarnings("serial")
+public class DiagnosticsFrame extends JInternalFrame {
+    static final int REFRESH_MILLIS = 1000;
+
+    private final JTextArea report = new JTextArea();
+    private final JCheckBox enabledBox = new JCheckBox("Collect", Diagnostics.enabled);
+    private final JToggleButton recordButton = new JToggleButton("JFR recording", Diagnostics.isRecording());
+    // Only runs while the frame is showing, nothing is polled when it's closed
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    DiagnosticsFrame() {
+        super("Diagnostics", true, true, true, true);
+        setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        setSize(760, 330);
+        setLocation(120, 120);
+        setFrameIcon(null);
+
+        report.setEditable(false);
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        report.setBackground(new Color(30, 30, 33));
+        report.setForeground(new Color(220, 220, 220));
+        report.setBorder(BorderFactory.createEmptyBorder(6, 8, 6, 8));
+
+        JButton resetButton = new JButton("Reset");
+        JButton dumpButton = new JButton("Dump to file...");
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.setBackground(new Color(24, 24, 27));
+        for (AbstractButton button : new AbstractButton[]{enabledBox, recordButton, resetButton, dumpButton}) {
+            button.setBackground(new Color(45, 45, 48));
+            button.setForeground(new Color(220, 220, 220));
+            button.setFocusPainted(false);
+            buttons.add(button);
+        }
+
+        enabledBox.addActionListener(e -> {
+            Diagnostics.enabled = enabledBox.isSelected();
+            refresh();
+        });
+        recordButton.addActionListener(e -> {
+            if (recordButton.isSelected()) {
+                Diagnostics.startRecording();
+            } else {
+                Diagnostics.stopRecording();
+            }
+            refresh();
+        });
+        resetButton.addActionListener(e -> {
+            Diagnostics.reset();
+            refresh();
+        });
+        dumpButton.addActionListener(e -> dumpToFile());
+
+        setLayout(new BorderLayout());
+        JScrollPane scrollPane = new JScrollPane(report);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        add(scrollPane, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        getContentPane().setBackground(new Color(30, 30, 33));
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        super.setVisible(visible);
+        if (refreshTimer == null) {
+            // Called from the JInternalFrame constructor, before our fields are set
+            return;
+        }
+        if (visible) {
+            refresh();
+            refreshTimer.start();
+        } else {
+            refreshTimer.stop();
+        }
+    }
+
+    void refresh() {
+        String text = Diagnostics.report();
+        if (!text.equals(report.getText())) {
+            report.setText(text);
+        }
+    }
+
+    private void dumpToFile() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(System.getProperty("user.home"), "musicplayer-diagnostics.txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            Diagnostics.dump(chooser.getSelectedFile());
+            System.out.println("Diagnostics written to " + chooser.getSelectedFile());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Could not write diagnostics: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+// Runs the output bytes through the processors: decode to float, process in place, encode back.
+// The float buffer is allocated once, nothing is allocated per buffer.
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+public class DspChain {
+    // One float per sample, enough for a full render buffer of 8-bit audio
+    private final float[] work = new float[AudioController.BUFFER_BYTES];
+
+    // Replaced, never modified, so the audio thread can walk it without locking
+    private volatile AudioProcessor[] processors = new AudioProcessor[0];
+
+    synchronized void add(AudioProcessor processor) {
+        AudioProcessor[] grown = Arrays.copyOf(processors, processors.length + 1);
+        grown[processors.length] = processor;
+        processors = grown;
+    }
+
+    synchronized void remove(AudioProcessor processor) {
+        AudioProcessor[] current = processors;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == processor) {
+                AudioProcessor[] shrunk = new AudioProcessor[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, i);
+                System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                processors = shrunk;
+                return;
+            }
+        }
+    }
+
+    void reset() {
+        for (AudioProcessor processor : processors) {
+            processor.reset();
+        }
+    }
+
+    /**
+     * True if the chain can process this format: signed 16/24/32-bit, unsigned 8-bit or 32-bit float PCM
+     */
+    static boolean supports(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+            return bits == 16 || ((bits == 24 || bits == 32) && !format.isBigEndian());
+        }
+        if (encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)) {
+            return bits == 8;
+        }
+        return encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && bits == 32 && !format.isBigEndian();
+    }
+
+    /**
+     * Processes whole frames of buffer in place. Does nothing if every processor is idle.
+     */
+    void process(byte[] buffer, int offset, int length, AudioFormat format) {
+        AudioProcessor[] chain = processors;
+        boolean idle = true;
+        for (AudioProcessor processor : chain) {
+            idle &= processor.isIdle();
+        }
+        if (idle || length <= 0 || !supports(format)) {
+            return;
+        }
+
+        int channels = format.getChannels();
+        int bytesPerSample = format.getSampleSizeInBits() / 8;
+        int samples = length / bytesPerSample;
+        samples -= samples % channels;
+        boolean isFloat = format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+        boolean bigEndian = format.isBigEndian();
+
+        decode(buffer, offset, samples, bytesPerSample, isFloat, bigEndian, work);
+        int frames = samples / channels;
+        for (AudioProcessor processor : chain) {
+            processor.process(work, frames, channels, format.getSampleRate());
+        }
+        encode(buffer, offset, samples, bytesPerSample, isFloat, bigEndian, work);
+    }
+
+    /**
+     * Decodes samples of a format supports() accepts into -1..1 floats, for anything else that wants them
+     */
+    static void decode(byte[] in, int offset, int samples, AudioFormat format, float[] work) {
+        decode(in, offset, samples, format.getSampleSizeInBits() / 8,
+                format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT), format.isBigEndian(), work);
+    }
+
+    private static void decode(byte[] in, int offset, int samples, int bytesPerSample, boolean isFloat,
+                               boolean bigEndian, float[] work) {
+        int b = offset;
+        switch (bytesPerSample) {
+            case 1 -> {
+                for (int s = 0; s < samples; s++) {
+                    work[s] = ((in[b++] & 0xFF) - 128) / 128f;
+                }
+            }
+            case 2 -> {
+                for (int s = 0; s < samples; s++, b += 2) {
+                    int v = bigEndian ? (in[b] << 8) | (in[b + 1] & 0xFF) : (in[b + 1] << 8) | (in[b] & 0xFF);
+                    work[s] = v / 32768f;
+                }
+            }
+            case 3 -> {
+                for (int s = 0; s < samples; s++, b += 3) {
+                    int v = (in[b + 2] << 16) | ((in[b + 1] & 0xFF) << 8) | (in[b] & 0xFF);
+                    work[s] = v / 8388608f;
+                }
+            }
+            default -> {
+                for (int s = 0; s < samples; s++, b += 4) {
+                    int v = (in[b + 3] << 24) | ((in[b + 2] & 0xFF) << 16) | ((in[b + 1] & 0xFF) << 8) | (in[b] & 0xFF);
+                    work[s] = isFloat ? Float.intBitsToFloat(v) : v / 2147483648f;
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes -1..1 floats back into the format, the reverse of decode
+     */
+    static void encode(byte[] out, int offset, int samples, AudioFormat format, float[] work) {
+        encode(out, offset, samples, format.getSampleSizeInBits() / 8,
+                format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT), format.isBigEndian(), work);
+    }
+
+    private static void encode(byte[] out, int offset, int samples, int bytesPerSample, boolean isFloat,
+                               boolean bigEndian, float[] work) {
+        int b = offset;
+        switch (bytesPerSample) {
+            case 1 -> {
+                for (int s = 0; s < samples; s++) {
+                    out[b++] = (byte) (toInt(work[s], 128) + 128);
+                }
+            }
+            case 2 -> {
+                for (int s = 0; s < samples; s++, b += 2) {
+                    int v = toInt(work[s], 32768);
+                    if (bigEndian) {
+                        out[b] = (byte) (v >> 8);
+                        out[b + 1] = (byte) v;
+                    } else {
+                        out[b] = (byte) v;
+                        out[b + 1] = (byte) (v >> 8);
+                    }
+                }
+            }
+            case 3 -> {
+                for (int s = 0; s < samples; s++, b += 3) {
+                    int v = toInt(work[s], 8388608);
+                    out[b] = (byte) v;
+                    out[b + 1] = (byte) (v >> 8);
+                    out[b + 2] = (byte) (v >> 16);
+                }
+            }
+            default -> {
+                for (int s = 0; s < samples; s++, b += 4) {
+                    int v = isFloat ? Float.floatToRawIntBits(work[s]) : (int) Math.max(Integer.MIN_VALUE,
+                            Math.min(Integer.MAX_VALUE, Math.round(work[s] * 2147483648.0)));
+                    out[b] = (byte) v;
+                    out[b + 1] = (byte) (v >> 8);
+                    out[b + 2] = (byte) (v >> 16);
+                    out[b + 3] = (byte) (v >> 24);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same scale as decode so unity gain gives back the exact input
+     */
+    private static int toInt(float sample, int scale) {
+        int v = Math.round(sample * scale);
+        return Math.max(-scale, Math.min(scale - 1, v));
+    }
+}
@@ -0,0 +1,293 @@
+// Finds tracks holding the same audio anywhere in the library, whatever their names, tags or container.
+// Files are first grouped by sample format and length read from their headers, only groups with more than
+// one file get their PCM hashed. Work runs on every core, with a cap on how many files are read at once.
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class DuplicateFinder {
+    static final int READ_CHUNK_BYTES = 1 << 20;
+
+    static class Group {
+        final ArrayList<Song> songs = new ArrayList<>();
+        // Bytes freed by keeping only the smallest copy
+        long reclaimableBytes;
+    }
+
+    private final ContentHashCache cache;
+    private final Semaphore ioPermits;
+    private final ExecutorService pool;
+
+    // Progress of the running search, for the UI to poll
+    volatile String phase = "";
+    final AtomicInteger done = new AtomicInteger();
+    volatile int total = 0;
+    volatile boolean running = false;
+
+    DuplicateFinder(ContentHashCache cache, int maxConcurrentIo) {
+        this.cache = cache;
+        this.ioPermits = new Semaphore(Math.max(1, maxConcurrentIo));
+        AtomicInteger threads = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "duplicates-" + threads.getAndIncrement());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * Searches songs on a background thread, onDone gets the groups (biggest saving first) on the EDT.
+     * Returns false if a search is already running.
+     */
+    synchronized boolean findInBackground(Collection<Song> songs, Consumer<List<Group>> onDone) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        ArrayList<Song> todo = new ArrayList<>(songs);
+        Thread.ofPlatform().daemon().name("duplicate-finder").start(() -> {
+            List<Group> groups = new ArrayList<>();
+            try {
+                groups = find(todo);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                running = false;
+            }
+            List<Group> result = groups;
+            SwingUtilities.invokeLater(() -> onDone.accept(result));
+        });
+        return true;
+    }
+
+    /**
+     * Groups the songs by content. songs is the whole library, cache entries for other files are dropped.
+     */
+    List<Group> find(List<Song> songs) throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        cache.loadOnce();
+        int n = songs.size();
+        ContentHashCache.Entry[] entries = new ContentHashCache.Entry[n];
+
+        // Pass 1: format and length from the headers (or the cache)
+        ArrayList<Callable<Void>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int index = i;
+            tasks.add(() -> {
+                entries[index] = entryFor(songs.get(index));
+                done.incrementAndGet();
+                return null;
+            });
+        }
+        runAll("Reading headers", tasks);
+
+        HashMap<String, ArrayList<Integer>> byShape = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (entries[i] != null) {
+                byShape.computeIfAbsent(entries[i].shape, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // Pass 2: hash the PCM of files that share a shape with another
+        tasks.clear();
+        int hashed = 0;
+        for (ArrayList<Integer> sameShape : byShape.values()) {
+            if (sameShape.size() < 2) {
+                continue;
+            }
+            for (int index : sameShape) {
+                hashed++;
+                tasks.add(() -> {
+                    hash(songs.get(index), entries[index]);
+                    done.incrementAndGet();
+                    return null;
+                });
+            }
+        }
+        runAll("Hashing audio", tasks);
+        HashSet<String> paths = new HashSet<>(n * 2);
+        for (Song song : songs) {
+            paths.add(song.FilePath);
+        }
+        cache.retainOnly(paths);
+        cache.save();
+
+        HashMap<String, Group> byContent = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (entries[i] != null && entries[i].hash != null) {
+                byContent.computeIfAbsent(entries[i].shape + "/" + entries[i].hash, k -> new Group()).songs.add(songs.get(i));
+            }
+        }
+        ArrayList<Group> groups = new ArrayList<>();
+        for (Group group : byContent.values()) {
+            if (group.songs.size() < 2) {
+                continue;
+            }
+            long totalBytes = 0;
+            long smallest = Long.MAX_VALUE;
+            for (Song song : group.songs) {
+                totalBytes += song.size;
+                smallest = Math.min(smallest, song.size);
+            }
+            group.reclaimableBytes = totalBytes - smallest;
+            groups.add(group);
+        }
+        groups.sort((a, b) -> Long.compare(b.reclaimableBytes, a.reclaimableBytes));
+
+        System.out.println(String.format("Duplicate search: %d files, %d hashed, %d groups in %.1f s",
+                n, hashed, groups.size(), (System.nanoTime() - start) / 1e9));
+        phase = "";
+        return groups;
+    }
+
+    private void runAll(String phaseName, List<Callable<Void>> tasks) throws InterruptedException, ExecutionException {
+        phase = phaseName;
+        done.set(0);
+        total = tasks.size();
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            future.get();
+        }
+    }
+
+    /**
+     * The cached entry if the file's size and mtime still match, otherwise a new one with its shape read
+     * from the header. Null if the file can't be read.
+     */
+    private ContentHashCache.Entry entryFor(Song song) throws InterruptedException {
+        ContentHashCache.Entry entry = cache.get(song.FilePath, song.size, song.lastModified);
+        if (entry != null) {
+            return entry;
+        }
+        ioPermits.acquire();
+        try {
+            entry = new ContentHashCache.Entry();
+            entry.size = song.size;
+            entry.lastModified = song.lastModified;
+            entry.shape = shapeOf(song.FilePath);
+            cache.put(song.FilePath, entry);
+            return entry;
+        } catch (IOException | RuntimeException ex) {
+            // A damaged header can fail in the parser as well, either way the file is skipped
+            System.err.println("Could not read header: " + song.FilePath + " (" + ex + ")");
+            return null;
+        } finally {
+            ioPermits.release();
+        }
+    }
+
+    private void hash(Song song, ContentHashCache.Entry entry) throws InterruptedException {
+        if (entry.hash != null) {
+            return;
+        }
+        ioPermits.acquire();
+        try {
+            entry.hash = hashOf(song.FilePath);
+            cache.put(song.FilePath, entry);
+        } catch (IOException | RuntimeException | InternalError ex) {
+            // A WAV cut short under its mapping throws InternalError, skip it like any unreadable file
+            System.err.println("Could not hash: " + song.FilePath + " (" + ex + ")");
+        } finally {
+            ioPermits.release();
+        }
+    }
+
+    /**
+     * "rate/channels/bits/frames", with an f on the bits for float samples
+     */
+    static String shapeOf(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (filePath.toLowerCase().endsWith(".flac")) {
+                FlacInfo info = FlacInfo.read(channel);
+                return info.sampleRate + "/" + info.channels + "/" + info.bitsPerSample + "/" + info.totalSamples;
+            }
+            WavHeader header = WavHeader.read(channel);
+            if (header.toAudioFormat() == null) {
+                throw new IOException("Unsupported WAV format tag: " + header.formatTag);
+            }
+            return header.sampleRate + "/" + header.channels + "/" + header.bitsPerSample + (header.isFloat() ? "f" : "")
+                    + "/" + header.getFrameLength();
+        }
+    }
+
+    /**
+     * MD5 of the samples as signed little-endian whole bytes, the layout FLAC's STREAMINFO MD5 uses, so a WAV
+     * and a FLAC of the same recording match. FLACs that carry the MD5 aren't read at all.
+     */
+    static String hashOf(String filePath) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        if (filePath.toLowerCase().endsWith(".flac")) {
+            try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+                FlacInfo info = FlacInfo.read(channel);
+                if (info.hasMd5()) {
+                    return HexFormat.of().formatHex(info.md5);
+                }
+            }
+            try (FlacSource source = new FlacSource(filePath, true)) {
+                byte[] buffer = new byte[READ_CHUNK_BYTES - READ_CHUNK_BYTES % source.getFormat().getFrameSize()];
+                int n;
+                while ((n = source.read(buffer, 0, buffer.length)) > 0) {
+                    md5.update(buffer, 0, n);
+                }
+            }
+            return HexFormat.of().formatHex(md5.digest());
+        }
+
+        // WAV: straight out of the mapping, the header and any tag chunks never come into it
+        try (MappedWav wav = MappedWav.open(filePath)) {
+            int blockAlign = wav.header.blockAlign;
+            boolean unsigned8 = wav.header.bitsPerSample == 8 && !wav.header.isFloat();
+            byte[] scratch = unsigned8 ? new byte[READ_CHUNK_BYTES] : null;
+            long frames = wav.getFrameLength();
+            long frame = 0;
+            while (frame < frames) {
+                ByteBuffer data = wav.frames(frame, (int) Math.min(frames - frame, Integer.MAX_VALUE / blockAlign));
+                int length = data.remaining();
+                if (length < blockAlign) {
+                    break;
+                }
+                if (unsigned8) {
+                    // 8-bit WAV is unsigned, flip it to signed
+                    while (data.hasRemaining()) {
+                        int chunk = Math.min(scratch.length, data.remaining());
+                        data.get(scratch, 0, chunk);
+                        for (int i = 0; i < chunk; i++) {
+                            scratch[i] ^= (byte) 0x80;
+                        }
+                        md5.update(scratch, 0, chunk);
+                    }
+                } else {
+                    md5.update(data);
+                }
+                frame += length / blockAlign;
+            }
+        }
+        return HexFormat.of().formatHex(md5.digest());
+    }
+}
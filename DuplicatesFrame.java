@@ -0,0 +1,117 @@
+// Internal frame that runs the duplicate finder over the whole library and lists the copies it found.
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("serial")
+public class DuplicatesFrame extends JInternalFrame {
+    static final int REFRESH_MILLIS = 250;
+
+    private final SongManagement sm;
+    // Group header rows followed by a row per copy
+    private final DefaultListModel<Object> rows = new DefaultListModel<>();
+    private final JList<Object> list = new JList<>(rows);
+    private final JLabel statusLabel = new JLabel("Finds the same recording stored more than once");
+    private final JButton findButton = new JButton("Find duplicates");
+    // Only runs while a search is going
+    private final Timer progressTimer = new Timer(REFRESH_MILLIS, e -> showProgress());
+    private long startNanos;
+
+    DuplicatesFrame(SongManagement sm) {
+        super("Duplicates", true, true, true, true);
+        this.sm = sm;
+        setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        setSize(640, 380);
+        setLocation(140, 100);
+        setFrameIcon(null);
+
+        list.setBackground(new Color(30, 30, 33));
+        list.setForeground(new Color(220, 220, 220));
+        list.setSelectionBackground(new Color(70, 130, 180));
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, describe(value), index, isSelected, cellHasFocus);
+                if (!isSelected) {
+                    setBackground(new Color(30, 30, 33));
+                    setForeground(value instanceof DuplicateFinder.Group ? new Color(70, 130, 180) : new Color(220, 220, 220));
+                }
+                return this;
+            }
+        });
+
+        statusLabel.setForeground(new Color(180, 180, 180));
+        findButton.setBackground(new Color(45, 45, 48));
+        findButton.setForeground(new Color(220, 220, 220));
+        findButton.setFocusPainted(false);
+        findButton.addActionListener(e -> find());
+
+        JPanel top = new JPanel(new BorderLayout(10, 0));
+        top.setBackground(new Color(24, 24, 27));
+        top.setBorder(BorderFactory.createEmptyBorder(6, 8, 6, 8));
+        top.add(findButton, BorderLayout.WEST);
+        top.add(statusLabel, BorderLayout.CENTER);
+
+        setLayout(new BorderLayout());
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        scrollPane.getViewport().setBackground(new Color(30, 30, 33));
+        add(top, BorderLayout.NORTH);
+        add(scrollPane, BorderLayout.CENTER);
+        getContentPane().setBackground(new Color(30, 30, 33));
+    }
+
+    private String describe(Object value) {
+        if (value instanceof DuplicateFinder.Group group) {
+            return String.format("%d copies of %s, %.1f MB reclaimable", group.songs.size(),
+                    group.songs.get(0).displayName(), group.reclaimableBytes / 1048576.0);
+        }
+        if (value instanceof Song song) {
+            return String.format("      %s/%s  (%.1f MB)", song.playlistName, song.name, song.size / 1048576.0);
+        }
+        return String.valueOf(value);
+    }
+
+    private void find() {
+        ArrayList<Song> songs = new ArrayList<>();
+        for (int id : sm.registry.liveIds()) {
+            Song song = sm.registry.get(id);
+            if (song != null) {
+                songs.add(song);
+            }
+        }
+        if (!sm.duplicateFinder.findInBackground(songs, this::showGroups)) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        findButton.setEnabled(false);
+        rows.clear();
+        progressTimer.start();
+    }
+
+    private void showProgress() {
+        DuplicateFinder finder = sm.duplicateFinder;
+        if (finder.running && !finder.phase.isEmpty()) {
+            statusLabel.setText(String.format("%s: %d of %d", finder.phase, finder.done.get(), finder.total));
+        }
+    }
+
+    private void showGroups(List<DuplicateFinder.Group> groups) {
+        progressTimer.stop();
+        findButton.setEnabled(true);
+        long reclaimable = 0;
+        ArrayList<Object> all = new ArrayList<>();
+        for (DuplicateFinder.Group group : groups) {
+            reclaimable += group.reclaimableBytes;
+            all.add(group);
+            all.addAll(group.songs);
+        }
+        rows.addAll(all);
+        statusLabel.setText(groups.isEmpty()
+                ? String.format("No duplicates (%.1f s)", (System.nanoTime() - startNanos) / 1e9)
+                : String.format("%d duplicated tracks, %.1f MB reclaimable (%.1f s)", groups.size(),
+                reclaimable / 1048576.0, (System.nanoTime() - startNanos) / 1e9));
+    }
+}
@@ -0,0 +1,452 @@
+// Decodes one FLAC frame at a time out of a byte array into per-channel int buffers sized once from STREAMINFO.
+// Nothing is allocated per frame, the bit reader keeps a 64-bit window over the bytes.
+
+import java.io.IOException;
+
+public class FlacDecoder {
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            CRC8_TABLE[i] = crc & 0xFF;
+
+            crc = i << 8;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x8005 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    // Thrown when the frame runs past the end of the bytes handed in. Shared, it's an expected outcome not an error.
+    private static final IOException OUT_OF_DATA = new IOException("FLAC frame runs past the buffer") {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    private final FlacInfo info;
+    private final int[] coefficients = new int[32];
+
+    // Decoded samples of the last frame, [channel][sample], at the stream's bits per sample
+    final int[][] samples;
+    int blockSize;
+    // First sample of the last frame (header read by decodeFrame or findSync)
+    long sampleNumber;
+
+    private byte[] data;
+    private int limit;
+    private int bytePos;
+    // Next bits to read, left-aligned; the bits below bitCount are always zero
+    private long bitBuf;
+    private int bitCount;
+
+    private int channelAssignment;
+    private int frameBits;
+
+    FlacDecoder(FlacInfo info) {
+        this.info = info;
+        samples = new int[info.channels][info.maxBlockSize];
+    }
+
+    /**
+     * Decodes the frame starting at offset. Returns the bytes it took, or 0 if it doesn't all fit before limit.
+     * Throws if the bytes at offset aren't a valid frame of this stream.
+     */
+    int decodeFrame(byte[] data, int offset, int limit) throws IOException {
+        try {
+            if (!readHeader(data, offset, limit)) {
+                throw new IOException("Lost FLAC frame sync");
+            }
+            int channels = info.channels;
+            for (int c = 0; c < channels; c++) {
+                int bits = frameBits;
+                // The side channel needs one bit more
+                if ((channelAssignment == 8 || channelAssignment == 10) && c == 1 || channelAssignment == 9 && c == 0) {
+                    bits++;
+                }
+                readSubframe(samples[c], bits);
+            }
+            decorrelate();
+
+            // Padding to the byte, then the CRC-16 of the frame. A body that's damaged but still parses
+            // only shows up here.
+            int padding = bitCount & 7;
+            bitBuf <<= padding;
+            bitCount -= padding;
+            int frameCrc = readUInt(16);
+            int end = bytePos - bitCount / 8;
+            if (end > limit) {
+                return 0;
+            }
+            int crc = 0;
+            for (int i = offset; i < end - 2; i++) {
+                crc = (crc << 8 & 0xFFFF) ^ CRC16_TABLE[crc >>> 8 ^ (data[i] & 0xFF)];
+            }
+            if (crc != frameCrc) {
+                throw new IOException("FLAC frame CRC mismatch");
+            }
+            return end - offset;
+        } catch (IOException ex) {
+            if (ex == OUT_OF_DATA) {
+                return 0;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Offset of the first valid frame header at or after from, -1 if none starts before limit.
+     * Leaves its sample number in sampleNumber.
+     */
+    int findSync(byte[] data, int from, int limit) {
+        for (int i = from; i + 1 < limit; i++) {
+            if (data[i] == (byte) 0xFF && (data[i + 1] & 0xFE) == 0xF8) {
+                try {
+                    if (readHeader(data, i, limit)) {
+                        return i;
+                    }
+                } catch (IOException ex) {
+                    // Not a header, or cut off by limit
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads and checks a frame header, false if the bytes aren't one (bad sync, reserved values, CRC-8 mismatch)
+     */
+    private boolean readHeader(byte[] data, int offset, int limit) throws IOException {
+        this.data = data;
+        this.limit = limit;
+        bytePos = offset;
+        bitBuf = 0;
+        bitCount = 0;
+
+        if (readUInt(15) != 0x7FFC) {
+            return false;
+        }
+        boolean variableBlocks = readUInt(1) == 1;
+        int blockCode = readUInt(4);
+        int rateCode = readUInt(4);
+        channelAssignment = readUInt(4);
+        int sizeCode = readUInt(3);
+        if (blockCode == 0 || rateCode == 15 || channelAssignment > 10 || sizeCode == 3 || readUInt(1) != 0) {
+            return false;
+        }
+
+        // UTF-8 style coded frame number (fixed block size) or sample number (variable)
+        int first = readUInt(8);
+        int extra = Integer.numberOfLeadingZeros(~first << 24);
+        if (extra == 1 || extra > 7) {
+            return false;
+        }
+        long number = extra == 0 ? first : first & (0x7F >> extra);
+        for (int i = 1; i < extra; i++) {
+            int b = readUInt(8);
+            if ((b & 0xC0) != 0x80) {
+                return false;
+            }
+            number = number << 6 | (b & 0x3F);
+        }
+        sampleNumber = variableBlocks ? number : number * info.maxBlockSize;
+
+        if (blockCode == 1) {
+            blockSize = 192;
+        } else if (blockCode <= 5) {
+            blockSize = 576 << (blockCode - 2);
+        } else if (blockCode == 6) {
+            blockSize = readUInt(8) + 1;
+        } else if (blockCode == 7) {
+            blockSize = readUInt(16) + 1;
+        } else {
+            blockSize = 256 << (blockCode - 8);
+        }
+        if (rateCode == 12) {
+            readUInt(8);
+        } else if (rateCode == 13 || rateCode == 14) {
+            readUInt(16);
+        }
+        frameBits = switch (sizeCode) {
+            case 1 -> 8;
+            case 2 -> 12;
+            case 4 -> 16;
+            case 5 -> 20;
+            case 6 -> 24;
+            case 7 -> 32;
+            default -> info.bitsPerSample;
+        };
+
+        int crcEnd = bytePos - bitCount / 8;
+        int crc = 0;
+        for (int i = offset; i < crcEnd; i++) {
+            crc = CRC8_TABLE[crc ^ (data[i] & 0xFF)];
+        }
+        if (readUInt(8) != crc) {
+            return false;
+        }
+        int channels = channelAssignment < 8 ? channelAssignment + 1 : 2;
+        if (channels != info.channels || blockSize > info.maxBlockSize || frameBits != info.bitsPerSample) {
+            throw new IOException("FLAC frame doesn't match STREAMINFO");
+        }
+        return true;
+    }
+
+    private void readSubframe(int[] out, int bits) throws IOException {
+        int header = readUInt(8);
+        if ((header & 0x80) != 0) {
+            throw new IOException("Corrupt FLAC subframe");
+        }
+        int type = header >>> 1;
+        int wasted = 0;
+        if ((header & 1) != 0) {
+            // Low bits that are zero in every sample of the subframe, coded in unary
+            wasted = readUnary() + 1;
+            bits -= wasted;
+        }
+        if (bits > 32) {
+            throw new IOException("FLAC samples wider than 32 bits aren't supported");
+        }
+
+        int n = blockSize;
+        if (type == 0) {
+            int value = readSigned(bits);
+            for (int i = 0; i < n; i++) {
+                out[i] = value;
+            }
+        } else if (type == 1) {
+            for (int i = 0; i < n; i++) {
+                out[i] = readSigned(bits);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            for (int i = 0; i < order; i++) {
+                out[i] = readSigned(bits);
+            }
+            readResidual(out, order);
+            restoreFixed(out, order);
+        } else if (type >= 32) {
+            int order = type - 31;
+            for (int i = 0; i < order; i++) {
+                out[i] = readSigned(bits);
+            }
+            int precision = readUInt(4) + 1;
+            int shift = readSigned(5);
+            if (precision == 16 || shift < 0) {
+                throw new IOException("Corrupt FLAC LPC subframe");
+            }
+            for (int i = 0; i < order; i++) {
+                coefficients[i] = readSigned(precision);
+            }
+            readResidual(out, order);
+            // int sums are safe while the products plus the taps fit in 32 bits
+            if (bits + precision + 32 - Integer.numberOfLeadingZeros(order) <= 32) {
+                restoreLpc(out, order, shift);
+            } else {
+                restoreLpcLong(out, order, shift);
+            }
+        } else {
+            throw new IOException("Reserved FLAC subframe type " + type);
+        }
+
+        if (wasted > 0) {
+            for (int i = 0; i < n; i++) {
+                out[i] <<= wasted;
+            }
+        }
+    }
+
+    /**
+     * Rice-coded residuals into out from order on, partition by partition
+     */
+    private void readResidual(int[] out, int order) throws IOException {
+        int method = readUInt(2);
+        if (method > 1) {
+            throw new IOException("Reserved FLAC residual coding method");
+        }
+        int paramBits = method == 0 ? 4 : 5;
+        int escape = method == 0 ? 15 : 31;
+        int partitionOrder = readUInt(4);
+        int partitionSize = blockSize >> partitionOrder;
+        if (partitionSize << partitionOrder != blockSize || partitionSize < order) {
+            throw new IOException("Corrupt FLAC residual partitioning");
+        }
+
+        int i = order;
+        for (int p = 0, partitions = 1 << partitionOrder; p < partitions; p++) {
+            int end = (p + 1) * partitionSize;
+            int param = readUInt(paramBits);
+            if (param == escape) {
+                int bits = readUInt(5);
+                for (; i < end; i++) {
+                    out[i] = readSigned(bits);
+                }
+                continue;
+            }
+            for (; i < end; i++) {
+                // Quotient in unary, inlined since this is where the time goes
+                int q = 0;
+                while (bitBuf == 0) {
+                    q += bitCount;
+                    bitCount = 0;
+                    fill();
+                }
+                int zeros = Long.numberOfLeadingZeros(bitBuf);
+                q += zeros;
+                bitBuf = bitBuf << zeros << 1;
+                bitCount -= zeros + 1;
+                int v = q << param | readUInt(param);
+                out[i] = (v >>> 1) ^ -(v & 1);
+            }
+        }
+    }
+
+    private void restoreFixed(int[] s, int order) {
+        int n = blockSize;
+        switch (order) {
+            case 1 -> {
+                for (int i = 1; i < n; i++) {
+                    s[i] += s[i - 1];
+                }
+            }
+            case 2 -> {
+                for (int i = 2; i < n; i++) {
+                    s[i] += 2 * s[i - 1] - s[i - 2];
+                }
+            }
+            case 3 -> {
+                for (int i = 3; i < n; i++) {
+                    s[i] += 3 * (s[i - 1] - s[i - 2]) + s[i - 3];
+                }
+            }
+            case 4 -> {
+                for (int i = 4; i < n; i++) {
+                    s[i] += 4 * (s[i - 1] + s[i - 3]) - 6 * s[i - 2] - s[i - 4];
+                }
+            }
+            default -> {
+                // Order 0, the residual is the signal
+            }
+        }
+    }
+
+    private void restoreLpc(int[] s, int order, int shift) {
+        int[] c = coefficients;
+        for (int i = order, n = blockSize; i < n; i++) {
+            int sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += c[j] * s[i - 1 - j];
+            }
+            s[i] += sum >> shift;
+        }
+    }
+
+    private void restoreLpcLong(int[] s, int order, int shift) {
+        int[] c = coefficients;
+        for (int i = order, n = blockSize; i < n; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) c[j] * s[i - 1 - j];
+            }
+            s[i] += (int) (sum >> shift);
+        }
+    }
+
+    /**
+     * Turns left/side, side/right and mid/side pairs back into left and right
+     */
+    private void decorrelate() {
+        if (channelAssignment < 8) {
+            return;
+        }
+        int[] a = samples[0];
+        int[] b = samples[1];
+        int n = blockSize;
+        switch (channelAssignment) {
+            case 8 -> {
+                for (int i = 0; i < n; i++) {
+                    b[i] = a[i] - b[i];
+                }
+            }
+            case 9 -> {
+                for (int i = 0; i < n; i++) {
+                    a[i] += b[i];
+                }
+            }
+            default -> {
+                for (int i = 0; i < n; i++) {
+                    int side = b[i];
+                    int mid = a[i] << 1 | (side & 1);
+                    a[i] = (mid + side) >> 1;
+                    b[i] = (mid - side) >> 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tops the bit window up to at least 57 bits. Past limit it feeds zeros for a few bytes (the window
+     * reads ahead of the frame), after that the frame can't fit.
+     */
+    private void fill() throws IOException {
+        while (bitCount <= 56) {
+            int b;
+            if (bytePos < limit) {
+                b = data[bytePos] & 0xFF;
+            } else if (bytePos < limit + 8) {
+                b = 0;
+            } else {
+                throw OUT_OF_DATA;
+            }
+            bytePos++;
+            bitBuf |= (long) b << (56 - bitCount);
+            bitCount += 8;
+        }
+    }
+
+    private int readUInt(int n) throws IOException {
+        if (n == 0) {
+            return 0;
+        }
+        if (bitCount < n) {
+            fill();
+        }
+        int value = (int) (bitBuf >>> (64 - n));
+        bitBuf <<= n;
+        bitCount -= n;
+        return value;
+    }
+
+    private int readSigned(int n) throws IOException {
+        if (n == 0) {
+            return 0;
+        }
+        if (bitCount < n) {
+            fill();
+        }
+        int value = (int) (bitBuf >> (64 - n));
+        bitBuf <<= n;
+        bitCount -= n;
+        return value;
+    }
+
+    private int readUnary() throws IOException {
+        int count = 0;
+        while (bitBuf == 0) {
+            count += bitCount;
+            bitCount = 0;
+            fill();
+        }
+        int zeros = Long.numberOfLeadingZeros(bitBuf);
+        bitBuf = bitBuf << zeros << 1;
+        bitCount -= zeros + 1;
+        return count + zeros;
+    }
+}
@@ -0,0 +1,196 @@
+// Parses the FLAC metadata blocks once: STREAMINFO, the seek table, Vorbis comment title/artist,
+// and where the first audio frame starts.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class FlacInfo {
+    static final int STREAMINFO = 0;
+    static final int SEEKTABLE = 3;
+    static final int VORBIS_COMMENT = 4;
+    // Comment blocks bigger than this are skipped, they're not worth reading for a title
+    static final int MAX_COMMENT_BYTES = 256 * 1024;
+
+    int minBlockSize;
+    int maxBlockSize;
+    int maxFrameSize;
+    int sampleRate;
+    int channels;
+    int bitsPerSample;
+    // 0 if the encoder didn't know
+    long totalSamples;
+    // MD5 of the decoded samples (signed, little-endian, whole bytes per sample), all zeros if not computed
+    final byte[] md5 = new byte[16];
+
+    // Byte offset of the first audio frame, seek table offsets count from here
+    long firstFrameOffset;
+
+    // Seek points in sample order, placeholders dropped
+    long[] seekSamples = new long[0];
+    long[] seekOffsets = new long[0];
+
+    String title;
+    String artist;
+
+    /**
+     * Walks the metadata blocks with positioned reads, only STREAMINFO, SEEKTABLE and VORBIS_COMMENT bodies are read
+     */
+    static FlacInfo read(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        long fileSize = channel.size();
+
+        long pos = 0;
+        readFully(channel, buf, 0, 10);
+        if (buf.get(0) == 'I' && buf.get(1) == 'D' && buf.get(2) == '3') {
+            // ID3v2 tag in front of the stream, its size is syncsafe (7 bits per byte)
+            int size = (buf.get(6) & 0x7F) << 21 | (buf.get(7) & 0x7F) << 14 | (buf.get(8) & 0x7F) << 7 | (buf.get(9) & 0x7F);
+            pos = 10 + size + ((buf.get(5) & 0x10) != 0 ? 10 : 0);
+            readFully(channel, buf, pos, 4);
+        }
+        if (buf.getInt(0) != 0x664C6143) { // "fLaC"
+            throw new IOException("Not a FLAC file");
+        }
+        pos += 4;
+
+        FlacInfo info = new FlacInfo();
+        boolean haveStreamInfo = false;
+        boolean last = false;
+        while (!last && pos + 4 <= fileSize) {
+            readFully(channel, buf, pos, 4);
+            int header = buf.getInt(0);
+            last = header < 0;
+            int type = (header >>> 24) & 0x7F;
+            int length = header & 0xFFFFFF;
+            long body = pos + 4;
+
+            if (type == STREAMINFO && length >= 34) {
+                readFully(channel, buf, body, 34);
+                info.minBlockSize = buf.getShort(0) & 0xFFFF;
+                info.maxBlockSize = buf.getShort(2) & 0xFFFF;
+                info.maxFrameSize = (buf.get(7) & 0xFF) << 16 | (buf.get(8) & 0xFF) << 8 | (buf.get(9) & 0xFF);
+                // 20 bits rate, 3 bits channels - 1, 5 bits bps - 1, 36 bits total samples
+                long packed = buf.getLong(10);
+                info.sampleRate = (int) (packed >>> 44);
+                info.channels = (int) ((packed >>> 41) & 0x7) + 1;
+                info.bitsPerSample = (int) ((packed >>> 36) & 0x1F) + 1;
+                info.totalSamples = packed & 0xFFFFFFFFFL;
+                buf.get(18, info.md5);
+                haveStreamInfo = true;
+            } else if (type == SEEKTABLE) {
+                info.readSeekTable(channel, body, length / 18);
+            } else if (type == VORBIS_COMMENT && length <= MAX_COMMENT_BYTES) {
+                ByteBuffer comments = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+                while (comments.hasRemaining()) {
+                    if (channel.read(comments, body + comments.position()) < 0) {
+                        break;
+                    }
+                }
+                info.readComments(comments.flip());
+            }
+            pos = body + length;
+        }
+
+        if (!haveStreamInfo || info.sampleRate == 0 || info.maxBlockSize == 0) {
+            throw new IOException("FLAC file has no usable STREAMINFO");
+        }
+        info.firstFrameOffset = pos;
+        return info;
+    }
+
+    private void readSeekTable(FileChannel channel, long offset, int points) throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(points * 18);
+        while (table.hasRemaining()) {
+            if (channel.read(table, offset + table.position()) < 0) {
+                break;
+            }
+        }
+        table.flip();
+        long[] samples = new long[points];
+        long[] offsets = new long[points];
+        int count = 0;
+        for (int i = 0; i + 18 <= table.limit(); i += 18) {
+            long sample = table.getLong(i);
+            // All ones is a placeholder, and points have to go up or they're no use for a binary search
+            if (sample != -1L && (count == 0 || sample > samples[count - 1])) {
+                samples[count] = sample;
+                offsets[count] = table.getLong(i + 8);
+                count++;
+            }
+        }
+        seekSamples = Arrays.copyOf(samples, count);
+        seekOffsets = Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Vorbis comments: vendor string, then "KEY=value" entries, all little-endian length-prefixed UTF-8
+     */
+    private void readComments(ByteBuffer comments) {
+        try {
+            int vendorLength = comments.getInt();
+            comments.position(comments.position() + vendorLength);
+            int count = comments.getInt();
+            for (int i = 0; i < count && comments.remaining() >= 4; i++) {
+                int length = comments.getInt();
+                if (length < 0 || length > comments.remaining()) {
+                    return;
+                }
+                String comment = new String(comments.array(), comments.position(), length, StandardCharsets.UTF_8);
+                comments.position(comments.position() + length);
+                int eq = comment.indexOf('=');
+                if (eq <= 0) {
+                    continue;
+                }
+                String key = comment.substring(0, eq);
+                String value = comment.substring(eq + 1).trim();
+                if (title == null && key.equalsIgnoreCase("TITLE")) {
+                    title = value;
+                } else if (artist == null && key.equalsIgnoreCase("ARTIST")) {
+                    artist = value;
+                }
+            }
+        } catch (RuntimeException ex) {
+            // Truncated or malformed block, keep whatever was read
+        }
+    }
+
+    boolean hasMd5() {
+        for (byte b : md5) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Index of the last seek point at or before sample, -1 if there's none
+     */
+    int seekPointFor(long sample) {
+        int lo = 0;
+        int hi = seekSamples.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seekSamples[mid] <= sample) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear().limit(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of FLAC header");
+            }
+        }
+    }
+}
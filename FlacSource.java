@@ -0,0 +1,285 @@
+// Streams a FLAC file: reads it through one reusable buffer, decodes a frame at a time and hands out
+// interleaved little-endian PCM. Seeks use the seek table, then bisect on frame headers, then decode forward.
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class FlacSource implements PcmSource {
+    // Bisection stops once the frame we want is within this many bytes, the rest is decoded
+    static final int SEEK_SLACK_BYTES = 64 * 1024;
+    static final int MAX_BISECT_STEPS = 32;
+    static final int MAX_HEADER_BYTES = 16;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final FlacInfo info;
+    private final FlacDecoder decoder;
+    private final AudioFormat format;
+    private final int outBytesPerSample;
+    // Left shift (right if negative) from the stream's bits per sample to the output's
+    private final int shift;
+
+    // File bytes from inFileOffset, the next frame starts at inPos
+    private final ByteBuffer in;
+    private final byte[] inBytes;
+    // Refill before decoding whenever less than this is left, so a whole frame is always there
+    private final int frameBytes;
+    private long inFileOffset;
+    private int inPos;
+    private int inLimit;
+    private boolean eof;
+
+    // The decoded block and where in it the next read starts
+    private long blockStart = 0;
+    private int blockSamples = 0;
+    private int blockPos = 0;
+    // Set when frames were skipped, the next block's start comes from its header
+    private boolean lostSync = false;
+
+    FlacSource(String filePath) throws IOException {
+        this(filePath, false);
+    }
+
+    /**
+     * nativeWidth gives the samples as stored, in whole bytes without shifting or asking the output line,
+     * which is the layout the STREAMINFO MD5 is taken over
+     */
+    FlacSource(String filePath, boolean nativeWidth) throws IOException {
+        channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ);
+        try {
+            fileSize = channel.size();
+            info = FlacInfo.read(channel);
+            if (info.bitsPerSample < 4 || info.bitsPerSample > 32) {
+                throw new IOException("Unsupported FLAC sample size: " + info.bitsPerSample + " bits");
+            }
+            decoder = new FlacDecoder(info);
+
+            // 24 and 32-bit go out as they are if the line takes them, everything else as 16-bit
+            int outBits = info.bitsPerSample <= 16 ? 16 : info.bitsPerSample <= 24 ? 24 : 32;
+            if (nativeWidth) {
+                outBits = (info.bitsPerSample + 7) / 8 * 8;
+            } else if (outBits > 16 && !AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, pcm(outBits)))) {
+                outBits = 16;
+            }
+            format = pcm(outBits);
+            outBytesPerSample = outBits / 8;
+            shift = nativeWidth ? 0 : outBits - info.bitsPerSample;
+
+            // Verbatim frame plus header slack, if the encoder didn't say what its biggest frame was
+            int worstCase = info.maxBlockSize * info.channels * (info.bitsPerSample + 1) / 8 + 64;
+            frameBytes = info.maxFrameSize > 0 ? Math.min(info.maxFrameSize, worstCase) + MAX_HEADER_BYTES : worstCase;
+            in = ByteBuffer.allocate(Math.max(2 * frameBytes, SEEK_SLACK_BYTES));
+            inBytes = in.array();
+            positionAt(info.firstFrameOffset);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private AudioFormat pcm(int bits) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, info.sampleRate, bits, info.channels,
+                info.channels * bits / 8, info.sampleRate, false);
+    }
+
+    FlacInfo getInfo() {
+        return info;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return info.totalSamples > 0 ? info.totalSamples : AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public long getFramePosition() {
+        return blockStart + blockPos;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int maxFrames = length / format.getFrameSize();
+        int channels = info.channels;
+        int[][] samples = decoder.samples;
+        int o = offset;
+        int frames = 0;
+        while (frames < maxFrames) {
+            if (blockPos >= blockSamples && !nextFrame()) {
+                break;
+            }
+            int n = Math.min(maxFrames - frames, blockSamples - blockPos);
+            for (int i = blockPos, end = blockPos + n; i < end; i++) {
+                for (int c = 0; c < channels; c++) {
+                    int s = shift >= 0 ? samples[c][i] << shift : samples[c][i] >> -shift;
+                    buffer[o++] = (byte) s;
+                    if (outBytesPerSample > 1) {
+                        buffer[o++] = (byte) (s >> 8);
+                        if (outBytesPerSample > 2) {
+                            buffer[o++] = (byte) (s >> 16);
+                            if (outBytesPerSample > 3) {
+                                buffer[o++] = (byte) (s >> 24);
+                            }
+                        }
+                    }
+                }
+            }
+            blockPos += n;
+            frames += n;
+        }
+        return frames == 0 ? -1 : o - offset;
+    }
+
+    /**
+     * Decodes the next frame into the decoder's buffers, false at the end of the stream.
+     * Corrupt frames are skipped by searching for the next frame header.
+     */
+    private boolean nextFrame() throws IOException {
+        while (true) {
+            if (!eof && inLimit - inPos < frameBytes) {
+                refill();
+            }
+            if (inPos >= inLimit) {
+                return false;
+            }
+            int n;
+            try {
+                n = decoder.decodeFrame(inBytes, inPos, inLimit);
+            } catch (IOException | RuntimeException ex) {
+                // A damaged frame can also send the decoder out of its arrays
+                n = -1;
+            }
+            if (n > 0) {
+                inPos += n;
+                // Counted rather than taken from the header, some encoders number the last frame wrong
+                blockStart = lostSync ? decoder.sampleNumber : blockStart + blockSamples;
+                lostSync = false;
+                blockSamples = decoder.blockSize;
+                blockPos = 0;
+                return true;
+            }
+            if (n == 0 && eof) {
+                // Truncated last frame
+                return false;
+            }
+            lostSync = true;
+            int sync = decoder.findSync(inBytes, inPos + 1, inLimit);
+            if (sync >= 0) {
+                inPos = sync;
+            } else if (eof) {
+                return false;
+            } else {
+                // Keep the tail, a header could start in it
+                inPos = Math.max(inPos + 1, inLimit - MAX_HEADER_BYTES);
+                refill();
+            }
+        }
+    }
+
+    /**
+     * Moves what's left to the front of the buffer and reads more after it
+     */
+    private void refill() throws IOException {
+        if (inPos > 0) {
+            System.arraycopy(inBytes, inPos, inBytes, 0, inLimit - inPos);
+            inFileOffset += inPos;
+            inLimit -= inPos;
+            inPos = 0;
+        }
+        in.limit(in.capacity()).position(inLimit);
+        while (in.hasRemaining()) {
+            int n = channel.read(in, inFileOffset + in.position());
+            if (n < 0) {
+                eof = true;
+                break;
+            }
+        }
+        inLimit = in.position();
+    }
+
+    private void positionAt(long fileOffset) throws IOException {
+        inFileOffset = fileOffset;
+        inPos = 0;
+        inLimit = 0;
+        eof = false;
+        lostSync = false;
+        blockSamples = 0;
+        blockPos = 0;
+        refill();
+    }
+
+    @Override
+    public void seekFrame(long frame) throws IOException {
+        long length = getFrameLength();
+        frame = Math.max(0, length > 0 ? Math.min(frame, length) : frame);
+        if (frame >= blockStart && frame < blockStart + blockSamples) {
+            // Inside the block already decoded
+            blockPos = (int) (frame - blockStart);
+            return;
+        }
+
+        // Narrow down to a byte range whose first frame starts at or before the target
+        long lo = info.firstFrameOffset;
+        long loSample = 0;
+        long hi = fileSize;
+        long hiSample = length > 0 ? length : -1;
+        int point = info.seekPointFor(frame);
+        if (point >= 0) {
+            lo = info.firstFrameOffset + info.seekOffsets[point];
+            loSample = info.seekSamples[point];
+        }
+        if (point + 1 < info.seekSamples.length) {
+            hi = info.firstFrameOffset + info.seekOffsets[point + 1];
+            hiSample = info.seekSamples[point + 1];
+        }
+
+        for (int step = 0; step < MAX_BISECT_STEPS && hiSample > loSample && hi - lo > SEEK_SLACK_BYTES; step++) {
+            // Guess where the target is by bitrate, land a little early so the frame found is before it
+            long guess = lo + (long) ((double) (frame - loSample) / (hiSample - loSample) * (hi - lo)) - frameBytes;
+            guess = Math.max(lo + 1, Math.min(guess, hi - 1));
+            positionAt(guess);
+            int sync = decoder.findSync(inBytes, 0, inLimit);
+            long syncOffset = sync < 0 ? -1 : inFileOffset + sync;
+            if (sync < 0 || syncOffset >= hi || decoder.sampleNumber <= loSample || decoder.sampleNumber >= hiSample) {
+                // Nothing usable between the guess and hi
+                hi = guess;
+                continue;
+            }
+            if (decoder.sampleNumber <= frame) {
+                lo = syncOffset;
+                loSample = decoder.sampleNumber;
+            } else {
+                hi = syncOffset;
+                hiSample = decoder.sampleNumber;
+            }
+        }
+
+        // Decode forward from lo to the block holding the target
+        positionAt(lo);
+        blockStart = loSample;
+        while (nextFrame()) {
+            if (frame < blockStart + blockSamples) {
+                blockPos = (int) Math.max(0, frame - blockStart);
+                return;
+            }
+        }
+        // Past the end
+        blockPos = blockSamples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,90 @@
+// Software volume with a short linear ramp on every change, so moving the slider doesn't zipper.
+
+public class GainProcessor implements AudioProcessor {
+    static final float RAMP_MILLIS = 30f;
+
+    // Set from any thread, picked up at the start of the next buffer
+    private volatile float target = 1f;
+    private float current = 1f;
+    private float rampFrom = 1f;
+    private float rampTo = 1f;
+    private int rampDone = 0;
+    private int rampLength = 0;
+
+    /**
+     * Sets the linear gain, 1 leaves the audio as it is
+     */
+    void setGain(float gain) {
+        target = Math.max(0f, gain);
+    }
+
+    float getGain() {
+        return target;
+    }
+
+    /**
+     * Sets the gain with no ramp, for track boundaries where the audio before and after are unrelated.
+     * Only call from the thread doing the processing.
+     */
+    void jumpTo(float gain) {
+        target = Math.max(0f, gain);
+        reset();
+    }
+
+    @Override
+    public void process(float[] samples, int frames, int channels, float sampleRate) {
+        float goal = target;
+        if (goal != rampTo) {
+            // New target, ramp from wherever we are now
+            rampFrom = current;
+            rampTo = goal;
+            rampDone = 0;
+            rampLength = Math.max(1, (int) (sampleRate * RAMP_MILLIS / 1000f));
+        }
+
+        int i = 0;
+        int frame = 0;
+        // Ramping part, one gain step per frame
+        for (; frame < frames && rampDone < rampLength; frame++, rampDone++) {
+            current = rampFrom + (rampTo - rampFrom) * (rampDone + 1) / rampLength;
+            for (int c = 0; c < channels; c++, i++) {
+                samples[i] = clip(samples[i] * current);
+            }
+        }
+        if (frame == frames) {
+            return;
+        }
+
+        // Steady part
+        float gain = rampTo;
+        current = gain;
+        int end = frames * channels;
+        if (gain > 1f) {
+            for (; i < end; i++) {
+                samples[i] = clip(samples[i] * gain);
+            }
+        } else {
+            for (; i < end; i++) {
+                samples[i] *= gain;
+            }
+        }
+    }
+
+    private static float clip(float v) {
+        return Math.max(-1f, Math.min(1f, v));
+    }
+
+    @Override
+    public boolean isIdle() {
+        return current == 1f && target == 1f;
+    }
+
+    @Override
+    public void reset() {
+        // Jumps start at the target straight away, there's nothing playing to ramp from
+        current = target;
+        rampFrom = target;
+        rampTo = target;
+        rampDone = rampLength;
+    }
+}
@@ -0,0 +1,86 @@
+// Lock-free histogram of durations in power-of-two microsecond buckets, cheap enough for the audio thread.
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+    // Bucket i holds durations in [2^(i-1), 2^i) microseconds, bucket 0 is under 1 us
+    static final int BUCKETS = 40;
+
+    final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile long lastNanos = 0;
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        long micros = nanos / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        lastNanos = nanos;
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getLastMillis() {
+        return lastNanos / 1e6;
+    }
+
+    double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * Upper bound of the bucket the given percentile (0-100) falls in, in milliseconds
+     */
+    double getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min((1L << i) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        lastNanos = 0;
+    }
+
+    /**
+     * One line summary for the diagnostics report
+     */
+    String summary() {
+        return String.format("%-22s n=%-7d last=%9.2f  mean=%9.2f  p50=%9.2f  p99=%9.2f  max=%9.2f ms",
+                name, getCount(), getLastMillis(), getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+}
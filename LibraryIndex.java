@@ -0,0 +1,183 @@
+// Binary on-disk index of the library so startup only re-lists folders that changed.
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LibraryIndex {
+    static final int MAGIC = 0x4D504958; // "MPIX"
+    static final int VERSION = 3;
+
+    private final File indexFile;
+    private final String musicDirectory;
+
+    // Folder path relative to the music directory ("" for the music directory itself) ->
+    // directory mtime, songs and subfolders when it was last listed. Filled from scanner threads.
+    private final ConcurrentHashMap<String, Folder> folders = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    static class Folder {
+        long lastModified;
+        ArrayList<Song> songs;
+        ArrayList<String> subfolders;
+    }
+
+    LibraryIndex(File indexFile, String musicDirectory) {
+        this.indexFile = indexFile;
+        this.musicDirectory = musicDirectory;
+    }
+
+    /**
+     * Gets the indexed folder, or null if it isn't indexed or its mtime changed
+     */
+    Folder get(String folderName, long lastModified) {
+        Folder folder = folders.get(folderName);
+        if (folder == null || folder.lastModified != lastModified) {
+            return null;
+        }
+        // A copy, the caller's list ends up behind a playlist model while save() walks ours
+        Folder copy = new Folder();
+        copy.lastModified = folder.lastModified;
+        copy.songs = new ArrayList<>(folder.songs);
+        copy.subfolders = folder.subfolders;
+        return copy;
+    }
+
+    /**
+     * Records a freshly listed folder
+     */
+    void put(String folderName, long lastModified, ArrayList<Song> songs, ArrayList<String> subfolders) {
+        Folder folder = new Folder();
+        folder.lastModified = lastModified;
+        folder.songs = new ArrayList<>(songs);
+        folder.subfolders = new ArrayList<>(subfolders);
+        folders.put(folderName, folder);
+        dirty = true;
+    }
+
+    /**
+     * Notes that songs in the index were re-stat'ed in place, so the next save() writes them
+     */
+    void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Drops a deleted folder and everything under it
+     */
+    void remove(String folderName) {
+        String prefix = folderName + File.separator;
+        if (folders.keySet().removeIf(name -> name.equals(folderName) || name.startsWith(prefix))) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops folders that no longer exist
+     */
+    void retainOnly(Collection<String> folderNames) {
+        if (folders.keySet().retainAll(folderNames)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Reads the index file, a missing or unreadable index just means everything gets listed again
+     */
+    void load() {
+        folders.clear();
+        dirty = false;
+        if (!indexFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(musicDirectory)) {
+                System.out.println("Library index is out of date, rescanning");
+                return;
+            }
+
+            int folderCount = in.readInt();
+            for (int f = 0; f < folderCount; f++) {
+                String folderName = in.readUTF();
+                Folder folder = new Folder();
+                folder.lastModified = in.readLong();
+
+                int songCount = in.readInt();
+                folder.songs = new ArrayList<>(songCount);
+                String folderPath = new File(musicDirectory, folderName).getAbsolutePath() + File.separator;
+                for (int i = 0; i < songCount; i++) {
+                    Song song = new Song();
+                    song.name = in.readUTF();
+                    song.FilePath = folderPath + song.name;
+                    song.playlistName = folderName;
+                    song.size = in.readLong();
+                    song.lastModified = in.readLong();
+                    folder.songs.add(song);
+                }
+
+                int subfolderCount = in.readInt();
+                folder.subfolders = new ArrayList<>(subfolderCount);
+                for (int i = 0; i < subfolderCount; i++) {
+                    folder.subfolders.add(in.readUTF());
+                }
+                folders.put(folderName, folder);
+            }
+            System.out.println("Loaded library index: " + folderCount + " folders");
+        } catch (IOException ex) {
+            System.err.println("Could not read library index: " + ex.getMessage());
+            folders.clear();
+        }
+    }
+
+    /**
+     * Writes the index if anything changed. Songs are stored by file name relative to their folder.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create index directory: " + dir);
+            return;
+        }
+
+        // Write next to the real file and swap it in, so a crash never leaves half an index
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(musicDirectory);
+            out.writeInt(folders.size());
+            for (var entry : folders.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().lastModified);
+                out.writeInt(entry.getValue().songs.size());
+                for (Song song : entry.getValue().songs) {
+                    out.writeUTF(song.name);
+                    out.writeLong(song.size);
+                    out.writeLong(song.lastModified);
+                }
+                out.writeInt(entry.getValue().subfolders.size());
+                for (String subfolder : entry.getValue().subfolders) {
+                    out.writeUTF(subfolder);
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not write library index: " + ex.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException ex) {
+            System.err.println("Could not replace library index: " + ex.getMessage());
+        }
+    }
+}
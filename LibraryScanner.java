@@ -0,0 +1,191 @@
+// Walks the music directory tree in parallel on virtual threads, taking unchanged folders from the library index.
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+public class LibraryScanner {
+    private final File baseDir;
+    private final LibraryIndex index;
+
+    // Caps how many directories are being listed/stat'ed at once, network filesystems
+    // fall over if every virtual thread hits them together
+    private final Semaphore ioPermits;
+
+    // Folder relative path -> songs, filled from the scan threads
+    private final ConcurrentHashMap<String, ArrayList<Song>> found = new ConcurrentHashMap<>();
+    private final Set<String> scannedFolders = ConcurrentHashMap.newKeySet();
+    // Songs of the folders taken from the index, their size and mtime are as they were when it was written
+    private final ConcurrentLinkedQueue<Song> indexedSongs = new ConcurrentLinkedQueue<>();
+
+    private ExecutorService executor;
+
+    LibraryScanner(String musicDirectory, LibraryIndex index, int maxConcurrentIo) {
+        this.baseDir = new File(musicDirectory);
+        this.index = index;
+        this.ioPermits = new Semaphore(Math.max(1, maxConcurrentIo));
+    }
+
+    /**
+     * Scans the whole tree and returns every playlist sorted by name.
+     * Top level folders are always playlists, nested folders only when they hold songs.
+     */
+    TreeMap<String, ArrayList<Song>> scan() {
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor = ex;
+            scanFolder("", baseDir);
+        }
+
+        return new TreeMap<>(found);
+    }
+
+    /**
+     * Every folder seen by the last scan, so the index can drop the ones that are gone
+     */
+    Set<String> getScannedFolders() {
+        return scannedFolders;
+    }
+
+    /**
+     * Songs the last scan took from the index without a stat, for {@link #refreshStats}
+     */
+    Collection<Song> getIndexedSongs() {
+        return indexedSongs;
+    }
+
+    /**
+     * Scans one folder, then its subfolders in parallel and waits for them
+     */
+    private void scanFolder(String relativePath, File dir) {
+        scannedFolders.add(relativePath);
+
+        LibraryIndex.Folder folder;
+        try {
+            ioPermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            // Read the mtime before listing so a change made during the listing is caught next time
+            long folderModified = dir.lastModified();
+            folder = index.get(relativePath, folderModified);
+            boolean fromIndex = folder != null;
+            if (folder == null) {
+                folder = listFolder(relativePath, dir);
+                folder.lastModified = folderModified;
+                index.put(relativePath, folderModified, folder.songs, folder.subfolders);
+            } else {
+                indexedSongs.addAll(folder.songs);
+            }
+            Diagnostics.folderScanned(relativePath, folder.songs.size(), fromIndex, System.nanoTime() - start);
+        } finally {
+            ioPermits.release();
+        }
+
+        boolean topLevel = !relativePath.isEmpty() && !relativePath.contains(File.separator);
+        if (topLevel || (!relativePath.isEmpty() && !folder.songs.isEmpty())) {
+            found.put(relativePath, folder.songs);
+        }
+
+        ArrayList<Future<?>> children = new ArrayList<>();
+        for (String name : folder.subfolders) {
+            String childPath = relativePath.isEmpty() ? name : relativePath + File.separator + name;
+            File childDir = new File(dir, name);
+            children.add(executor.submit(() -> scanFolder(childPath, childDir)));
+        }
+        for (Future<?> child : children) {
+            try {
+                child.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                System.err.println("Error scanning folder: " + ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Re-stats songs taken from the index. Editing or retagging a file in place doesn't touch the folder's
+     * mtime, so without this the song would keep its indexed size and mtime and every cache keyed on them
+     * would go stale. One stat per song, so it runs in the background rather than on the startup path.
+     * True if any song changed.
+     */
+    static boolean refreshStats(Collection<Song> songs) {
+        boolean changed = false;
+        for (Song song : songs) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(new File(song.FilePath).toPath(), BasicFileAttributes.class);
+            } catch (IOException ex) {
+                // Gone, the folder's mtime changed with it and the next scan lists it again
+                continue;
+            }
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            if (attrs.size() != song.size || lastModified != song.lastModified) {
+                song.size = attrs.size();
+                song.lastModified = lastModified;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Lists one folder: its .wav and .flac files with size and mtime, sorted by name, and its subfolder names
+     */
+    static LibraryIndex.Folder listFolder(String relativePath, File dir) {
+        LibraryIndex.Folder folder = new LibraryIndex.Folder();
+        folder.songs = new ArrayList<>();
+        folder.subfolders = new ArrayList<>();
+
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            System.err.println("Could not list folder: " + dir);
+            return folder;
+        }
+
+        for (File file : entries) {
+            // One stat call for type, size and mtime
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException ex) {
+                System.err.println("Could not stat file: " + file.getName());
+                continue;
+            }
+
+            if (attrs.isDirectory()) {
+                folder.subfolders.add(file.getName());
+            } else if (PcmSource.isSupported(file.getName())) {
+                Song song = new Song();
+                song.FilePath = file.getAbsolutePath();
+                song.name = file.getName();
+                song.playlistName = relativePath;
+                song.size = attrs.size();
+                song.lastModified = attrs.lastModifiedTime().toMillis();
+                folder.songs.add(song);
+            }
+        }
+
+        folder.songs.sort(Comparator.comparing(song -> song.name));
+        Collections.sort(folder.subfolders);
+        return folder;
+    }
+}
@@ -0,0 +1,254 @@
+// Watches the music directory tree and pushes batched folder changes to SongManagement.
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+public class LibraryWatcher {
+    // Wait this long after the last event before applying a batch, so copying in an album is one update.
+    // A file that was written to also has to keep its size and mtime this long before its folder is re-listed.
+    static final long QUIET_MILLIS = 500;
+    // But never hold a batch back longer than this while a long copy keeps firing events. Folders with
+    // a file still growing are held back on their own and go in a later batch.
+    static final long MAX_DELAY_MILLIS = 3000;
+
+    private final SongManagement sm;
+    private final Path baseDir;
+    private final WatchService watchService;
+    private final HashMap<WatchKey, Path> watchedDirs = new HashMap<>();
+    private final HashSet<Path> watchedPaths = new HashSet<>();
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // Folders (relative to the music directory) touched since the last batch
+    private final HashSet<String> changedFolders = new HashSet<>();
+    private boolean overflowed = false;
+    // Audio files created or written to that haven't settled yet -> {size, mtime, when that was seen}
+    private final HashMap<Path, long[]> unsettledFiles = new HashMap<>();
+
+    LibraryWatcher(SongManagement sm) throws IOException {
+        this.sm = sm;
+        this.baseDir = Paths.get(sm.musicDirectory).toAbsolutePath().normalize();
+        this.watchService = baseDir.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Registers the whole tree and starts the watch thread
+     */
+    void start() {
+        registerTree(baseDir);
+        running = true;
+        thread = new Thread(this::run, "library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Watching " + watchedDirs.size() + " folders for changes");
+    }
+
+    void stop() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void registerTree(Path dir) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, java.nio.file.attribute.BasicFileAttributes attrs) {
+                    try {
+                        watchedDirs.put(d.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                        watchedPaths.add(d);
+                    } catch (IOException ex) {
+                        System.err.println("Could not watch folder: " + d);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            System.err.println("Could not watch folder: " + dir);
+        }
+    }
+
+    private String relativePath(Path dir) {
+        return baseDir.relativize(dir).toString();
+    }
+
+    private void run() {
+        long batchStarted = 0;
+        try {
+            while (running) {
+                WatchKey key;
+                if (changedFolders.isEmpty() && !overflowed) {
+                    key = watchService.take();
+                    batchStarted = System.currentTimeMillis();
+                } else {
+                    long waited = System.currentTimeMillis() - batchStarted;
+                    key = watchService.poll(Math.min(QUIET_MILLIS, Math.max(0, MAX_DELAY_MILLIS - waited)), TimeUnit.MILLISECONDS);
+                    if (key == null || waited >= MAX_DELAY_MILLIS) {
+                        if (key != null) {
+                            collect(key);
+                        }
+                        flush();
+                        // Whatever was held back starts a new batch
+                        batchStarted = System.currentTimeMillis();
+                        continue;
+                    }
+                }
+                collect(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // Watcher was stopped
+        }
+    }
+
+    /**
+     * Records which folders a key's events touched
+     */
+    private void collect(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                overflowed = true;
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // New folder (e.g. an album being copied in), watch it and everything already inside it
+                registerTree(child);
+                markTree(child);
+            } else if (event.kind() == ENTRY_DELETE) {
+                unsettledFiles.remove(child);
+                if (watchedPaths.remove(child)) {
+                    // A whole folder went, flush drops it and everything under it
+                    changedFolders.add(relativePath(child));
+                }
+            } else if (PcmSource.isSupported(child.getFileName().toString())) {
+                watchFile(child);
+            }
+            changedFolders.add(relativePath(dir));
+        }
+
+        if (!key.reset()) {
+            watchedPaths.remove(watchedDirs.remove(key));
+        }
+    }
+
+    private void markTree(Path dir) {
+        try (var walk = Files.walk(dir)) {
+            walk.forEach(path -> {
+                if (Files.isDirectory(path)) {
+                    changedFolders.add(relativePath(path));
+                } else if (PcmSource.isSupported(path.getFileName().toString())) {
+                    // May still be mid-copy, it was there before the folder was watched
+                    watchFile(path);
+                }
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            changedFolders.add(relativePath(dir));
+        }
+    }
+
+    /**
+     * Starts checking a written file for being settled, once per file however many events it fires
+     */
+    private void watchFile(Path file) {
+        if (!unsettledFiles.containsKey(file)) {
+            unsettledFiles.put(file, stat(file));
+        }
+    }
+
+    /**
+     * {size, mtime, now}, or null if the file is gone
+     */
+    private static long[] stat(Path file) {
+        try {
+            var attrs = Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes.class);
+            return new long[] {attrs.size(), attrs.lastModifiedTime().toMillis(), System.currentTimeMillis()};
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Folders with a file whose size or mtime changed in the last QUIET_MILLIS. Settled and deleted files
+     * stop being checked.
+     */
+    private HashSet<String> foldersStillBeingWritten() {
+        HashSet<String> held = new HashSet<>();
+        var files = unsettledFiles.entrySet().iterator();
+        while (files.hasNext()) {
+            var entry = files.next();
+            long[] seen = entry.getValue();
+            long[] now = stat(entry.getKey());
+            if (now == null) {
+                files.remove();
+            } else if (seen == null || now[0] != seen[0] || now[1] != seen[1]) {
+                entry.setValue(now);
+                held.add(relativePath(entry.getKey().getParent()));
+            } else if (now[2] - seen[2] < QUIET_MILLIS) {
+                held.add(relativePath(entry.getKey().getParent()));
+            } else {
+                files.remove();
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Re-lists just the touched folders off the EDT, then applies them to the models in one go
+     */
+    private void flush() {
+        if (overflowed) {
+            // Lost events, fall back to an index-backed rescan which still only lists changed folders
+            overflowed = false;
+            changedFolders.clear();
+            SwingUtilities.invokeLater(sm::refreshPlaylists);
+            return;
+        }
+
+        // Half-copied files aren't listed, their folders wait for a later flush
+        HashSet<String> held = foldersStillBeingWritten();
+        TreeMap<String, LibraryIndex.Folder> listed = new TreeMap<>();
+        HashSet<String> removed = new HashSet<>();
+        for (String relativePath : changedFolders) {
+            if (held.contains(relativePath)) {
+                continue;
+            }
+            File dir = baseDir.resolve(relativePath).toFile();
+            if (dir.isDirectory()) {
+                long folderModified = dir.lastModified();
+                LibraryIndex.Folder folder = LibraryScanner.listFolder(relativePath, dir);
+                sm.libraryIndex.put(relativePath, folderModified, folder.songs, folder.subfolders);
+                listed.put(relativePath, folder);
+            } else if (!relativePath.isEmpty()) {
+                removed.add(relativePath);
+                sm.libraryIndex.remove(relativePath);
+            }
+        }
+        changedFolders.retainAll(held);
+        if (listed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        sm.libraryIndex.save();
+
+        System.out.println("Library changed: " + listed.size() + " folders updated, " + removed.size() + " removed");
+        SwingUtilities.invokeLater(() -> sm.applyFolderChanges(listed, removed));
+    }
+}
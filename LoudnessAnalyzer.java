@@ -0,0 +1,319 @@
+// Measures integrated loudness (EBU R128 / ITU-R BS.1770) and sample peak of whole tracks, in parallel
+// over the library on a fork-join pool. Results go into the metadata cache keyed by path and mtime.
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoudnessAnalyzer {
+    // Playback is normalized to this, the ReplayGain 2 reference level
+    static final float TARGET_LUFS = -18f;
+    static final float MIN_GAIN_DB = -24f;
+    static final float MAX_GAIN_DB = 12f;
+
+    static final double ABSOLUTE_GATE_LUFS = -70.0;
+    static final double RELATIVE_GATE_LU = -10.0;
+
+    private final MetadataCache cache;
+    // One batch at a time, each batch uses every core
+    private final ExecutorService batches = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "loudness-batch");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), p -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        t.setName("loudness-" + t.getPoolIndex());
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    }, null, false);
+
+    LoudnessAnalyzer(MetadataCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Analyses every song that has no loudness yet, in the background. Songs already analysed
+     * (from the cache) are skipped, so this is cheap to call after every scan.
+     */
+    void analyzeInBackground(Collection<Song> songs) {
+        ArrayList<Song> todo = new ArrayList<>();
+        for (Song song : songs) {
+            if (Float.isNaN(song.loudness)) {
+                todo.add(song);
+            }
+        }
+        if (todo.isEmpty()) {
+            return;
+        }
+
+        batches.execute(() -> {
+            long start = System.nanoTime();
+            AtomicInteger analysed = new AtomicInteger();
+            pool.invoke(new Batch(todo.toArray(new Song[0]), 0, todo.size(), analysed));
+            cache.save();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("Loudness analysis: %d tracks in %.1f s (%.1f tracks/s, %d threads)",
+                    analysed.get(), seconds, analysed.get() / Math.max(seconds, 1e-9), pool.getParallelism()));
+        });
+    }
+
+    /**
+     * Splits the song range in half until single songs are left, so idle workers steal what's left of the library
+     */
+    @SuppressWarnings("serial")
+    private class Batch extends RecursiveAction {
+        private final Song[] songs;
+        private final int from;
+        private final int to;
+        private final AtomicInteger analysed;
+
+        Batch(Song[] songs, int from, int to, AtomicInteger analysed) {
+            this.songs = songs;
+            this.from = from;
+            this.to = to;
+            this.analysed = analysed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                analyzeSong(songs[from]);
+                analysed.incrementAndGet();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(songs, from, mid, analysed), new Batch(songs, mid, to, analysed));
+        }
+    }
+
+    private void analyzeSong(Song song) {
+        float loudness;
+        float peak = 0;
+        try {
+            Result result = analyze(song.FilePath);
+            loudness = (float) result.integratedLufs;
+            peak = result.peak;
+        } catch (Exception ex) {
+            System.err.println("Could not analyse loudness: " + song.FilePath + " (" + ex.getMessage() + ")");
+            // Remembered as unmeasurable so it isn't retried until the file changes
+            loudness = Float.NEGATIVE_INFINITY;
+        }
+        song.loudness = loudness;
+        song.peak = peak;
+
+        MetadataCache.Entry entry = cache.get(song.FilePath, song.lastModified);
+        if (entry != null) {
+            entry.loudness = loudness;
+            entry.peak = peak;
+            cache.put(song.FilePath, entry);
+        }
+    }
+
+    static class Result {
+        // -Infinity for silence
+        double integratedLufs;
+        float peak;
+    }
+
+    /**
+     * Streams one file through the K-weighting filter a buffer at a time. Memory is the read buffer
+     * and a fixed-size gating histogram, whatever the file length.
+     */
+    static Result analyze(String filePath) throws Exception {
+        try (PcmSource source = PcmSource.open(filePath)) {
+            AudioFormat format = source.getFormat();
+            if (!DspChain.supports(format)) {
+                throw new IllegalArgumentException("Unsupported format " + format);
+            }
+            int channels = format.getChannels();
+            int bytesPerSample = format.getSampleSizeInBits() / 8;
+            double rate = format.getSampleRate();
+
+            KWeighting[] filters = new KWeighting[channels];
+            double[] weights = new double[channels];
+            for (int c = 0; c < channels; c++) {
+                filters[c] = new KWeighting(rate);
+                weights[c] = channelWeight(c, channels);
+            }
+
+            // Energy is summed over 100 ms sub-blocks, gating blocks are 400 ms = 4 sub-blocks (75% overlap)
+            int subBlockFrames = (int) Math.round(rate / 10);
+            GatingHistogram gating = new GatingHistogram(subBlockFrames);
+            double subBlockEnergy = 0;
+            int subBlockFilled = 0;
+            float peak = 0;
+
+            byte[] bytes = new byte[AudioController.BUFFER_BYTES];
+            float[] samples = new float[AudioController.BUFFER_BYTES];
+            int n;
+            while ((n = source.read(bytes, 0, bytes.length)) > 0) {
+                int frames = n / bytesPerSample / channels;
+                DspChain.decode(bytes, 0, frames * channels, format, samples);
+                int i = 0;
+                for (int f = 0; f < frames; f++) {
+                    for (int c = 0; c < channels; c++, i++) {
+                        float x = samples[i];
+                        peak = Math.max(peak, Math.abs(x));
+                        double y = filters[c].filter(x);
+                        subBlockEnergy += weights[c] * y * y;
+                    }
+                    if (++subBlockFilled == subBlockFrames) {
+                        gating.addSubBlock(subBlockEnergy);
+                        subBlockEnergy = 0;
+                        subBlockFilled = 0;
+                    }
+                }
+            }
+
+            Result result = new Result();
+            result.peak = peak;
+            result.integratedLufs = gating.loudness();
+            return result;
+        }
+    }
+
+    /**
+     * BS.1770 gating in constant memory, the way libebur128 does it. The power of every 400 ms block goes
+     * into a 0.1 LU bin from -70 to +30 LUFS, each bin keeping a count and the sum of its blocks' powers.
+     * Blocks under -70 LUFS are dropped, then bins more than 10 LU under the loudness of what's left,
+     * and the rest are averaged. Only the bin the relative gate falls in is approximate.
+     */
+    static class GatingHistogram {
+        static final double BIN_LU = 0.1;
+        static final int BINS = 1000;
+
+        private final int subBlockFrames;
+        private final long[] counts = new long[BINS];
+        private final double[] sums = new double[BINS];
+        // Energies of the last four sub-blocks, a gating block is their sum
+        private final double[] recent = new double[4];
+        private long subBlocks = 0;
+
+        GatingHistogram(int subBlockFrames) {
+            this.subBlockFrames = subBlockFrames;
+        }
+
+        void addSubBlock(double energy) {
+            recent[(int) (subBlocks & 3)] = energy;
+            if (++subBlocks >= 4) {
+                addBlock((recent[0] + recent[1] + recent[2] + recent[3]) / (4.0 * subBlockFrames));
+            }
+        }
+
+        private void addBlock(double power) {
+            double lufs = loudnessOf(power);
+            // Silence comes out as -Infinity
+            if (!(lufs > ABSOLUTE_GATE_LUFS)) {
+                return;
+            }
+            int bin = Math.min(BINS - 1, (int) ((lufs - ABSOLUTE_GATE_LUFS) / BIN_LU));
+            counts[bin]++;
+            sums[bin] += power;
+        }
+
+        /**
+         * Integrated loudness of the blocks so far, -Infinity if none got through the gates
+         */
+        double loudness() {
+            double sum = 0;
+            long count = 0;
+            for (int b = 0; b < BINS; b++) {
+                sum += sums[b];
+                count += counts[b];
+            }
+            if (count == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            double relativeGate = loudnessOf(sum / count) + RELATIVE_GATE_LU;
+            int first = Math.max(0, (int) ((relativeGate - ABSOLUTE_GATE_LUFS) / BIN_LU));
+            sum = 0;
+            count = 0;
+            for (int b = first; b < BINS; b++) {
+                sum += sums[b];
+                count += counts[b];
+            }
+            return count == 0 ? Double.NEGATIVE_INFINITY : loudnessOf(sum / count);
+        }
+    }
+
+    static double loudnessOf(double power) {
+        return -0.691 + 10 * Math.log10(power);
+    }
+
+    static double powerFor(double lufs) {
+        return Math.pow(10, (lufs + 0.691) / 10);
+    }
+
+    /**
+     * Surround channels count 1.41x and the LFE not at all (5.1 order L R C LFE Ls Rs)
+     */
+    static double channelWeight(int channel, int channels) {
+        if (channels < 5 || channel < 3) {
+            return 1.0;
+        }
+        if (channel == 3 && channels == 6) {
+            return 0.0;
+        }
+        return 1.41;
+    }
+
+    /**
+     * BS.1770 K-weighting: high shelf then high pass, coefficients worked out for the sample rate
+     */
+    static class KWeighting {
+        private final double b0, b1, b2, a1, a2;
+        private final double hb0, hb1, hb2, ha1, ha2;
+        private double x1, x2, y1, y2;
+        private double hx1, hx2, hy1, hy2;
+
+        KWeighting(double rate) {
+            double f0 = 1681.974450955533;
+            double gainDb = 3.999843853973347;
+            double q = 0.7071752369554196;
+            double k = Math.tan(Math.PI * f0 / rate);
+            double vh = Math.pow(10, gainDb / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1 + k / q + k * k;
+            b0 = (vh + vb * k / q + k * k) / a0;
+            b1 = 2 * (k * k - vh) / a0;
+            b2 = (vh - vb * k / q + k * k) / a0;
+            a1 = 2 * (k * k - 1) / a0;
+            a2 = (1 - k / q + k * k) / a0;
+
+            f0 = 38.13547087602444;
+            q = 0.5003270373238773;
+            k = Math.tan(Math.PI * f0 / rate);
+            double ha0 = 1 + k / q + k * k;
+            hb0 = 1;
+            hb1 = -2;
+            hb2 = 1;
+            ha1 = 2 * (k * k - 1) / ha0;
+            ha2 = (1 - k / q + k * k) / ha0;
+        }
+
+        double filter(double x) {
+            double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+
+            double z = hb0 * y + hb1 * hx1 + hb2 * hx2 - ha1 * hy1 - ha2 * hy2;
+            hx2 = hx1;
+            hx1 = y;
+            hy2 = hy1;
+            hy1 = z;
+            return z;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+// Memory-maps a WAV file and hands out its PCM data as ByteBuffer views, nothing is copied.
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class MappedWav implements Closeable {
+    // A single mapping can't go past 2 GB, so longer files are mapped in frame-aligned segments
+    static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    final WavHeader header;
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+    private final long segmentBytes;
+
+    private MappedWav(FileChannel channel, WavHeader header) throws IOException {
+        this.channel = channel;
+        this.header = header;
+
+        segmentBytes = (MAX_SEGMENT_BYTES / header.blockAlign) * header.blockAlign;
+        int count = (int) Math.max(1, (header.dataLength + segmentBytes - 1) / segmentBytes);
+        segments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentBytes;
+            long length = Math.min(segmentBytes, header.dataLength - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, header.dataOffset + start, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Maps a WAV file. Only the header is read, the data comes in from the page cache as it's touched.
+     */
+    static MappedWav open(String filePath) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        try {
+            return new MappedWav(channel, WavHeader.read(channel));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    long getFrameLength() {
+        return header.getFrameLength();
+    }
+
+    /**
+     * The whole PCM region as one buffer, for files that fit in a single mapping
+     */
+    ByteBuffer pcm() {
+        if (segments.length != 1) {
+            throw new IllegalStateException("PCM data is " + header.dataLength + " bytes, use frames() for files this long");
+        }
+        return segments[0].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * View of up to maxFrames frames starting at frame, shorter if it hits the end of the file
+     * or of a mapping segment. Shares the mapped memory, position 0 is the first byte of frame.
+     */
+    ByteBuffer frames(long frame, int maxFrames) {
+        ByteBuffer mapped = segmentFor(frame);
+        int start = offsetInSegment(frame);
+        int length = (int) Math.min((long) maxFrames * header.blockAlign, mapped.capacity() - start);
+        return mapped.slice(start, Math.max(0, length)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The mapping segment holding frame, shared rather than sliced so the render loop can read it
+     * with absolute gets and allocate nothing. offsetInSegment gives where the frame starts in it.
+     */
+    ByteBuffer segmentFor(long frame) {
+        return segments[segmentIndex(frame)];
+    }
+
+    int offsetInSegment(long frame) {
+        long byteOffset = Math.max(0, Math.min(frame, getFrameLength())) * header.blockAlign;
+        return (int) (byteOffset - segmentIndex(frame) * segmentBytes);
+    }
+
+    private int segmentIndex(long frame) {
+        long byteOffset = Math.max(0, Math.min(frame, getFrameLength())) * header.blockAlign;
+        return (int) Math.min(byteOffset / segmentBytes, segments.length - 1);
+    }
+
+    /**
+     * Closes the file. The mappings themselves go away once the buffers are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
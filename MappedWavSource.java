@@ -0,0 +1,125 @@
+// Plays a memory-mapped WAV. Samples the line can take are copied straight out of the mapping,
+// anything else (24/32-bit int, float) is converted to 16-bit in the same pass.
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class MappedWavSource implements PcmSource {
+    private final MappedWav wav;
+    private final AudioFormat format;
+    private final boolean passthrough;
+    private final int inBytesPerSample;
+    private long framePosition = 0;
+
+    MappedWavSource(MappedWav wav) throws IOException {
+        this.wav = wav;
+        WavHeader header = wav.header;
+        AudioFormat fileFormat = header.toAudioFormat();
+        if (fileFormat == null) {
+            throw new IOException("Unsupported WAV format tag: " + header.formatTag);
+        }
+
+        passthrough = AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, fileFormat));
+        format = passthrough ? fileFormat : new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                header.sampleRate, 16, header.channels, header.channels * 2, header.sampleRate, false);
+        inBytesPerSample = header.blockAlign / header.channels;
+
+        if (!passthrough && !(header.isFloat() ? (inBytesPerSample == 4 || inBytesPerSample == 8)
+                : (inBytesPerSample >= 1 && inBytesPerSample <= 4))) {
+            throw new IOException("Unsupported WAV sample size: " + header.bitsPerSample + " bits");
+        }
+    }
+
+    static MappedWavSource open(String filePath) throws IOException {
+        MappedWav wav = MappedWav.open(filePath);
+        try {
+            return new MappedWavSource(wav);
+        } catch (IOException ex) {
+            wav.close();
+            throw ex;
+        }
+    }
+
+    MappedWav getWav() {
+        return wav;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return wav.getFrameLength();
+    }
+
+    @Override
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int maxFrames = length / format.getFrameSize();
+        // Absolute reads on the shared mapping, no slice per buffer so steady playback allocates nothing
+        ByteBuffer in = wav.segmentFor(framePosition);
+        int start = wav.offsetInSegment(framePosition);
+        int frames = Math.min(maxFrames, (in.capacity() - start) / wav.header.blockAlign);
+        if (frames <= 0) {
+            return -1;
+        }
+
+        int bytes;
+        if (passthrough) {
+            bytes = frames * wav.header.blockAlign;
+            in.get(start, buffer, offset, bytes);
+        } else {
+            bytes = convertTo16(in, start, frames * wav.header.channels, buffer, offset);
+        }
+        framePosition += frames;
+        return bytes;
+    }
+
+    /**
+     * Converts samples to 16-bit little-endian straight out of the mapping, returns bytes written
+     */
+    private int convertTo16(ByteBuffer in, int start, int samples, byte[] out, int offset) {
+        int o = offset;
+        int i = start;
+        for (int s = 0; s < samples; s++, i += inBytesPerSample) {
+            int sample;
+            if (wav.header.isFloat()) {
+                double v = inBytesPerSample == 8 ? in.getDouble(i) : in.getFloat(i);
+                sample = (int) Math.round(Math.max(-1.0, Math.min(1.0, v)) * 32767.0);
+            } else {
+                switch (inBytesPerSample) {
+                    case 1 -> sample = ((in.get(i) & 0xFF) - 128) << 8;
+                    case 2 -> sample = in.getShort(i);
+                    // Keep the top 16 bits, the byte order is little-endian so they're the last two bytes
+                    default -> sample = (in.get(i + inBytesPerSample - 1) << 8) | (in.get(i + inBytesPerSample - 2) & 0xFF);
+                }
+            }
+            out[o++] = (byte) sample;
+            out[o++] = (byte) (sample >> 8);
+        }
+        return o - offset;
+    }
+
+    /**
+     * Frame-aligned offset worked out from the header, nothing is read from the file
+     */
+    @Override
+    public void seekFrame(long frame) {
+        framePosition = Math.max(0, Math.min(frame, getFrameLength()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        wav.close();
+    }
+}
@@ -0,0 +1,130 @@
+// On-disk cache of extracted song metadata keyed by path and mtime.
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MetadataCache {
+    static final int MAGIC = 0x4D504D44; // "MPMD"
+    static final int VERSION = 2;
+
+    static class Entry {
+        long lastModified;
+        long durationMillis;
+        int sampleRate;
+        int channels;
+        int bitDepth;
+        String title;
+        String artist;
+        // Filled in later by LoudnessAnalyzer, NaN until the file has been analysed
+        float loudness = Float.NaN;
+        float peak;
+    }
+
+    private final File cacheFile;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    MetadataCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Gets the cached entry for a file, null if there isn't one or the file changed since
+     */
+    Entry get(String filePath, long lastModified) {
+        Entry entry = entries.get(filePath);
+        return entry != null && entry.lastModified == lastModified ? entry : null;
+    }
+
+    void put(String filePath, Entry entry) {
+        entries.put(filePath, entry);
+        dirty = true;
+    }
+
+    void load() {
+        entries.clear();
+        if (!cacheFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry();
+                entry.lastModified = in.readLong();
+                entry.durationMillis = in.readLong();
+                entry.sampleRate = in.readInt();
+                entry.channels = in.readShort();
+                entry.bitDepth = in.readShort();
+                entry.title = in.readBoolean() ? in.readUTF() : null;
+                entry.artist = in.readBoolean() ? in.readUTF() : null;
+                entry.loudness = in.readFloat();
+                entry.peak = in.readFloat();
+                entries.put(path, entry);
+            }
+            System.out.println("Loaded metadata cache: " + count + " songs");
+        } catch (IOException ex) {
+            System.err.println("Could not read metadata cache: " + ex.getMessage());
+            entries.clear();
+        }
+    }
+
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create cache directory: " + dir);
+            return;
+        }
+
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // Snapshot first, the extractor/analyser may still be adding entries
+            ArrayList<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+            out.writeInt(snapshot.size());
+            for (var e : snapshot) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.durationMillis);
+                out.writeInt(entry.sampleRate);
+                out.writeShort(entry.channels);
+                out.writeShort(entry.bitDepth);
+                writeOptional(out, entry.title);
+                writeOptional(out, entry.artist);
+                out.writeFloat(entry.loudness);
+                out.writeFloat(entry.peak);
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not write metadata cache: " + ex.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException ex) {
+            System.err.println("Could not replace metadata cache: " + ex.getMessage());
+        }
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+// Reads song metadata from the WAV header and LIST/INFO or id3 chunks, or the FLAC metadata blocks, never the audio.
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+public class MetadataExtractor {
+    // Tag chunks bigger than this are skipped (embedded cover art etc.)
+    static final int MAX_TAG_BYTES = 256 * 1024;
+    static final int MAX_TEXT_LENGTH = 1000;
+
+    private final MetadataCache cache;
+    private final Semaphore ioPermits;
+
+    MetadataExtractor(MetadataCache cache, int maxConcurrentIo) {
+        this.cache = cache;
+        this.ioPermits = new Semaphore(Math.max(1, maxConcurrentIo));
+    }
+
+    /**
+     * Fills in metadata for the songs on background virtual threads, from the cache where the mtime still
+     * matches. onDone runs on the extractor thread once they're all done.
+     */
+    void extractInBackground(Collection<Song> songs, Runnable onDone) {
+        ArrayList<Song> todo = new ArrayList<>(songs);
+        Thread.ofPlatform().daemon().name("metadata-extractor").start(() -> {
+            long start = System.nanoTime();
+            int[] extracted = new int[1];
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Song song : todo) {
+                    MetadataCache.Entry cached = cache.get(song.FilePath, song.lastModified);
+                    if (cached != null) {
+                        apply(song, cached);
+                        continue;
+                    }
+                    executor.execute(() -> {
+                        try {
+                            ioPermits.acquire();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                        try {
+                            MetadataCache.Entry entry = extract(song.FilePath);
+                            entry.lastModified = song.lastModified;
+                            cache.put(song.FilePath, entry);
+                            apply(song, entry);
+                            synchronized (extracted) {
+                                extracted[0]++;
+                            }
+                        } catch (IOException ex) {
+                            System.err.println("Could not read metadata: " + song.FilePath + " (" + ex.getMessage() + ")");
+                        } finally {
+                            ioPermits.release();
+                        }
+                    });
+                }
+            }
+            cache.save();
+            System.out.println(String.format("Metadata for %d songs (%d read from files) in %.1f ms",
+                    todo.size(), extracted[0], (System.nanoTime() - start) / 1e6));
+            if (onDone != null) {
+                onDone.run();
+            }
+        });
+    }
+
+    private static void apply(Song song, MetadataCache.Entry entry) {
+        song.durationMillis = entry.durationMillis;
+        song.sampleRate = entry.sampleRate;
+        song.channels = entry.channels;
+        song.bitDepth = entry.bitDepth;
+        song.title = entry.title;
+        song.artist = entry.artist;
+        song.loudness = entry.loudness;
+        song.peak = entry.peak;
+    }
+
+    /**
+     * Reads the header and tag chunks of one file with small positioned reads
+     */
+    static MetadataCache.Entry extract(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (filePath.toLowerCase().endsWith(".flac")) {
+                return extractFlac(channel);
+            }
+            WavHeader header = WavHeader.read(channel);
+            MetadataCache.Entry entry = new MetadataCache.Entry();
+            entry.sampleRate = header.sampleRate;
+            entry.channels = header.channels;
+            entry.bitDepth = header.bitsPerSample;
+            if (header.sampleRate > 0) {
+                entry.durationMillis = header.getFrameLength() * 1000 / header.sampleRate;
+            }
+
+            if (header.listOffset >= 0 && header.listLength <= MAX_TAG_BYTES) {
+                readInfo(readChunk(channel, header.listOffset, (int) header.listLength), entry);
+            }
+            if (header.id3Offset >= 0 && header.id3Length <= MAX_TAG_BYTES && (entry.title == null || entry.artist == null)) {
+                readId3(readChunk(channel, header.id3Offset, (int) header.id3Length), entry);
+            }
+            return entry;
+        }
+    }
+
+    private static MetadataCache.Entry extractFlac(FileChannel channel) throws IOException {
+        FlacInfo info = FlacInfo.read(channel);
+        MetadataCache.Entry entry = new MetadataCache.Entry();
+        entry.sampleRate = info.sampleRate;
+        entry.channels = info.channels;
+        entry.bitDepth = info.bitsPerSample;
+        entry.durationMillis = info.totalSamples * 1000 / info.sampleRate;
+        entry.title = clip(info.title);
+        entry.artist = clip(info.artist);
+        return entry;
+    }
+
+    private static String clip(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        return value.length() > MAX_TEXT_LENGTH ? value.substring(0, MAX_TEXT_LENGTH) : value;
+    }
+
+    private static ByteBuffer readChunk(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                break;
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * LIST/INFO: "INFO" then sub-chunks, INAM is the title and IART the artist
+     */
+    private static void readInfo(ByteBuffer list, MetadataCache.Entry entry) {
+        if (list.remaining() < 4 || list.getInt(0) != 0x4F464E49) { // "INFO"
+            return;
+        }
+        int pos = 4;
+        while (pos + 8 <= list.limit()) {
+            int id = list.getInt(pos);
+            int size = list.getInt(pos + 4);
+            if (size < 0 || pos + 8 + size > list.limit()) {
+                break;
+            }
+            if (id == 0x4D414E49) { // "INAM"
+                entry.title = text(list, pos + 8, size, StandardCharsets.UTF_8);
+            } else if (id == 0x54524149) { // "IART"
+                entry.artist = text(list, pos + 8, size, StandardCharsets.UTF_8);
+            }
+            pos += 8 + size + (size & 1);
+        }
+    }
+
+    /**
+     * ID3v2.3/2.4 tag: TIT2 is the title and TPE1 the artist
+     */
+    private static void readId3(ByteBuffer tag, MetadataCache.Entry entry) {
+        if (tag.remaining() < 10 || tag.get(0) != 'I' || tag.get(1) != 'D' || tag.get(2) != '3') {
+            return;
+        }
+        int version = tag.get(3);
+        int end = Math.min(tag.limit(), 10 + syncsafe(tag, 6));
+        int pos = 10;
+        while (pos + 10 <= end) {
+            int id = tag.order(ByteOrder.BIG_ENDIAN).getInt(pos);
+            int size = version >= 4 ? syncsafe(tag, pos + 4) : tag.getInt(pos + 4);
+            tag.order(ByteOrder.LITTLE_ENDIAN);
+            if (id == 0 || size <= 0 || pos + 10 + size > end) {
+                break;
+            }
+            if (id == 0x54495432 && entry.title == null) { // "TIT2"
+                entry.title = id3Text(tag, pos + 10, size);
+            } else if (id == 0x54504531 && entry.artist == null) { // "TPE1"
+                entry.artist = id3Text(tag, pos + 10, size);
+            }
+            pos += 10 + size;
+        }
+    }
+
+    private static int syncsafe(ByteBuffer buf, int pos) {
+        return (buf.get(pos) & 0x7F) << 21 | (buf.get(pos + 1) & 0x7F) << 14 | (buf.get(pos + 2) & 0x7F) << 7 | (buf.get(pos + 3) & 0x7F);
+    }
+
+    private static String id3Text(ByteBuffer buf, int pos, int size) {
+        Charset charset = switch (buf.get(pos)) {
+            case 1 -> StandardCharsets.UTF_16;
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+        return text(buf, pos + 1, size - 1, charset);
+    }
+
+    private static String text(ByteBuffer buf, int pos, int size, Charset charset) {
+        byte[] bytes = new byte[size];
+        buf.get(pos, bytes);
+        String value = new String(bytes, charset);
+        // Strings are null terminated and padded
+        int nul = value.indexOf('\0');
+        if (nul >= 0) {
+            value = value.substring(0, nul);
+        }
+        value = value.trim();
+        if (value.length() > MAX_TEXT_LENGTH) {
+            value = value.substring(0, MAX_TEXT_LENGTH);
+        }
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,132 @@
+// Internal frame for choosing the output mixer and line buffer, showing the latency actually achieved.
+
+import javax.swing.*;
+import java.awt.*;
+
+@SuppressWarnings("serial")
+public class OutputFrame extends JInternalFrame {
+    static final int REFRESH_MILLIS = 500;
+    // Buffer sizes offered, in frames. 0 is whatever the mixer picks.
+    static final int[] BUFFER_FRAMES = {0, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768};
+
+    private final AudioController ac;
+    private final JComboBox<String> mixerBox = new JComboBox<>();
+    private final JComboBox<String> bufferBox = new JComboBox<>();
+    private final JLabel latencyLabel = new JLabel();
+    private final JLabel dropoutLabel = new JLabel();
+    // Only runs while the frame is showing
+    private final Timer refreshTimer = new Timer(REFRESH_MILLIS, e -> refresh());
+
+    OutputFrame(AudioController ac) {
+        super("Output", true, true, false, true);
+        this.ac = ac;
+        setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        setSize(480, 190);
+        setLocation(160, 140);
+        setFrameIcon(null);
+
+        for (int frames : BUFFER_FRAMES) {
+            bufferBox.addItem(frames == 0 ? "Mixer default" : frames + " frames");
+        }
+
+        JButton applyButton = new JButton("Apply");
+        applyButton.setBackground(new Color(45, 45, 48));
+        applyButton.setForeground(new Color(220, 220, 220));
+        applyButton.setFocusPainted(false);
+        applyButton.addActionListener(e -> apply());
+
+        JPanel form = new JPanel(new GridBagLayout());
+        form.setBackground(new Color(30, 30, 33));
+        form.setBorder(BorderFactory.createEmptyBorder(8, 10, 8, 10));
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(3, 3, 3, 3);
+        c.anchor = GridBagConstraints.WEST;
+        c.fill = GridBagConstraints.HORIZONTAL;
+
+        addRow(form, c, 0, "Mixer", mixerBox);
+        addRow(form, c, 1, "Line buffer", bufferBox);
+        addRow(form, c, 2, "Latency", latencyLabel);
+        addRow(form, c, 3, "Dropouts", dropoutLabel);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.setBackground(new Color(24, 24, 27));
+        buttons.add(applyButton);
+
+        setLayout(new BorderLayout());
+        add(form, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        getContentPane().setBackground(new Color(30, 30, 33));
+    }
+
+    private void addRow(JPanel form, GridBagConstraints c, int row, String name, JComponent field) {
+        JLabel label = new JLabel(name);
+        label.setForeground(new Color(180, 180, 180));
+        field.setForeground(new Color(220, 220, 220));
+        if (field instanceof JComboBox) {
+            field.setBackground(new Color(45, 45, 48));
+        }
+        c.gridy = row;
+        c.gridx = 0;
+        c.weightx = 0;
+        form.add(label, c);
+        c.gridx = 1;
+        c.weightx = 1;
+        form.add(field, c);
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        super.setVisible(visible);
+        if (refreshTimer == null) {
+            // Called from the JInternalFrame constructor, before our fields are set
+            return;
+        }
+        if (visible) {
+            loadChoices();
+            refresh();
+            refreshTimer.start();
+        } else {
+            refreshTimer.stop();
+        }
+    }
+
+    /**
+     * Lists the mixers again (devices come and go) and selects the current settings
+     */
+    private void loadChoices() {
+        mixerBox.removeAllItems();
+        mixerBox.addItem("System default");
+        for (String name : AudioController.outputMixers()) {
+            mixerBox.addItem(name);
+        }
+        String mixer = ac.getMixerName();
+        mixerBox.setSelectedItem(mixer == null ? "System default" : mixer);
+
+        int requested = ac.getRequestedBufferFrames();
+        bufferBox.setSelectedIndex(0);
+        for (int i = 0; i < BUFFER_FRAMES.length; i++) {
+            if (BUFFER_FRAMES[i] == requested) {
+                bufferBox.setSelectedIndex(i);
+            }
+        }
+    }
+
+    private void apply() {
+        String mixer = mixerBox.getSelectedIndex() <= 0 ? null : (String) mixerBox.getSelectedItem();
+        ac.setOutput(mixer, BUFFER_FRAMES[Math.max(0, bufferBox.getSelectedIndex())]);
+    }
+
+    void refresh() {
+        int frames = ac.getBufferFrames();
+        String latency = frames == 0 ? "Opens with the next track"
+                : String.format("%.1f ms (%d frames)", ac.getOutputLatencyMillis(), frames);
+        if (!latency.equals(latencyLabel.getText())) {
+            latencyLabel.setText(latency);
+        }
+        String dropouts = String.format("%d underruns, %d write stalls",
+                Diagnostics.underruns.get(), Diagnostics.writeStalls.get());
+        if (!dropouts.equals(dropoutLabel.getText())) {
+            dropoutLabel.setText(dropouts);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+// Decoded PCM of recently played tracks, held off-heap in direct buffers and evicted least recently used
+// first once the byte budget is reached. Tracks are kept as they play, a hit plays from memory without
+// touching the file's data.
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PcmCache {
+    // Start with -Dmusicplayer.pcmcache.mb=0 to turn it off
+    static final long DEFAULT_BUDGET_BYTES = Long.getLong("musicplayer.pcmcache.mb", 256) * 1024 * 1024;
+    static final long MAX_DIRECT_BYTES = maxDirectMemory();
+
+    static class Entry {
+        final ByteBuffer data;
+        final AudioFormat format;
+        final long frameLength;
+        final long lastModified;
+        final long fileSize;
+
+        Entry(ByteBuffer data, AudioFormat format, long lastModified, long fileSize) {
+            this.data = data;
+            this.format = format;
+            this.frameLength = data.capacity() / format.getFrameSize();
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+        }
+    }
+
+    // Access-ordered, eldest is the least recently played
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long budgetBytes;
+    private long usedBytes = 0;
+    // Bytes promised to recordings still in progress, so two can't both think there's room
+    private long reservedBytes = 0;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    PcmCache(long budgetBytes) {
+        this.budgetBytes = Math.max(0, budgetBytes);
+    }
+
+    /**
+     * A source reading the cached PCM, or null on a miss (or if the file changed since it was cached)
+     */
+    PcmSource open(String filePath) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(filePath);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        File file = new File(filePath);
+        if (file.lastModified() != entry.lastModified || file.length() != entry.fileSize) {
+            invalidate(filePath);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new CachedPcmSource(entry);
+    }
+
+    synchronized boolean contains(String filePath) {
+        return entries.containsKey(filePath);
+    }
+
+    synchronized void invalidate(String filePath) {
+        Entry entry = entries.remove(filePath);
+        if (entry != null) {
+            usedBytes -= entry.data.capacity();
+        }
+    }
+
+    /**
+     * Wraps a source just opened from the file so the PCM it decodes for playback is kept as it goes, and the
+     * track is cached once every frame has been read. Returns the source as it is if the track can't be cached.
+     */
+    PcmSource record(String filePath, PcmSource source) {
+        long budget = budgetBytes;
+        if (budget <= 0 || contains(filePath)) {
+            return source;
+        }
+        AudioFormat format = source.getFormat();
+        long frames = source.getFrameLength();
+        if (frames == AudioSystem.NOT_SPECIFIED || frames <= 0 || source.getFramePosition() != 0) {
+            return source;
+        }
+        long size = frames * format.getFrameSize();
+        if (size > maxTrackBytes(budget) || size > Integer.MAX_VALUE || !reserve(size)) {
+            return source;
+        }
+
+        File file = new File(filePath);
+        ByteBuffer data;
+        try {
+            data = ByteBuffer.allocateDirect((int) size);
+        } catch (OutOfMemoryError ex) {
+            release(size);
+            System.err.println("PCM cache: out of direct memory, raise -XX:MaxDirectMemorySize or lower the budget");
+            return source;
+        }
+        return new RecordingPcmSource(source, this, filePath, data, file.lastModified(), file.length());
+    }
+
+    /**
+     * Stores a fully recorded track, the reservation made for it becomes used bytes
+     */
+    synchronized void commit(String filePath, ByteBuffer data, AudioFormat format, long lastModified, long fileSize) {
+        reservedBytes -= data.capacity();
+        if (data.capacity() > budgetBytes - usedBytes) {
+            // The budget shrank while it was recording
+            return;
+        }
+        Entry old = entries.put(filePath, new Entry(data, format, lastModified, fileSize));
+        if (old != null) {
+            usedBytes -= old.data.capacity();
+        }
+        usedBytes += data.capacity();
+    }
+
+    /**
+     * Gives back the reservation of a recording that didn't get every frame
+     */
+    synchronized void release(long size) {
+        reservedBytes -= size;
+    }
+
+    /**
+     * The biggest track worth caching. -Dmusicplayer.pcmcache.maxtrack.mb sets it, otherwise it's half the
+     * budget so one track can't flush everything else, and never more than half the direct memory the JVM allows.
+     */
+    static long maxTrackBytes(long budget) {
+        long configured = Long.getLong("musicplayer.pcmcache.maxtrack.mb", -1);
+        if (configured >= 0) {
+            return configured * 1024 * 1024;
+        }
+        return Math.min(budget / 2, MAX_DIRECT_BYTES / 2);
+    }
+
+    /**
+     * -XX:MaxDirectMemorySize, which defaults to the heap's maximum when it isn't set
+     */
+    private static long maxDirectMemory() {
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            long bytes = Long.parseLong(hotspot.getVMOption("MaxDirectMemorySize").getValue());
+            if (bytes > 0) {
+                return bytes;
+            }
+        } catch (RuntimeException ex) {
+            // Not a HotSpot VM, go by the heap
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Makes room for size bytes by evicting the least recently used tracks, false if it can't fit at all
+     */
+    private synchronized boolean reserve(long size) {
+        if (size > budgetBytes - reservedBytes) {
+            return false;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (usedBytes + reservedBytes + size > budgetBytes && eldest.hasNext()) {
+            // The buffer is freed once the last source playing from it is done with it
+            usedBytes -= eldest.next().getValue().data.capacity();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        reservedBytes += size;
+        return true;
+    }
+
+    /**
+     * Changes the byte budget, evicting straight away if it shrank. 0 turns caching off.
+     */
+    synchronized void setBudget(long bytes) {
+        budgetBytes = Math.max(0, bytes);
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().getValue().data.capacity();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    synchronized long getBudget() {
+        return budgetBytes;
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    String summary() {
+        long hit = hits.get();
+        long miss = misses.get();
+        return String.format("PCM cache %d tracks, %.1f of %.0f MB off-heap, hits %d, misses %d (%.0f%% hit), evictions %d",
+                size(), getUsedBytes() / 1048576.0, getBudget() / 1048576.0, hit, miss,
+                hit + miss == 0 ? 0.0 : 100.0 * hit / (hit + miss), evictions.get());
+    }
+}
@@ -0,0 +1,60 @@
+// Anything the playback engine can pull PCM frames from.
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.IOException;
+
+interface PcmSource extends Closeable {
+
+    /**
+     * Format of the bytes returned by read, always something a SourceDataLine can take
+     */
+    AudioFormat getFormat();
+
+    /**
+     * Total length in frames, or AudioSystem.NOT_SPECIFIED if unknown
+     */
+    long getFrameLength();
+
+    /**
+     * Frame the next read will start at
+     */
+    long getFramePosition();
+
+    /**
+     * Reads whole frames into buffer, returns bytes read or -1 at the end of the track
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Moves the read position to the given frame
+     */
+    void seekFrame(long frame) throws IOException;
+
+    /**
+     * True for the file types the library and player take: .wav and .flac
+     */
+    static boolean isSupported(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".wav") || name.endsWith(".flac");
+    }
+
+    /**
+     * Opens a file with the cheapest reader that can play it: memory-mapped for WAV, our own decoder for FLAC,
+     * otherwise through AudioSystem with conversion
+     */
+    static PcmSource open(String filePath) throws IOException, UnsupportedAudioFileException {
+        if (filePath.toLowerCase().endsWith(".flac")) {
+            return new FlacSource(filePath);
+        }
+        if (filePath.toLowerCase().endsWith(".wav")) {
+            try {
+                return MappedWavSource.open(filePath);
+            } catch (IOException ex) {
+                // Odd WAV flavour (ADPCM, broken header...), let AudioSystem have a go
+            }
+        }
+        return new StreamSource(filePath);
+    }
+}
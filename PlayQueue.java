@@ -0,0 +1,259 @@
+// Play order over track IDs: the list playback started from (shuffled or not), tracks queued to play next,
+// repeat, and a history for going back. Everything is int arrays, every step is O(1). EDT only.
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class PlayQueue {
+    enum Repeat { OFF, ALL, ONE }
+
+    static final int HISTORY_SIZE = 1024;
+
+    // Track IDs of the list playback started from, in list order
+    private int[] context = new int[0];
+    private int size = 0;
+    // Play order. The context itself, or a copy of it while shuffling. The shuffle is a Fisher-Yates done
+    // lazily: positions below drawn are settled, each step forward draws one more, so turning shuffle
+    // on costs one array copy whatever the library size.
+    private int[] order = context;
+    private int drawn = 0;
+    private int position = -1;
+    private boolean shuffle = false;
+    private Repeat repeat = Repeat.OFF;
+    private final SplittableRandom random = new SplittableRandom();
+
+    // Tracks asked for with "play next" / "add to queue", played before the order carries on. Ring buffer.
+    private int[] upNext = new int[16];
+    private int upNextHead = 0;
+    private int upNextCount = 0;
+
+    // Recently played tracks, newest last. Ring buffer, the oldest drop off.
+    private final int[] history = new int[HISTORY_SIZE];
+    private int historyEnd = 0;
+    private int historyCount = 0;
+
+    private int current = -1;
+
+    /**
+     * Starts playing ids from index. The queue keeps the array and never writes to it, so a list model's
+     * own array can be passed straight in.
+     */
+    void play(int[] ids, int index) {
+        context = ids;
+        size = ids.length;
+        pushHistory(current);
+        if (shuffle) {
+            startShuffle(index);
+        } else {
+            order = context;
+            position = index;
+        }
+        current = index >= 0 && index < size ? ids[index] : -1;
+    }
+
+    boolean hasContext() {
+        return size > 0;
+    }
+
+    int current() {
+        return current;
+    }
+
+    /**
+     * The track a natural end of this one moves on to, -1 if playback stops. Stays the same until
+     * the queue changes, so it's what to prefetch.
+     */
+    int peekNext() {
+        return step(true, false);
+    }
+
+    /**
+     * Moves on and returns the new current track, -1 at the end. automatic is true when the track ended
+     * by itself, repeat-one only holds the track then, skipping still moves on.
+     */
+    int next(boolean automatic) {
+        return step(automatic, true);
+    }
+
+    private int step(boolean automatic, boolean commit) {
+        if (automatic && repeat == Repeat.ONE && current >= 0) {
+            return current;
+        }
+        if (upNextCount > 0) {
+            int id = upNext[upNextHead];
+            if (commit) {
+                upNextHead = (upNextHead + 1) % upNext.length;
+                upNextCount--;
+                moveTo(id);
+            }
+            return id;
+        }
+        if (size == 0) {
+            return -1;
+        }
+        int nextPosition = position + 1;
+        if (nextPosition >= size) {
+            if (repeat == Repeat.OFF) {
+                return -1;
+            }
+            // Round again, in the same shuffled order if shuffling
+            nextPosition = 0;
+        }
+        draw(nextPosition);
+        int id = order[nextPosition];
+        if (commit) {
+            pushHistory(current);
+            position = nextPosition;
+            current = id;
+        }
+        return id;
+    }
+
+    /**
+     * Goes back to the track played before this one, -1 if there's no history
+     */
+    int previous() {
+        if (historyCount == 0) {
+            return -1;
+        }
+        historyEnd = (historyEnd - 1 + HISTORY_SIZE) % HISTORY_SIZE;
+        historyCount--;
+        int id = history[historyEnd];
+        // Keep the order in step when going back through it
+        if (position > 0 && order[position - 1] == id) {
+            position--;
+        }
+        current = id;
+        return id;
+    }
+
+    /**
+     * Records that a track is playing that the queue didn't choose (e.g. the audio moved on by itself
+     * to something else)
+     */
+    void moveTo(int id) {
+        if (id == current) {
+            return;
+        }
+        pushHistory(current);
+        current = id;
+        if (position + 1 < size && (!shuffle || drawn > position + 1) && order[position + 1] == id) {
+            position++;
+        }
+    }
+
+    /**
+     * Plays this track after the current one, ahead of anything already queued
+     */
+    void playNext(int id) {
+        growUpNext();
+        upNextHead = (upNextHead - 1 + upNext.length) % upNext.length;
+        upNext[upNextHead] = id;
+        upNextCount++;
+    }
+
+    /**
+     * Plays this track after everything already queued, before the order carries on
+     */
+    void addToQueue(int id) {
+        growUpNext();
+        upNext[(upNextHead + upNextCount) % upNext.length] = id;
+        upNextCount++;
+    }
+
+    int queuedCount() {
+        return upNextCount;
+    }
+
+    void clearQueued() {
+        upNextHead = 0;
+        upNextCount = 0;
+    }
+
+    private void growUpNext() {
+        if (upNextCount < upNext.length) {
+            return;
+        }
+        int[] grown = new int[upNext.length * 2];
+        for (int i = 0; i < upNextCount; i++) {
+            grown[i] = upNext[(upNextHead + i) % upNext.length];
+        }
+        upNext = grown;
+        upNextHead = 0;
+    }
+
+    boolean isShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * Turns shuffle on (the current track stays, everything else comes in random order) or off
+     * (carries on from the current track's place in the list)
+     */
+    void setShuffle(boolean on) {
+        if (on == shuffle) {
+            return;
+        }
+        shuffle = on;
+        if (on) {
+            startShuffle(position);
+        } else {
+            order = context;
+            position = -1;
+            for (int i = 0; i < size; i++) {
+                if (context[i] == current) {
+                    position = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void startShuffle(int index) {
+        order = Arrays.copyOf(context, size);
+        drawn = 0;
+        position = -1;
+        if (index >= 0 && index < size) {
+            // The track playing now is the first of the shuffled order
+            swap(0, index);
+            drawn = 1;
+            position = 0;
+        }
+    }
+
+    /**
+     * Settles the shuffled order up to and including p, one random pick per position
+     */
+    private void draw(int p) {
+        if (!shuffle) {
+            return;
+        }
+        while (drawn <= p) {
+            swap(drawn, drawn + random.nextInt(size - drawn));
+            drawn++;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int t = order[a];
+        order[a] = order[b];
+        order[b] = t;
+    }
+
+    Repeat getRepeat() {
+        return repeat;
+    }
+
+    void setRepeat(Repeat repeat) {
+        this.repeat = repeat;
+    }
+
+    private void pushHistory(int id) {
+        if (id < 0) {
+            return;
+        }
+        history[historyEnd] = id;
+        historyEnd = (historyEnd + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+    }
+}
@@ -1,11 +1,15 @@
 // Manages UI elements.
 
-import javax.sound.sampled.Clip;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.imageio.ImageIO;
 
 class PlayerUI {
@@ -17,27 +21,32 @@ class PlayerUI {
     JFrame mainFrame = new JFrame("Max's Music Player");
 
     // Custom JDesktopPane with background image
-    JDesktopPane desktop = new JDesktopPane() {
-        @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            if (BackgroundPanel != null) {
-                g.drawImage(BackgroundPanel, 0, 0, getWidth(), getHeight(), this);
-            }
-        }
-    };
-
-    Image BackgroundPanel;
+    BackgroundDesktopPane desktop = new BackgroundDesktopPane();
 
     //menu bar and items
     JMenuBar topMenuBar = new JMenuBar();
     JMenu playlists = new JMenu("Playlists");
+    JMenu playback = new JMenu("Playback");
+    JCheckBoxMenuItem normalizeItem = new JCheckBoxMenuItem("Normalize loudness", true);
+    JCheckBoxMenuItem shuffleItem = new JCheckBoxMenuItem("Shuffle", false);
+    JMenu repeatMenu = new JMenu("Repeat");
+    JMenu crossfadeMenu = new JMenu("Crossfade");
+    static final int[] CROSSFADE_SECONDS = {0, 2, 5, 8, 12};
     JMenu help = new JMenu("Help");
 
     JButton exit = new JButton("X");
 
     //Internal frames
     JInternalFrame playlistFrame = new JInternalFrame("Playlist", true, false, true, true);
+    JInternalFrame searchFrame = new JInternalFrame("Search", true, true, true, true);
+    DiagnosticsFrame diagnosticsFrame = new DiagnosticsFrame();
+    OutputFrame outputFrame = new OutputFrame(ac);
+    DuplicatesFrame duplicatesFrame = new DuplicatesFrame(sm);
+
+    // Search box in the menu bar, results are track IDs from anywhere in the library
+    JTextField searchField = new JTextField(20);
+    SearchResultsModel searchResults = new SearchResultsModel();
+    JList<Integer> searchResultsList = new JList<>(searchResults);
 
     // Bottom control panel (fixed, not internal frame)
     JPanel controlPanel = new JPanel();
@@ -56,13 +65,40 @@ class PlayerUI {
     //now playing label
     JLabel nowPlayingLabel = new JLabel("No song playing");
 
-    // Progress bar for scrubbing
-    JSlider progressBar = new JSlider(0, 100);
+    // Waveform seek bar, a plain bar until the track's peaks are ready
+    WaveformBar progressBar = new WaveformBar();
+    // Track the seek bar is showing, so peaks that arrive late for another track are dropped
+    String waveformPath = null;
     JLabel currentTimeLabel = new JLabel("0:00");
     JLabel totalTimeLabel = new JLabel("0:00");
 
-    // Timer for updating progress bar
-    Timer progressTimer;
+    // Position update rates asked of the audio engine
+    static final long PROGRESS_INTERVAL_MILLIS = AudioController.DEFAULT_POSITION_INTERVAL_MILLIS;
+    static final long PROGRESS_INTERVAL_MINIMIZED_MILLIS = 1000;
+    static final long PROGRESS_INTERVAL_SCRUBBING_MILLIS = 40;
+
+    // Latest position from the audio engine. The engine thread only stores it, a Swing timer at the
+    // same rate picks it up on the EDT, so nothing is queued or allocated per update.
+    volatile long latestPosition = 0;
+    volatile long latestLength = 0;
+    final AtomicBoolean progressPending = new AtomicBoolean(false);
+    final Timer progressTimer = new Timer((int) PROGRESS_INTERVAL_MILLIS, e -> {
+        if (progressPending.getAndSet(false)) {
+            updateProgressBar();
+        }
+    });
+
+    // What the labels currently show, so they're only touched when it changes
+    long shownSecond = -1;
+    long shownLengthSecond = -1;
+
+    // Set while the list selection is moved to follow playback, so it doesn't restart the track
+    boolean followingPlayback = false;
+
+    // What plays next: the list playback started from, shuffle/repeat, queued tracks and history
+    PlayQueue queue = new PlayQueue();
+    // Tracks skipped in one go looking for one that's still in the library
+    static final int MAX_SKIPPED = 100;
 
     //playlists
     JScrollPane playlistDisplayScrollPane = new JScrollPane(sm.displayedPlaylist);
@@ -74,12 +110,36 @@ class PlayerUI {
         // Populate playlist menu with discovered playlists
         populatePlaylistMenu();
 
-        try {
-            BackgroundPanel = ImageIO.read(new File("/home/nyx/Documents/music/MusicPlayerBackground.png"));
-            desktop.repaint(); // Trigger repaint after loading image
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        // Tracks are played at their analysed loudness
+        ac.setTrackGainLookup(sm::normalizationGain);
+        ac.start();
+
+        // Pick up files added/removed while we're running
+        sm.playlistsChangedListener = this::populatePlaylistMenu;
+        sm.startWatching();
+
+        loadBackground();
+    }
+
+    /**
+     * Decodes the background image off the EDT and hands it to the desktop once it's ready
+     */
+    void loadBackground() {
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() throws IOException {
+                return ImageIO.read(new File("/home/nyx/Documents/music/MusicPlayerBackground.png"));
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    desktop.setBackgroundImage(get());
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
     }
 
     void setUi(){
@@ -134,11 +194,62 @@ class PlayerUI {
         sm.displayedPlaylist.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         sm.displayedPlaylist.setVisibleRowCount(15);
         sm.displayedPlaylist.setFont(new Font("Default", Font.PLAIN, 14));
+
+        // Fixed cell size so the list never measures every row, only the visible ones get rendered
+        sm.displayedPlaylist.setFixedCellHeight(
+                sm.displayedPlaylist.getFontMetrics(sm.displayedPlaylist.getFont()).getHeight() + 4);
+        sm.displayedPlaylist.setFixedCellWidth(100);
         sm.displayedPlaylist.setBackground(new Color(30, 30, 33));
         sm.displayedPlaylist.setForeground(new Color(220, 220, 220));
         sm.displayedPlaylist.setSelectionBackground(new Color(70, 130, 180));
         sm.displayedPlaylist.setSelectionForeground(Color.WHITE);
 
+        // Rows hold track IDs, draw the song's title and its length once the metadata is in
+        sm.displayedPlaylist.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                Song song = value == null ? null : sm.getSong((Integer) value);
+                return super.getListCellRendererComponent(list, songText(song, false), index, isSelected, cellHasFocus);
+            }
+        });
+
+        // Search results, same look as the playlist but with the playlist each song is in
+        searchResultsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        searchResultsList.setFont(sm.displayedPlaylist.getFont());
+        searchResultsList.setFixedCellHeight(sm.displayedPlaylist.getFixedCellHeight());
+        searchResultsList.setFixedCellWidth(100);
+        searchResultsList.setBackground(new Color(30, 30, 33));
+        searchResultsList.setForeground(new Color(220, 220, 220));
+        searchResultsList.setSelectionBackground(new Color(70, 130, 180));
+        searchResultsList.setSelectionForeground(Color.WHITE);
+        searchResultsList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                Song song = value == null ? null : sm.getSong((Integer) value);
+                return super.getListCellRendererComponent(list, songText(song, true), index, isSelected, cellHasFocus);
+            }
+        });
+
+        JScrollPane searchScrollPane = new JScrollPane(searchResultsList);
+        searchScrollPane.getViewport().setBackground(new Color(30, 30, 33));
+        searchScrollPane.setBorder(BorderFactory.createEmptyBorder());
+        searchFrame.setSize(450, 400);
+        searchFrame.setLocation(470, 50);
+        searchFrame.setLayout(new BorderLayout());
+        searchFrame.add(searchScrollPane, BorderLayout.CENTER);
+        searchFrame.getContentPane().setBackground(new Color(30, 30, 33));
+        searchFrame.setFrameIcon(null);
+        searchFrame.setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+
+        searchField.setMaximumSize(searchField.getPreferredSize());
+        searchField.setBackground(new Color(45, 45, 48));
+        searchField.setForeground(new Color(220, 220, 220));
+        searchField.setCaretColor(new Color(220, 220, 220));
+        searchField.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        searchField.setToolTipText("Search the library");
+
         // Style the scroll pane
         playlistDisplayScrollPane.getViewport().setBackground(new Color(30, 30, 33));
         playlistDisplayScrollPane.setBorder(BorderFactory.createEmptyBorder());
@@ -199,12 +310,6 @@ class PlayerUI {
         totalTimeLabel.setForeground(new Color(180, 180, 180));
         totalTimeLabel.setFont(new Font("Default", Font.PLAIN, 11));
 
-        progressBar.setValue(0);
-        progressBar.setBackground(new Color(24, 24, 27));
-        progressBar.setForeground(new Color(70, 130, 180));
-        progressBar.setPaintTicks(false);
-        progressBar.setPaintLabels(false);
-
         progressPanel.add(currentTimeLabel, BorderLayout.WEST);
         progressPanel.add(progressBar, BorderLayout.CENTER);
         progressPanel.add(totalTimeLabel, BorderLayout.EAST);
@@ -232,9 +337,6 @@ class PlayerUI {
         controlPanel.add(leftSection, BorderLayout.WEST);
         controlPanel.add(centerSection, BorderLayout.CENTER);
         controlPanel.add(rightSection, BorderLayout.EAST);
-
-        // Initialize progress timer
-        progressTimer = new Timer(100, e -> updateProgressBar());
     }
 
     void styleControlButton(JButton button) {
@@ -247,35 +349,61 @@ class PlayerUI {
         button.setCursor(new Cursor(Cursor.HAND_CURSOR));
     }
 
+    /**
+     * Sets how often the engine sends the position and the progress timer picks it up
+     */
+    void setProgressInterval(long millis) {
+        ac.setPositionUpdateInterval(millis);
+        progressTimer.setDelay((int) millis);
+    }
+
+    /**
+     * Shows the latest engine position. Runs on the EDT, allocates nothing unless the shown second changes.
+     */
     void updateProgressBar() {
-        if (ac.getcurrentClip() != null && ac.getcurrentClip().isRunning()) {
-            long currentPos = ac.getcurrentClip().getMicrosecondPosition();
-            long totalLength = ac.getcurrentClip().getMicrosecondLength();
+        long currentPos = latestPosition;
+        long totalLength = latestLength;
 
-            if (totalLength > 0) {
-                int progress = (int) ((currentPos * 100) / totalLength);
-                progressBar.setValue(progress);
+        if (totalLength > 0) {
+            // Repaints only when the played part moves a pixel, and not while the user is dragging
+            progressBar.setPosition(currentPos / (double) totalLength);
 
-                currentTimeLabel.setText(formatTime(currentPos / 1000000));
-                totalTimeLabel.setText(formatTime(totalLength / 1000000));
+            long second = currentPos / 1000000;
+            if (second != shownSecond) {
+                shownSecond = second;
+                currentTimeLabel.setText(formatTime(second));
+            }
+            long lengthSecond = totalLength / 1000000;
+            if (lengthSecond != shownLengthSecond) {
+                shownLengthSecond = lengthSecond;
+                totalTimeLabel.setText(formatTime(lengthSecond));
             }
         }
     }
 
+    /**
+     * Row text for a song: its title, length once the metadata is in, and optionally its playlist
+     */
+    String songText(Song song, boolean withPlaylist) {
+        if (song == null) {
+            return "";
+        }
+        String text = song.displayName();
+        if (song.durationMillis > 0) {
+            text += "  (" + formatTime(song.durationMillis / 1000) + ")";
+        }
+        return withPlaylist ? text + "  —  " + song.playlistName : text;
+    }
+
     String formatTime(long seconds) {
         long minutes = seconds / 60;
         long secs = seconds % 60;
-        return String.format("%d:%02d", minutes, secs);
+        return secs < 10 ? minutes + ":0" + secs : minutes + ":" + secs;
     }
 
     void addActionListeners() {
         exit.addActionListener(e -> {
-            if (ac.getcurrentClip() != null) {
-                ac.getcurrentClip().close();
-            }
-            if (progressTimer != null) {
-                progressTimer.stop();
-            }
+            ac.close();
             mainFrame.dispose();
         });
 
@@ -286,17 +414,12 @@ class PlayerUI {
         });
 
         startAndStop.addActionListener(e -> {
+            // The button and timer follow the engine's paused/resumed events
             if (ac.clipPaused == true) {
                 ac.resume();
-                System.out.println("RESUMING");
-                startAndStop.setText("⏸");
-                progressTimer.start();
             }
             else if (ac.clipPaused == false) {
                 ac.pause();
-                System.out.println("PAUSING");
-                startAndStop.setText("▶");
-                progressTimer.stop();
             }
         });
 
@@ -308,62 +431,402 @@ class PlayerUI {
             playNextSong();
         });
 
-        // Progress bar scrubbing
-        progressBar.addChangeListener(e -> {
-            if (progressBar.getValueIsAdjusting() && ac.getcurrentClip() != null) {
-                long totalLength = ac.getcurrentClip().getMicrosecondLength();
-                long newPosition = (totalLength * progressBar.getValue()) / 100;
-                ac.setPosition(newPosition);
+        // Slow position updates right down while minimized
+        mainFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowIconified(WindowEvent e) {
+                setProgressInterval(PROGRESS_INTERVAL_MINIMIZED_MILLIS);
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                setProgressInterval(PROGRESS_INTERVAL_MILLIS);
+            }
+        });
+
+        // Scrubbing on the waveform, with fast position updates while the mouse is down
+        progressBar.setSeekListener((fraction, adjusting) -> {
+            setProgressInterval(adjusting ? PROGRESS_INTERVAL_SCRUBBING_MILLIS : PROGRESS_INTERVAL_MILLIS);
+            long totalLength = ac.getMicrosecondLength();
+            if (totalLength > 0) {
+                ac.setPosition((long) (totalLength * fraction));
+            }
+        });
+
+        // Playback state comes back from the audio engine thread
+        ac.addListener(new AudioListener() {
+            @Override
+            public void trackStarted(String filePath) {
+                SwingUtilities.invokeLater(() -> {
+                    showPlaying(true);
+                    showWaveform(filePath);
+                });
+            }
+
+            @Override
+            public void trackChanged(String filePath) {
+                SwingUtilities.invokeLater(() -> followTrackChange(filePath));
+            }
+
+            @Override
+            public void trackFinished(String filePath) {
+                SwingUtilities.invokeLater(() -> trackEnded());
+            }
+
+            @Override
+            public void positionChanged(long microseconds, long lengthMicroseconds) {
+                latestPosition = microseconds;
+                latestLength = lengthMicroseconds;
+                progressPending.set(true);
+            }
+
+            @Override
+            public void paused() {
+                SwingUtilities.invokeLater(() -> showPlaying(false));
+            }
+
+            @Override
+            public void resumed() {
+                SwingUtilities.invokeLater(() -> showPlaying(true));
+            }
+
+            @Override
+            public void stopped() {
+                SwingUtilities.invokeLater(() -> showPlaying(false));
+            }
+        });
+        progressTimer.start();
+
+        // Search on every keystroke, the index answers well inside a frame
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                runSearch();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                runSearch();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                runSearch();
+            }
+        });
+
+        // Enter plays the first (or selected) result, down arrow moves into the results
+        searchField.addActionListener(e -> {
+            int row = Math.max(0, searchResultsList.getSelectedIndex());
+            if (row < searchResults.getSize()) {
+                playSearchResult(searchResults.getElementAt(row));
+            }
+        });
+        searchField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_DOWN && searchResults.getSize() > 0) {
+                    searchResultsList.requestFocusInWindow();
+                    searchResultsList.setSelectedIndex(0);
+                }
+            }
+        });
+
+        addQueueMenu(searchResultsList);
+        addQueueMenu(sm.displayedPlaylist);
+        searchResultsList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && searchResultsList.getSelectedValue() != null) {
+                    playSearchResult(searchResultsList.getSelectedValue());
+                }
+            }
+        });
+        searchResultsList.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER && searchResultsList.getSelectedValue() != null) {
+                    playSearchResult(searchResultsList.getSelectedValue());
+                }
             }
         });
 
         // Add listener for playlist selection
         sm.displayedPlaylist.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                String selected = sm.displayedPlaylist.getSelectedValue();
+                Integer selectedId = sm.displayedPlaylist.getSelectedValue();
+                Song selected = selectedId == null ? null : sm.getSong(selectedId);
                 if (selected != null) {
-                    System.out.println("Selected: " + selected);
+                    if (followingPlayback || sm.updatingModels) {
+                        return;
+                    }
 
                     // Update now playing label
-                    nowPlayingLabel.setText("♪ " + selected.replace(".wav", ""));
-
-                    // Get the full path from SongManagement
-                    String fullPath = sm.getSongPath(selected);
-
-                    if (fullPath != null) {
-                        // Stop previous track
-                        if (ac.getcurrentClip() != null) {
-                            ac.getcurrentClip().close();
-                        }
-
-                        // Load and play the selected track on a separate thread
-                        new Thread(() -> {
-                            ac.playSound(fullPath);
-                            startAndStop.setText("⏸");
-                            progressTimer.start();
-                        }).start();
-                    } else {
-                        System.err.println("Could not find path for: " + selected);
-                    }
+                    nowPlayingLabel.setText("♪ " + selected.displayName());
+
+                    // Playing from the list makes it the play order, starting at this row
+                    queue.play(sm.currentPlaylistModel.ids(), sm.displayedPlaylist.getSelectedIndex());
+                    startTrack(selected);
                 }
             }
         });
     }
 
+    /**
+     * Runs the query in the search box and shows the results, the frame hides when the box is empty
+     */
+    void runSearch() {
+        String query = searchField.getText();
+        if (query.isBlank()) {
+            searchResults.setCount(0);
+            searchFrame.setVisible(false);
+            return;
+        }
+
+        int count = sm.search(query, searchResults.ids);
+        searchResults.setCount(count);
+        searchResultsList.clearSelection();
+        searchFrame.setTitle(count >= SearchIndex.MAX_RESULTS ? "Search - first " + count + " matches" : "Search - " + count + " matches");
+        if (!searchFrame.isVisible()) {
+            searchFrame.setVisible(true);
+            searchFrame.toFront();
+        }
+    }
+
+    /**
+     * Opens the result's playlist and selects it there, which starts it like any other selection
+     */
+    void playSearchResult(int id) {
+        Song song = sm.getSong(id);
+        if (song == null) {
+            return;
+        }
+        if (!song.playlistName.equals(sm.getCurrentPlaylistName())) {
+            sm.switchToPlaylist(song.playlistName);
+            playlistFrame.setTitle("Playlist - " + song.playlistName);
+        }
+        int row = sm.indexOfSong(id, -1);
+        if (row >= 0) {
+            sm.displayedPlaylist.setSelectedIndex(row);
+            sm.displayedPlaylist.ensureIndexIsVisible(row);
+        }
+    }
+
+    void showPlaying(boolean playing) {
+        startAndStop.setText(playing ? "⏸" : "▶");
+    }
+
+    /**
+     * Keeps the queue and the list in step when the audio moves on to the prefetched track by itself
+     */
+    void followTrackChange(String filePath) {
+        int id = sm.registry.idForPath(filePath);
+        if (id >= 0 && id == queue.peekNext()) {
+            queue.next(true);
+        } else {
+            queue.moveTo(id);
+        }
+        Song song = sm.getSong(id);
+        if (song != null) {
+            nowPlayingLabel.setText("♪ " + song.displayName());
+        }
+        selectPlaying(id);
+        showWaveform(filePath);
+        prefetchNext();
+    }
+
+    /**
+     * Starts a track the queue has already moved to
+     */
+    void startTrack(Song song) {
+        if (song.FilePath == null) {
+            System.err.println("Could not find path for: " + song.name);
+            return;
+        }
+        // The engine stops the previous track and opens this one on its own thread
+        ac.playSound(song.FilePath);
+        prefetchNext();
+    }
+
+    /**
+     * Plays a track chosen by the queue, selecting it if it's in the list on show.
+     * False if it's no longer in the library.
+     */
+    boolean playTrack(int id) {
+        Song song = sm.getSong(id);
+        if (song == null) {
+            return false;
+        }
+        nowPlayingLabel.setText("♪ " + song.displayName());
+        selectPlaying(id);
+        startTrack(song);
+        return true;
+    }
+
+    /**
+     * Moves the list selection to the playing track without restarting it
+     */
+    void selectPlaying(int id) {
+        int index = sm.indexOfSong(id, sm.displayedPlaylist.getSelectedIndex() + 1);
+        if (index >= 0) {
+            followingPlayback = true;
+            sm.displayedPlaylist.setSelectedIndex(index);
+            sm.displayedPlaylist.ensureIndexIsVisible(index);
+            followingPlayback = false;
+        }
+    }
+
+    /**
+     * Opens and pre-buffers whatever the queue will play when this track ends, so the change is gapless.
+     * Called again whenever the queue changes.
+     */
+    void prefetchNext() {
+        int id = queue.peekNext();
+        Song next = id < 0 ? null : sm.getSong(id);
+        String nextPath = next == null ? null : next.FilePath;
+        ac.prefetch(nextPath);
+        sm.waveforms.prefetch(nextPath);
+    }
+
+    /**
+     * The track ended with nothing prefetched to carry on into, so the queue picks what's next
+     */
+    void trackEnded() {
+        int id = queue.next(true);
+        for (int skipped = 0; id >= 0 && skipped < MAX_SKIPPED; skipped++) {
+            if (playTrack(id)) {
+                return;
+            }
+            id = queue.next(false);
+        }
+        showPlaying(false);
+    }
+
+    /**
+     * Puts the track's waveform in the seek bar, straight away if it's cached in memory,
+     * otherwise once it's loaded from its sidecar or generated off the EDT
+     */
+    void showWaveform(String filePath) {
+        if (filePath.equals(waveformPath)) {
+            return;
+        }
+        waveformPath = filePath;
+        progressBar.setPeaks(null);
+        sm.waveforms.request(filePath, peaks -> {
+            if (filePath.equals(waveformPath)) {
+                progressBar.setPeaks(peaks);
+            }
+        });
+    }
+
     void playPreviousSong() {
-        int currentIndex = sm.displayedPlaylist.getSelectedIndex();
-        if (currentIndex > 0) {
-            sm.displayedPlaylist.setSelectedIndex(currentIndex - 1);
+        for (int skipped = 0; skipped < MAX_SKIPPED; skipped++) {
+            int id = queue.previous();
+            if (id < 0) {
+                break;
+            }
+            if (playTrack(id)) {
+                return;
+            }
+        }
+        // Nothing played yet, go by the list
+        if (!queue.hasContext()) {
+            int currentIndex = sm.displayedPlaylist.getSelectedIndex();
+            if (currentIndex > 0) {
+                sm.displayedPlaylist.setSelectedIndex(currentIndex - 1);
+            }
         }
     }
 
     void playNextSong() {
-        int currentIndex = sm.displayedPlaylist.getSelectedIndex();
-        if (currentIndex < sm.displayedPlaylist.getModel().getSize() - 1) {
-            sm.displayedPlaylist.setSelectedIndex(currentIndex + 1);
+        if (!queue.hasContext() && queue.queuedCount() == 0) {
+            // Nothing played yet, go by the list
+            int currentIndex = sm.displayedPlaylist.getSelectedIndex();
+            if (currentIndex < sm.displayedPlaylist.getModel().getSize() - 1) {
+                sm.displayedPlaylist.setSelectedIndex(currentIndex + 1);
+            }
+            return;
+        }
+        for (int skipped = 0; skipped < MAX_SKIPPED; skipped++) {
+            int id = queue.next(false);
+            if (id < 0 || playTrack(id)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Plays the whole library in random order
+     */
+    void shuffleLibrary() {
+        int[] ids = sm.registry.liveIds();
+        if (ids.length == 0) {
+            return;
+        }
+        queue.setShuffle(true);
+        shuffleItem.setSelected(true);
+        queue.play(ids, ThreadLocalRandom.current().nextInt(ids.length));
+        if (!playTrack(queue.current())) {
+            playNextSong();
         }
     }
 
+    /**
+     * Right-click menu for a list of track IDs: play next or add to the queue
+     */
+    void addQueueMenu(JList<Integer> list) {
+        JPopupMenu menu = new JPopupMenu();
+        JMenuItem playNextItem = new JMenuItem("Play next");
+        JMenuItem addToQueueItem = new JMenuItem("Add to queue");
+        for (JMenuItem item : new JMenuItem[]{playNextItem, addToQueueItem}) {
+            item.setBackground(new Color(40, 40, 43));
+            item.setForeground(new Color(220, 220, 220));
+            menu.add(item);
+        }
+        playNextItem.addActionListener(e -> {
+            List<Integer> ids = list.getSelectedValuesList();
+            // Backwards, so they play in the order they're listed
+            for (int i = ids.size() - 1; i >= 0; i--) {
+                queue.playNext(ids.get(i));
+            }
+            prefetchNext();
+        });
+        addToQueueItem.addActionListener(e -> {
+            for (int id : list.getSelectedValuesList()) {
+                queue.addToQueue(id);
+            }
+            prefetchNext();
+        });
+
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showMenu(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showMenu(e);
+            }
+
+            private void showMenu(MouseEvent e) {
+                if (!e.isPopupTrigger()) {
+                    return;
+                }
+                int row = list.locationToIndex(e.getPoint());
+                if (row >= 0 && !list.isSelectedIndex(row)) {
+                    // Right-clicking a row on its own doesn't play it, only the menu acts on it
+                    followingPlayback = true;
+                    list.setSelectedIndex(row);
+                    followingPlayback = false;
+                }
+                if (row >= 0) {
+                    menu.show(list, e.getX(), e.getY());
+                }
+            }
+        });
+    }
+
     /**
      * Populates the Playlists menu with items for each discovered playlist folder
      */
@@ -402,11 +865,17 @@ class PlayerUI {
         JMenuItem refreshItem = new JMenuItem("Refresh Playlists");
         refreshItem.setBackground(new Color(40, 40, 43));
         refreshItem.setForeground(new Color(220, 220, 220));
-        refreshItem.addActionListener(e -> {
-            sm.refreshPlaylists();
-            populatePlaylistMenu();
-        });
+        refreshItem.addActionListener(e -> sm.refreshPlaylists());
         playlists.add(refreshItem);
+
+        JMenuItem duplicatesItem = new JMenuItem("Find Duplicates...");
+        duplicatesItem.setBackground(new Color(40, 40, 43));
+        duplicatesItem.setForeground(new Color(220, 220, 220));
+        duplicatesItem.addActionListener(e -> {
+            duplicatesFrame.setVisible(true);
+            duplicatesFrame.toFront();
+        });
+        playlists.add(duplicatesItem);
     }
 
     void additems() {
@@ -414,13 +883,116 @@ class PlayerUI {
         playlists.setForeground(new Color(220, 220, 220));
         help.setForeground(new Color(220, 220, 220));
 
+        // Playback menu
+        normalizeItem.setBackground(new Color(40, 40, 43));
+        normalizeItem.setForeground(new Color(220, 220, 220));
+        normalizeItem.addActionListener(e -> {
+            sm.normalizeLoudness = normalizeItem.isSelected();
+            ac.refreshTrackGain();
+        });
+        playback.add(normalizeItem);
+        playback.addSeparator();
+
+        // Play order
+        shuffleItem.setBackground(new Color(40, 40, 43));
+        shuffleItem.setForeground(new Color(220, 220, 220));
+        shuffleItem.addActionListener(e -> {
+            queue.setShuffle(shuffleItem.isSelected());
+            prefetchNext();
+        });
+        playback.add(shuffleItem);
+
+        repeatMenu.setBackground(new Color(40, 40, 43));
+        repeatMenu.setForeground(new Color(220, 220, 220));
+        repeatMenu.setOpaque(true);
+        ButtonGroup repeatGroup = new ButtonGroup();
+        for (PlayQueue.Repeat repeat : PlayQueue.Repeat.values()) {
+            String label = switch (repeat) {
+                case OFF -> "Off";
+                case ALL -> "All";
+                case ONE -> "One";
+            };
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(label, queue.getRepeat() == repeat);
+            item.setBackground(new Color(40, 40, 43));
+            item.setForeground(new Color(220, 220, 220));
+            item.addActionListener(e -> {
+                queue.setRepeat(repeat);
+                prefetchNext();
+            });
+            repeatGroup.add(item);
+            repeatMenu.add(item);
+        }
+        playback.add(repeatMenu);
+
+        JMenuItem shuffleLibraryItem = new JMenuItem("Shuffle whole library");
+        shuffleLibraryItem.setBackground(new Color(40, 40, 43));
+        shuffleLibraryItem.setForeground(new Color(220, 220, 220));
+        shuffleLibraryItem.addActionListener(e -> shuffleLibrary());
+        playback.add(shuffleLibraryItem);
+        playback.addSeparator();
+
+        // Crossfade length and curve, off by default so track changes stay gapless
+        crossfadeMenu.setBackground(new Color(40, 40, 43));
+        crossfadeMenu.setForeground(new Color(220, 220, 220));
+        crossfadeMenu.setOpaque(true);
+        ButtonGroup lengthGroup = new ButtonGroup();
+        for (int seconds : CROSSFADE_SECONDS) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(seconds == 0 ? "Off" : seconds + " seconds",
+                    ac.getCrossfadeMillis() == seconds * 1000L);
+            item.setBackground(new Color(40, 40, 43));
+            item.setForeground(new Color(220, 220, 220));
+            item.addActionListener(e -> ac.setCrossfade(seconds * 1000L, ac.getCrossfadeCurve()));
+            lengthGroup.add(item);
+            crossfadeMenu.add(item);
+        }
+        crossfadeMenu.addSeparator();
+        ButtonGroup curveGroup = new ButtonGroup();
+        for (Crossfader.Curve curve : Crossfader.Curve.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(curve.label, ac.getCrossfadeCurve() == curve);
+            item.setBackground(new Color(40, 40, 43));
+            item.setForeground(new Color(220, 220, 220));
+            item.addActionListener(e -> ac.setCrossfade(ac.getCrossfadeMillis(), curve));
+            curveGroup.add(item);
+            crossfadeMenu.add(item);
+        }
+        playback.add(crossfadeMenu);
+
+        // Mixer, line buffer and the latency they give
+        JMenuItem outputItem = new JMenuItem("Output...");
+        outputItem.setBackground(new Color(40, 40, 43));
+        outputItem.setForeground(new Color(220, 220, 220));
+        outputItem.addActionListener(e -> {
+            outputFrame.setVisible(true);
+            outputFrame.toFront();
+        });
+        playback.addSeparator();
+        playback.add(outputItem);
+        playback.setForeground(new Color(220, 220, 220));
+
+        // Help menu
+        JMenuItem diagnosticsItem = new JMenuItem("Diagnostics");
+        diagnosticsItem.setBackground(new Color(40, 40, 43));
+        diagnosticsItem.setForeground(new Color(220, 220, 220));
+        diagnosticsItem.addActionListener(e -> {
+            diagnosticsFrame.setVisible(true);
+            diagnosticsFrame.toFront();
+        });
+        help.add(diagnosticsItem);
+
         topMenuBar.add(playlists);
+        topMenuBar.add(playback);
         topMenuBar.add(help);
         topMenuBar.add(Box.createHorizontalGlue());
+        topMenuBar.add(searchField);
+        topMenuBar.add(Box.createHorizontalStrut(10));
         topMenuBar.add(exit);
 
         // Add internal frames to desktop
         desktop.add(playlistFrame);
+        desktop.add(searchFrame);
+        desktop.add(diagnosticsFrame);
+        desktop.add(outputFrame);
+        desktop.add(duplicatesFrame);
 
         // Bring frames to front
         try {
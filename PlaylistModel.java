@@ -0,0 +1,80 @@
+// List model backed directly by a playlist's song list, rows are the songs' track IDs.
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+
+@SuppressWarnings("serial")
+public class PlaylistModel extends AbstractListModel<Integer> {
+    private final ArrayList<Song> songs;
+    // Track IDs in row order, built on first use and dropped whenever a row changes. Changes have to go
+    // through the model for this to stay right.
+    private int[] ids;
+
+    /**
+     * Wraps the playlist's own list, nothing is copied and no per-row events are fired
+     */
+    PlaylistModel(ArrayList<Song> songs) {
+        this.songs = songs;
+    }
+
+    @Override
+    public int getSize() {
+        return songs.size();
+    }
+
+    @Override
+    public Integer getElementAt(int index) {
+        return songs.get(index).id;
+    }
+
+    Song getSongAt(int index) {
+        return songs.get(index);
+    }
+
+    /**
+     * Gets the row of a track ID, -1 if it isn't in this playlist
+     */
+    int indexOf(int id) {
+        for (int i = 0; i < songs.size(); i++) {
+            if (songs.get(i).id == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The playlist's track IDs in order. The same array is handed out until the model changes, so playing
+     * from the list again costs nothing. Callers must not write to it.
+     */
+    int[] ids() {
+        int[] current = ids;
+        if (current == null) {
+            current = new int[songs.size()];
+            for (int i = 0; i < current.length; i++) {
+                current[i] = songs.get(i).id;
+            }
+            ids = current;
+        }
+        return current;
+    }
+
+    void add(int index, Song song) {
+        songs.add(index, song);
+        ids = null;
+        fireIntervalAdded(this, index, index);
+    }
+
+    Song remove(int index) {
+        Song song = songs.remove(index);
+        ids = null;
+        fireIntervalRemoved(this, index, index);
+        return song;
+    }
+
+    void set(int index, Song song) {
+        songs.set(index, song);
+        ids = null;
+        fireContentsChanged(this, index, index);
+    }
+}
@@ -0,0 +1,45 @@
+// Next track opened and pre-buffered ahead of time so the hand-off to the output line has no gap.
+
+import java.io.IOException;
+
+public class PrefetchedTrack {
+    final String path;
+    final PcmSource source;
+
+    // First buffer of audio, already read from disk
+    final byte[] head = new byte[AudioController.BUFFER_BYTES];
+    int headBytes;
+
+    private PrefetchedTrack(String path, PcmSource source) {
+        this.path = path;
+        this.source = source;
+    }
+
+    /**
+     * Opens the track, from the PCM cache if it's there or recording into it if not, and reads its first buffer. Returns null if it can't be played.
+     */
+    static PrefetchedTrack open(String path, PcmCache cache) {
+        PrefetchedTrack track = null;
+        try {
+            PcmSource cached = cache.open(path);
+            track = new PrefetchedTrack(path, cached != null ? cached : cache.record(path, PcmSource.open(path)));
+            track.headBytes = Math.max(0, track.source.read(track.head, 0, track.head.length));
+            return track;
+        } catch (Exception | InternalError ex) {
+            // InternalError is a file truncated under its mapping
+            System.out.println("Could not prefetch " + path + ": " + ex.getMessage());
+            if (track != null) {
+                track.close();
+            }
+            return null;
+        }
+    }
+
+    void close() {
+        try {
+            source.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// Plays a track from its file and copies the PCM read for playback into a PCM cache buffer, so caching
+// a track costs no extra decode or disk read. Once every frame has been through it the track is cached.
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class RecordingPcmSource implements PcmSource {
+    private final PcmSource source;
+    private final PcmCache cache;
+    private final String filePath;
+    private final long lastModified;
+    private final long fileSize;
+    private final int frameSize;
+
+    // Null once the recording is committed or given up
+    private ByteBuffer data;
+    // Bytes from the start of the track that are in data, reads after a seek only add to it if they carry on from here
+    private int recorded = 0;
+
+    RecordingPcmSource(PcmSource source, PcmCache cache, String filePath, ByteBuffer data, long lastModified, long fileSize) {
+        this.source = source;
+        this.cache = cache;
+        this.filePath = filePath;
+        this.data = data;
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.frameSize = source.getFormat().getFrameSize();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return source.getFormat();
+    }
+
+    @Override
+    public long getFrameLength() {
+        return source.getFrameLength();
+    }
+
+    @Override
+    public long getFramePosition() {
+        return source.getFramePosition();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = source.getFramePosition() * frameSize;
+        int n = source.read(buffer, offset, length);
+        if (data == null) {
+            return n;
+        }
+        if (n <= 0) {
+            if (start == recorded) {
+                // The file ended before its header said it would, don't keep a buffer with a silent tail.
+                // The end reached after a seek past a hole says nothing, the hole can still be filled.
+                abandon();
+            }
+            return n;
+        }
+
+        long end = Math.min(start + n, data.capacity());
+        if (start <= recorded && end > recorded) {
+            // Absolute put, only the part not recorded yet
+            data.put(recorded, buffer, offset + (int) (recorded - start), (int) (end - recorded));
+            recorded = (int) end;
+            if (recorded == data.capacity()) {
+                cache.commit(filePath, data, source.getFormat(), lastModified, fileSize);
+                data = null;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void seekFrame(long frame) throws IOException {
+        source.seekFrame(frame);
+    }
+
+    private void abandon() {
+        if (data != null) {
+            cache.release(data.capacity());
+            data = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        abandon();
+        source.close();
+    }
+}
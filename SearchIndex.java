@@ -0,0 +1,363 @@
+// In-memory n-gram index over every song in the library for search-as-you-type.
+
+import java.util.Arrays;
+
+public class SearchIndex {
+    static final int MAX_RESULTS = 500;
+
+    // Lower-cased searchable text per track ID: name, title, artist and playlist, null if removed
+    private String[] docs = new String[1024];
+    private int docCount = 0;
+
+    // Gram -> track IDs
+    private GramTable table = new GramTable(1 << 12);
+
+    // Posting entries for the live docs only, the table is rebuilt when it holds more than twice that
+    private long liveEntries = 0;
+    private int[] docEntries = new int[1024];
+
+    // Set while a rebuilt table is being filled in the background, adds made meanwhile are logged here
+    // and replayed into it before it's swapped in
+    private Thread compaction = null;
+    private int[] addedDuringCompaction = new int[64];
+    private int addedCount = 0;
+
+    // Per-query dedupe without clearing: a track was already looked at if its stamp is this query's
+    private int[] seenStamp = new int[1024];
+    private int stamp = 0;
+
+    private static final long EMPTY = -1L;
+    private static final long TRIGRAM = 1L << 48;
+
+    /**
+     * Open-addressed gram -> posting list. Grams are single characters and trigrams packed into a long,
+     * postings are track IDs in the order they were added and may hold stale or repeated IDs.
+     */
+    private static final class GramTable {
+        long[] keys;
+        int[][] postings;
+        int[] postingSizes;
+        int keyCount = 0;
+        long totalEntries = 0;
+
+        GramTable(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            postings = new int[capacity][];
+            postingSizes = new int[capacity];
+        }
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                if (keys[slot] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void append(long key, int id) {
+            if ((keyCount + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                postings[slot] = new int[4];
+                keyCount++;
+            }
+
+            int[] posting = postings[slot];
+            int size = postingSizes[slot];
+            if (size == posting.length) {
+                posting = Arrays.copyOf(posting, size * 2);
+                postings[slot] = posting;
+            }
+            posting[size] = id;
+            postingSizes[slot] = size + 1;
+            totalEntries++;
+        }
+
+        void appendAll(String doc, int id) {
+            for (long gram : grams(doc)) {
+                append(gram, id);
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[][] oldPostings = postings;
+            int[] oldSizes = postingSizes;
+
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            postings = new int[capacity][];
+            postingSizes = new int[capacity];
+
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == EMPTY) {
+                    continue;
+                }
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                postings[slot] = oldPostings[i];
+                postingSizes[slot] = oldSizes[i];
+            }
+        }
+    }
+
+    /**
+     * Indexes a song under its track ID, replacing whatever was there for that ID
+     */
+    synchronized void add(Song song) {
+        if (song.id < 0) {
+            return;
+        }
+        ensureDocCapacity(song.id + 1);
+        String text = searchText(song);
+        if (text.equals(docs[song.id])) {
+            // Re-registered with nothing new to search on
+            return;
+        }
+        if (docs[song.id] != null) {
+            liveEntries -= docEntries[song.id];
+        }
+        docs[song.id] = text;
+        docCount = Math.max(docCount, song.id + 1);
+
+        long[] grams = grams(text);
+        for (long gram : grams) {
+            table.append(gram, song.id);
+        }
+        docEntries[song.id] = grams.length;
+        liveEntries += grams.length;
+        if (compaction != null) {
+            if (addedCount == addedDuringCompaction.length) {
+                addedDuringCompaction = Arrays.copyOf(addedDuringCompaction, addedCount * 2);
+            }
+            addedDuringCompaction[addedCount++] = song.id;
+        }
+        compactIfStale();
+    }
+
+    /**
+     * Drops a song, its posting entries are filtered out until the next compaction
+     */
+    synchronized void remove(Song song) {
+        if (song.id < 0 || song.id >= docCount || docs[song.id] == null) {
+            return;
+        }
+        docs[song.id] = null;
+        liveEntries -= docEntries[song.id];
+        docEntries[song.id] = 0;
+        compactIfStale();
+    }
+
+    /**
+     * Finds tracks containing every whitespace-separated term of the query, up to MAX_RESULTS.
+     * Only the shortest posting list among the terms' grams is walked, each candidate is checked with indexOf.
+     */
+    synchronized int search(String query, int[] results) {
+        String[] terms = query.toLowerCase().trim().split("\\s+");
+        if (terms.length == 0 || terms[0].isEmpty()) {
+            return 0;
+        }
+
+        int best = -1;
+        for (String term : terms) {
+            int slot = shortestPosting(term);
+            if (slot < 0) {
+                // Some gram of the query isn't anywhere in the library
+                return 0;
+            }
+            if (best < 0 || table.postingSizes[slot] < table.postingSizes[best]) {
+                best = slot;
+            }
+        }
+
+        if (++stamp == 0) {
+            Arrays.fill(seenStamp, 0);
+            stamp = 1;
+        }
+
+        int limit = Math.min(results.length, MAX_RESULTS);
+        int count = 0;
+        int[] posting = table.postings[best];
+        int size = table.postingSizes[best];
+        for (int i = 0; i < size && count < limit; i++) {
+            int id = posting[i];
+            if (seenStamp[id] == stamp) {
+                continue;
+            }
+            seenStamp[id] = stamp;
+            String doc = docs[id];
+            if (doc != null && containsAll(doc, terms)) {
+                results[count++] = id;
+            }
+        }
+        return count;
+    }
+
+    synchronized int size() {
+        int live = 0;
+        for (int i = 0; i < docCount; i++) {
+            if (docs[i] != null) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    private static boolean containsAll(String doc, String[] terms) {
+        for (String term : terms) {
+            if (doc.indexOf(term) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Slot of the shortest posting list among the term's grams, -1 if one of them isn't indexed.
+     * Terms shorter than three characters fall back to their single characters.
+     */
+    private int shortestPosting(String term) {
+        int best = -1;
+        if (term.length() < 3) {
+            for (int i = 0; i < term.length(); i++) {
+                int slot = table.find(term.charAt(i));
+                if (slot < 0) {
+                    return -1;
+                }
+                if (best < 0 || table.postingSizes[slot] < table.postingSizes[best]) {
+                    best = slot;
+                }
+            }
+        } else {
+            for (int i = 0; i + 3 <= term.length(); i++) {
+                int slot = table.find(trigram(term, i));
+                if (slot < 0) {
+                    return -1;
+                }
+                if (best < 0 || table.postingSizes[slot] < table.postingSizes[best]) {
+                    best = slot;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static String searchText(Song song) {
+        StringBuilder text = new StringBuilder(song.baseName());
+        // Fields are split by a character nobody types, so a term never matches across two of them
+        if (song.title != null) {
+            text.append('\u0001').append(song.title);
+        }
+        if (song.artist != null) {
+            text.append('\u0001').append(song.artist);
+        }
+        if (song.playlistName != null) {
+            text.append('\u0001').append(song.playlistName);
+        }
+        return text.toString().toLowerCase();
+    }
+
+    /**
+     * Distinct single characters and trigrams of the text, sorted
+     */
+    private static long[] grams(String text) {
+        int n = text.length();
+        long[] grams = new long[n + Math.max(0, n - 2)];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            grams[count++] = text.charAt(i);
+            if (i + 3 <= n) {
+                grams[count++] = trigram(text, i);
+            }
+        }
+        Arrays.sort(grams, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    private static long trigram(String text, int i) {
+        return TRIGRAM | (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Rebuilds the posting lists from the live docs once more than half the entries are stale. The rebuild
+     * runs on a background thread without the lock, searches keep using the old table until it's swapped in.
+     */
+    private void compactIfStale() {
+        if (compaction != null || table.totalEntries < 4096 || table.totalEntries < liveEntries * 2) {
+            return;
+        }
+        String[] snapshot = Arrays.copyOf(docs, docCount);
+        int capacity = table.keys.length;
+        addedCount = 0;
+        compaction = Thread.ofPlatform().daemon().name("search-compaction").start(() -> {
+            GramTable rebuilt = new GramTable(capacity);
+            for (int id = 0; id < snapshot.length; id++) {
+                if (snapshot[id] != null) {
+                    rebuilt.appendAll(snapshot[id], id);
+                }
+            }
+            synchronized (this) {
+                // Songs added meanwhile, removals need nothing as search skips IDs whose doc is gone
+                for (int i = 0; i < addedCount; i++) {
+                    int id = addedDuringCompaction[i];
+                    if (docs[id] != null) {
+                        rebuilt.appendAll(docs[id], id);
+                    }
+                }
+                table = rebuilt;
+                compaction = null;
+                addedCount = 0;
+            }
+        });
+    }
+
+    /**
+     * Waits for a compaction running in the background, if there is one
+     */
+    void awaitCompaction() throws InterruptedException {
+        Thread running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running != null) {
+            running.join();
+        }
+    }
+
+    private void ensureDocCapacity(int capacity) {
+        if (capacity > docs.length) {
+            int grown = Math.max(capacity, docs.length * 2);
+            docs = Arrays.copyOf(docs, grown);
+            docEntries = Arrays.copyOf(docEntries, grown);
+            seenStamp = Arrays.copyOf(seenStamp, grown);
+        }
+    }
+}
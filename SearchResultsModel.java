@@ -0,0 +1,35 @@
+// List model over the track IDs of the latest search, refilled in place on every keystroke.
+
+import javax.swing.AbstractListModel;
+
+@SuppressWarnings("serial")
+public class SearchResultsModel extends AbstractListModel<Integer> {
+    final int[] ids = new int[SearchIndex.MAX_RESULTS];
+    private int size = 0;
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Integer getElementAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Called after ids has been filled with the first count results
+     */
+    void setCount(int count) {
+        int old = size;
+        size = count;
+        if (old > count) {
+            fireIntervalRemoved(this, count, old - 1);
+        } else if (count > old) {
+            fireIntervalAdded(this, old, count - 1);
+        }
+        if (Math.min(old, count) > 0) {
+            fireContentsChanged(this, 0, Math.min(old, count) - 1);
+        }
+    }
+}
@@ -4,4 +4,54 @@ public class Song {
     String FilePath;
     String name;
     String playlistName;
+
+    // File size in bytes and last modified time, kept in the library index
+    long size;
+    long lastModified;
+
+    // Stable track ID handed out by SongRegistry, -1 until registered
+    int id = -1;
+
+    // Filled in from the file header by MetadataExtractor, 0/null until then
+    long durationMillis;
+    int sampleRate;
+    int channels;
+    int bitDepth;
+    String title;
+    String artist;
+
+    // Integrated loudness in LUFS and sample peak (1 = full scale) from LoudnessAnalyzer, NaN until analysed
+    float loudness = Float.NaN;
+    float peak;
+
+    /**
+     * Name to show in the UI, "artist - title" if the file has tags, otherwise the file name
+     */
+    String displayName() {
+        if (title == null || title.isEmpty()) {
+            return baseName();
+        }
+        return artist == null || artist.isEmpty() ? title : artist + " - " + title;
+    }
+
+    /**
+     * File name without its extension
+     */
+    String baseName() {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Linear gain that brings the track to the target loudness without clipping its peak, 1 if not analysed
+     */
+    float normalizationGain() {
+        if (Float.isNaN(loudness) || Float.isInfinite(loudness)) {
+            return 1f;
+        }
+        float db = Math.max(LoudnessAnalyzer.MIN_GAIN_DB,
+                Math.min(LoudnessAnalyzer.MAX_GAIN_DB, LoudnessAnalyzer.TARGET_LUFS - loudness));
+        float gain = (float) Math.pow(10, db / 20);
+        return peak > 0 ? Math.min(gain, 1f / peak) : gain;
+    }
 }
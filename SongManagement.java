@@ -2,24 +2,71 @@
 import javax.swing.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class SongManagement {
 
-    // Store multiple playlists
-    HashMap<String, ArrayList<Song>> playlists = new HashMap<>();
-    HashMap<String, DefaultListModel<String>> playlistModels = new HashMap<>();
+    // Store multiple playlists, sorted by name so scans always come out in the same order
+    TreeMap<String, ArrayList<Song>> playlists = new TreeMap<>();
+    // List models are views over the playlists' song lists, rows are track IDs and the
+    // names are looked up when a row is drawn
+    HashMap<String, PlaylistModel> playlistModels = new HashMap<>();
+
+    // Every song in the library by track ID and by path
+    SongRegistry registry = new SongRegistry();
+    // Search over every song in the library, kept in step with the registry
+    SearchIndex searchIndex = new SearchIndex();
 
     // Currently active playlist
     String currentPlaylistName = null;
-    DefaultListModel<String> currentPlaylistModel = new DefaultListModel<>();
-    JList<String> displayedPlaylist = new JList<>(currentPlaylistModel);
+    PlaylistModel currentPlaylistModel = new PlaylistModel(new ArrayList<>());
+    JList<Integer> displayedPlaylist = new JList<>(currentPlaylistModel);
 
     // Base music directory
     String musicDirectory = "/home/nyx/Documents/music/";
 
+    // On-disk index of the playlist folders, so unchanged folders aren't listed again at startup
+    LibraryIndex libraryIndex = new LibraryIndex(
+            new File(System.getProperty("user.home"), ".musicplayer/library.idx"), musicDirectory);
+    boolean indexLoaded = false;
+
+    // Max folders listed at once by the scanner
+    int scanConcurrency = 16;
+
+    // Durations and tags read from file headers, cached by path and mtime
+    MetadataCache metadataCache = new MetadataCache(
+            new File(System.getProperty("user.home"), ".musicplayer/metadata.cache"));
+    MetadataExtractor metadataExtractor = new MetadataExtractor(metadataCache, scanConcurrency);
+    boolean metadataLoaded = false;
+
+    // Loudness of every track, measured in the background after the metadata is in
+    LoudnessAnalyzer loudnessAnalyzer = new LoudnessAnalyzer(metadataCache);
+    volatile boolean normalizeLoudness = true;
+
+    // Waveform peaks for the seek bar, one sidecar file per track
+    WaveformCache waveforms = new WaveformCache(
+            new File(System.getProperty("user.home"), ".musicplayer/waveforms"));
+
+    // Same audio stored more than once across playlists. Few files are read at once, big sequential
+    // reads from a handful of files beat seeking between many.
+    ContentHashCache contentHashes = new ContentHashCache(
+            new File(System.getProperty("user.home"), ".musicplayer/content-hashes.cache"));
+    DuplicateFinder duplicateFinder = new DuplicateFinder(contentHashes, 4);
+
+    // Live updates from the file system
+    LibraryWatcher watcher;
+    // Called on the EDT when playlists are added or removed, so the menu can be rebuilt
+    Runnable playlistsChangedListener;
+    // Set while rows are added/removed in place, selection events fired meanwhile aren't the user's
+    boolean updatingModels = false;
+
     /**
-     * Scans the music directory for folders (playlists) and loads all .wav files
+     * Scans the music directory tree for folders (playlists) and loads all .wav and .flac files.
+     * Folders are walked in parallel, those whose mtime matches the library index are taken from it without listing.
      */
     void scrapeAndADD() {
         File baseDir = new File(musicDirectory);
@@ -29,19 +76,34 @@ public class SongManagement {
             return;
         }
 
-        // Get all subdirectories (each represents a playlist)
-        File[] playlistFolders = baseDir.listFiles(File::isDirectory);
+        if (!indexLoaded) {
+            libraryIndex.load();
+            indexLoaded = true;
+        }
+
+        long start = System.nanoTime();
+        LibraryScanner scanner = new LibraryScanner(musicDirectory, libraryIndex, scanConcurrency);
+        TreeMap<String, ArrayList<Song>> found = scanner.scan();
+        libraryIndex.retainOnly(scanner.getScannedFolders());
+        libraryIndex.save();
 
-        if (playlistFolders != null && playlistFolders.length > 0) {
-            for (File playlistFolder : playlistFolders) {
-                String playlistName = playlistFolder.getName();
-                loadPlaylist(playlistName);
-                System.out.println("Found playlist: " + playlistName);
+        if (!found.isEmpty()) {
+            for (Map.Entry<String, ArrayList<Song>> entry : found.entrySet()) {
+                addPlaylist(entry.getKey(), entry.getValue());
+                System.out.println("Found playlist: " + entry.getKey() + " (" + entry.getValue().size() + " songs)");
+            }
+            System.out.println(String.format("Scanned %d folders in %.1f ms",
+                    scanner.getScannedFolders().size(), (System.nanoTime() - start) / 1e6));
+            ArrayList<Song> all = new ArrayList<>();
+            for (ArrayList<Song> songs : found.values()) {
+                all.addAll(songs);
             }
+            Diagnostics.libraryScanned(scanner.getScannedFolders().size(), all.size(), System.nanoTime() - start);
+            refreshStatsInBackground(scanner.getIndexedSongs(), all);
 
             // Set the first playlist as active by default
             if (!playlists.isEmpty()) {
-                String firstPlaylist = playlists.keySet().iterator().next();
+                String firstPlaylist = playlists.firstKey();
                 switchToPlaylist(firstPlaylist);
             }
         } else {
@@ -60,29 +122,26 @@ public class SongManagement {
             return;
         }
 
-        // Get all .wav files in the playlist folder
-        File[] wavFiles = playlistFolder.listFiles((dir, name) ->
-                name.toLowerCase().endsWith(".wav"));
-
-        ArrayList<Song> songs = new ArrayList<>();
-        DefaultListModel<String> model = new DefaultListModel<>();
-
-        if (wavFiles != null) {
-            for (File file : wavFiles) {
-                Song song = new Song();
-                song.FilePath = file.getAbsolutePath();
-                song.name = file.getName();
-                song.playlistName = playlistName;
+        // Get all .wav and .flac files in the playlist folder
+        ArrayList<Song> songs = LibraryScanner.listFolder(playlistName, playlistFolder).songs;
+        for (Song song : songs) {
+            System.out.println("  Found file: " + song.name);
+        }
 
-                songs.add(song);
-                model.addElement(file.getName());
+        addPlaylist(playlistName, songs);
+    }
 
-                System.out.println("  Found file: " + file.getName());
-            }
+    /**
+     * Registers a playlist and wraps it in a list model, in bulk with no per-row events
+     */
+    void addPlaylist(String playlistName, ArrayList<Song> songs) {
+        for (Song song : songs) {
+            registry.register(song);
+            searchIndex.add(song);
         }
 
         playlists.put(playlistName, songs);
-        playlistModels.put(playlistName, model);
+        playlistModels.put(playlistName, new PlaylistModel(songs));
     }
 
     /**
@@ -116,33 +175,264 @@ public class SongManagement {
     }
 
     /**
-     * Gets the full file path for a song in the current playlist
+     * Gets a song by its track ID
+     */
+    Song getSong(int id) {
+        return registry.get(id);
+    }
+
+    /**
+     * Gets the full file path for a track ID
+     */
+    String getSongPath(int id) {
+        Song song = registry.get(id);
+        return song == null ? null : song.FilePath;
+    }
+
+    /**
+     * Gets the full file path of the song at a row of the current playlist, null past either end
      */
-    String getSongPath(String songName) {
-        if (currentPlaylistName == null) {
+    String getSongPathAt(int row) {
+        if (row < 0 || row >= currentPlaylistModel.getSize()) {
             return null;
         }
+        return currentPlaylistModel.getSongAt(row).FilePath;
+    }
+
+    /**
+     * Gets the row of a track in the current playlist, -1 if it isn't there.
+     * The expected row is checked first so following playback never scans the list.
+     */
+    int indexOfSong(int id, int expectedRow) {
+        if (expectedRow >= 0 && expectedRow < currentPlaylistModel.getSize()
+                && currentPlaylistModel.getSongAt(expectedRow).id == id) {
+            return expectedRow;
+        }
+        return currentPlaylistModel.indexOf(id);
+    }
 
-        ArrayList<Song> songs = playlists.get(currentPlaylistName);
-        if (songs != null) {
+    /**
+     * Starts watching the music directory, changed folders are applied to the models as they happen
+     */
+    void startWatching() {
+        try {
+            watcher = new LibraryWatcher(this);
+            watcher.start();
+        } catch (IOException ex) {
+            System.err.println("Could not watch music directory: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Applies a batch of re-listed and deleted folders from the watcher. Runs on the EDT.
+     */
+    void applyFolderChanges(Map<String, LibraryIndex.Folder> listed, Collection<String> removed) {
+        boolean playlistsChanged = false;
+
+        for (String folderName : removed) {
+            String prefix = folderName + File.separator;
+            Iterator<String> names = playlists.keySet().iterator();
+            while (names.hasNext()) {
+                String name = names.next();
+                if (name.equals(folderName) || name.startsWith(prefix)) {
+                    unregister(playlists.get(name));
+                    names.remove();
+                    playlistModels.remove(name);
+                    playlistsChanged = true;
+                }
+            }
+        }
+
+        ArrayList<Song> relisted = new ArrayList<>();
+        for (Map.Entry<String, LibraryIndex.Folder> entry : listed.entrySet()) {
+            String name = entry.getKey();
+            ArrayList<Song> songs = entry.getValue().songs;
+            boolean topLevel = !name.isEmpty() && !name.contains(File.separator);
+
+            if (topLevel || (!name.isEmpty() && !songs.isEmpty())) {
+                if (!playlists.containsKey(name)) {
+                    playlistsChanged = true;
+                }
+                updatePlaylist(name, songs);
+                relisted.addAll(songs);
+            } else if (playlists.containsKey(name)) {
+                unregister(playlists.remove(name));
+                playlistModels.remove(name);
+                playlistsChanged = true;
+            }
+        }
+
+        if (!relisted.isEmpty()) {
+            extractMetadata(relisted);
+        }
+
+        if (playlistsChanged) {
+            if (currentPlaylistName != null && !playlists.containsKey(currentPlaylistName)) {
+                currentPlaylistName = null;
+                currentPlaylistModel = new PlaylistModel(new ArrayList<>());
+                displayedPlaylist.setModel(currentPlaylistModel);
+                if (!playlists.isEmpty()) {
+                    switchToPlaylist(playlists.firstKey());
+                }
+            }
+            if (playlistsChangedListener != null) {
+                playlistsChangedListener.run();
+            }
+        }
+    }
+
+    /**
+     * Re-stats the songs taken from the library index on a low priority thread, then reads metadata for
+     * every song. The metadata cache is keyed on the mtime, so it has to wait for the fresh one.
+     */
+    void refreshStatsInBackground(Collection<Song> indexed, Collection<Song> songs) {
+        Thread thread = new Thread(() -> {
+            if (LibraryScanner.refreshStats(indexed)) {
+                libraryIndex.markDirty();
+                libraryIndex.save();
+            }
+            extractMetadata(songs);
+        }, "library-restat");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Reads durations and tags for the songs in the background, then re-indexes them for search
+     * and repaints the list. Called from the EDT and the re-stat thread.
+     */
+    synchronized void extractMetadata(Collection<Song> songs) {
+        if (!metadataLoaded) {
+            metadataCache.load();
+            metadataLoaded = true;
+        }
+        metadataExtractor.extractInBackground(songs, () -> {
             for (Song song : songs) {
-                if (song.name.equals(songName)) {
-                    return song.FilePath;
+                // Skip songs removed or replaced while the extractor ran
+                if (registry.get(song.id) == song) {
+                    searchIndex.add(song);
                 }
             }
+            SwingUtilities.invokeLater(displayedPlaylist::repaint);
+            loudnessAnalyzer.analyzeInBackground(songs);
+        });
+    }
+
+    /**
+     * Gain that normalizes a file's loudness, 1 if normalization is off or the file isn't analysed yet.
+     * Called from the audio thread at track changes.
+     */
+    double normalizationGain(String filePath) {
+        if (!normalizeLoudness) {
+            return 1.0;
         }
+        Song song = registry.get(registry.idForPath(filePath));
+        return song == null ? 1.0 : song.normalizationGain();
+    }
+
+    /**
+     * Searches the whole library, fills results with track IDs and returns how many there are
+     */
+    int search(String query, int[] results) {
+        return searchIndex.search(query, results);
+    }
+
+    private void unregister(ArrayList<Song> songs) {
+        for (Song song : songs) {
+            registry.remove(song);
+            searchIndex.remove(song);
+        }
+    }
+
+    /**
+     * Brings a playlist in line with a fresh listing, only the rows that changed are touched.
+     * Both lists are sorted by name so this is a single merge pass.
+     */
+    void updatePlaylist(String playlistName, ArrayList<Song> fresh) {
+        ArrayList<Song> songs = playlists.get(playlistName);
+        PlaylistModel model = playlistModels.get(playlistName);
+        if (songs == null || model == null) {
+            addPlaylist(playlistName, fresh);
+            return;
+        }
+
+        updatingModels = true;
+        try {
+            int i = 0;
+            int j = 0;
+            while (i < songs.size() || j < fresh.size()) {
+                int cmp;
+                if (i >= songs.size()) {
+                    cmp = 1;
+                } else if (j >= fresh.size()) {
+                    cmp = -1;
+                } else {
+                    cmp = songs.get(i).name.compareTo(fresh.get(j).name);
+                }
 
-        return null;
+                if (cmp < 0) {
+                    // Gone from disk
+                    Song gone = model.remove(i);
+                    registry.remove(gone);
+                    searchIndex.remove(gone);
+                } else if (cmp > 0) {
+                    // New file
+                    registry.register(fresh.get(j));
+                    searchIndex.add(fresh.get(j));
+                    model.add(i, fresh.get(j));
+                    i++;
+                    j++;
+                } else {
+                    // Same file, keep its Song (and with it the track ID and metadata) but take the new size/mtime.
+                    // The fresh listing gets the kept Song too, so metadata is re-read into the one that's shown.
+                    Song kept = songs.get(i);
+                    Song listed = fresh.get(j);
+                    if (kept.size != listed.size || kept.lastModified != listed.lastModified) {
+                        kept.size = listed.size;
+                        kept.lastModified = listed.lastModified;
+                        model.set(i, kept);
+                    }
+                    fresh.set(j, kept);
+                    i++;
+                    j++;
+                }
+            }
+        } finally {
+            updatingModels = false;
+        }
     }
 
     /**
-     * Reloads all playlists from disk
+     * Re-checks every folder against the library index off the EDT, then applies what changed in place.
+     * The current playlist and selection are kept.
      */
     void refreshPlaylists() {
-        playlists.clear();
-        playlistModels.clear();
-        currentPlaylistModel.clear();
-        currentPlaylistName = null;
-        scrapeAndADD();
+        new Thread(() -> {
+            long start = System.nanoTime();
+            LibraryScanner scanner = new LibraryScanner(musicDirectory, libraryIndex, scanConcurrency);
+            TreeMap<String, ArrayList<Song>> found = scanner.scan();
+            libraryIndex.retainOnly(scanner.getScannedFolders());
+            if (LibraryScanner.refreshStats(scanner.getIndexedSongs())) {
+                libraryIndex.markDirty();
+            }
+            libraryIndex.save();
+
+            TreeMap<String, LibraryIndex.Folder> listed = new TreeMap<>();
+            int files = 0;
+            for (Map.Entry<String, ArrayList<Song>> entry : found.entrySet()) {
+                LibraryIndex.Folder folder = new LibraryIndex.Folder();
+                folder.songs = entry.getValue();
+                listed.put(entry.getKey(), folder);
+                files += folder.songs.size();
+            }
+            Diagnostics.libraryScanned(scanner.getScannedFolders().size(), files, System.nanoTime() - start);
+
+            SwingUtilities.invokeLater(() -> {
+                ArrayList<String> removed = new ArrayList<>(playlists.keySet());
+                removed.removeAll(found.keySet());
+                applyFolderChanges(listed, removed);
+            });
+        }, "library-refresh").start();
     }
-}
\ No newline at end of file
+}
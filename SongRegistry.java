@@ -0,0 +1,70 @@
+// Every song in the library under a stable integer track ID, with constant-time lookup by ID and by path.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class SongRegistry {
+    // Track ID -> song, IDs are slots in this list and never reused while the app runs
+    private final ArrayList<Song> byId = new ArrayList<>();
+    private final HashMap<String, Integer> byPath = new HashMap<>();
+
+    /**
+     * Gives the song a track ID. A path seen before keeps its old ID, so rescans don't renumber anything.
+     */
+    synchronized int register(Song song) {
+        Integer id = byPath.get(song.FilePath);
+        if (id == null) {
+            id = byId.size();
+            byId.add(song);
+            byPath.put(song.FilePath, id);
+        } else {
+            byId.set(id, song);
+        }
+        song.id = id;
+        return id;
+    }
+
+    /**
+     * Forgets a song that was removed from disk, its ID stays retired
+     */
+    synchronized void remove(Song song) {
+        Integer id = byPath.remove(song.FilePath);
+        if (id != null) {
+            byId.set(id, null);
+        }
+    }
+
+    synchronized Song get(int id) {
+        if (id < 0 || id >= byId.size()) {
+            return null;
+        }
+        return byId.get(id);
+    }
+
+    /**
+     * Gets the track ID for a full file path, -1 if it isn't in the library
+     */
+    synchronized int idForPath(String filePath) {
+        Integer id = byPath.get(filePath);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Every track ID in the library, for playing the whole thing
+     */
+    synchronized int[] liveIds() {
+        int[] ids = new int[byPath.size()];
+        int count = 0;
+        for (int id = 0; id < byId.size() && count < ids.length; id++) {
+            if (byId.get(id) != null) {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    synchronized int size() {
+        return byPath.size();
+    }
+}
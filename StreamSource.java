@@ -0,0 +1,113 @@
+// Streams PCM frames from a file on disk without ever holding the whole track in memory.
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+
+public class StreamSource implements PcmSource {
+    private final File file;
+
+    // Format as stored in the file, and the format we hand to the output line.
+    // They only differ when the mixer can't take the file format directly (e.g. 24-bit or float).
+    private final AudioFormat fileFormat;
+    private final AudioFormat format;
+    private final long frameLength;
+
+    private AudioInputStream stream;
+    private long framePosition = 0;
+
+    StreamSource(String filePath) throws IOException, UnsupportedAudioFileException {
+        file = new File(filePath);
+        AudioInputStream raw = AudioSystem.getAudioInputStream(file);
+        fileFormat = raw.getFormat();
+        frameLength = raw.getFrameLength();
+        format = playableFormat(fileFormat);
+        stream = wrap(raw);
+    }
+
+    /**
+     * Picks the format to play in, falling back to 16-bit signed PCM if the mixer can't take the original
+     */
+    static AudioFormat playableFormat(AudioFormat original) {
+        if (AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, original))) {
+            return original;
+        }
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                original.getSampleRate(), 16, original.getChannels(),
+                original.getChannels() * 2, original.getSampleRate(), false);
+    }
+
+    private AudioInputStream wrap(AudioInputStream raw) {
+        if (format.matches(fileFormat)) {
+            return raw;
+        }
+        return AudioSystem.getAudioInputStream(format, raw);
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int frameSize = format.getFrameSize();
+        int n = stream.read(buffer, offset, length - (length % frameSize));
+        if (n > 0) {
+            framePosition += n / frameSize;
+        }
+        return n;
+    }
+
+    /**
+     * Seeks by skipping forward in the open stream, or reopening the file for backward seeks.
+     * Skipping on the raw file stream is a file seek so it costs the same wherever we land.
+     */
+    @Override
+    public void seekFrame(long frame) throws IOException {
+        if (frame < 0) {
+            frame = 0;
+        } else if (frameLength != AudioSystem.NOT_SPECIFIED && frame > frameLength) {
+            frame = frameLength;
+        }
+
+        if (frame >= framePosition && stream.getFormat().matches(fileFormat)) {
+            skipFully(stream, (frame - framePosition) * fileFormat.getFrameSize());
+        } else {
+            stream.close();
+            try {
+                AudioInputStream raw = AudioSystem.getAudioInputStream(file);
+                skipFully(raw, frame * fileFormat.getFrameSize());
+                stream = wrap(raw);
+            } catch (UnsupportedAudioFileException ex) {
+                throw new IOException("Could not reopen " + file, ex);
+            }
+        }
+        framePosition = frame;
+    }
+
+    private static void skipFully(AudioInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                break;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -0,0 +1,127 @@
+// Parses the RIFF/WAVE header once: where the fmt and data chunks are and what's in fmt.
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+public class WavHeader {
+    static final int WAVE_FORMAT_PCM = 1;
+    static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    int formatTag;
+    int channels;
+    int sampleRate;
+    int blockAlign;
+    int bitsPerSample;
+
+    // Byte offset and length of the PCM data chunk
+    long dataOffset;
+    long dataLength;
+
+    // Other chunks we might want later (metadata), -1 if not present
+    long listOffset = -1;
+    long listLength;
+    long id3Offset = -1;
+    long id3Length;
+
+    /**
+     * Walks the chunk list with small positioned reads, only the chunk headers are read
+     */
+    static WavHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        long fileSize = channel.size();
+
+        readFully(channel, buf, 0, 12);
+        if (buf.getInt(0) != 0x46464952 || buf.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+
+        WavHeader header = new WavHeader();
+        boolean haveFormat = false;
+        long pos = 12;
+        while (pos + 8 <= fileSize) {
+            readFully(channel, buf, pos, 8);
+            int id = buf.getInt(0);
+            long size = buf.getInt(4) & 0xFFFFFFFFL;
+            long body = pos + 8;
+
+            if (id == 0x20746D66) { // "fmt "
+                readFully(channel, buf, body, (int) Math.min(size, 40));
+                header.formatTag = buf.getShort(0) & 0xFFFF;
+                header.channels = buf.getShort(2) & 0xFFFF;
+                header.sampleRate = buf.getInt(4);
+                header.blockAlign = buf.getShort(12) & 0xFFFF;
+                header.bitsPerSample = buf.getShort(14) & 0xFFFF;
+                if (header.formatTag == WAVE_FORMAT_EXTENSIBLE && size >= 26) {
+                    // The real format tag is the first two bytes of the sub-format GUID
+                    header.formatTag = buf.getShort(24) & 0xFFFF;
+                }
+                haveFormat = true;
+            } else if (id == 0x61746164) { // "data"
+                header.dataOffset = body;
+                // Streamed/unfinished files can have a bogus size, trust the file length instead
+                header.dataLength = (size == 0 || size == 0xFFFFFFFFL || body + size > fileSize) ? fileSize - body : size;
+                size = header.dataLength;
+            } else if (id == 0x5453494C) { // "LIST"
+                header.listOffset = body;
+                header.listLength = size;
+            } else if (id == 0x20336469 || id == 0x33444920) { // "id3 " / "ID3 "
+                header.id3Offset = body;
+                header.id3Length = size;
+            }
+
+            // Chunks are padded to an even length
+            pos = body + size + (size & 1);
+        }
+
+        if (!haveFormat || header.dataOffset == 0) {
+            throw new IOException("WAV file has no fmt or data chunk");
+        }
+        if (header.blockAlign == 0) {
+            header.blockAlign = header.channels * ((header.bitsPerSample + 7) / 8);
+        }
+        return header;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear().limit(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of WAV header");
+            }
+        }
+    }
+
+    long getFrameLength() {
+        return dataLength / blockAlign;
+    }
+
+    /**
+     * Byte offset of a frame, always on a frame boundary
+     */
+    long offsetOfFrame(long frame) {
+        return dataOffset + Math.max(0, Math.min(frame, getFrameLength())) * blockAlign;
+    }
+
+    boolean isFloat() {
+        return formatTag == WAVE_FORMAT_IEEE_FLOAT;
+    }
+
+    /**
+     * The file's own sample format as a Java Sound format, null if it isn't PCM or float
+     */
+    AudioFormat toAudioFormat() {
+        if (formatTag == WAVE_FORMAT_PCM) {
+            // 8-bit WAV is unsigned, everything wider is signed
+            AudioFormat.Encoding encoding = bitsPerSample <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+            return new AudioFormat(encoding, sampleRate, bitsPerSample, channels, blockAlign, sampleRate, false);
+        }
+        if (formatTag == WAVE_FORMAT_IEEE_FLOAT) {
+            return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, bitsPerSample, channels, blockAlign, sampleRate, false);
+        }
+        return null;
+    }
+}
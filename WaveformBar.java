@@ -0,0 +1,198 @@
+// Seek bar drawn from a track's waveform peaks, the played part in the accent colour.
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+@SuppressWarnings("serial")
+public class WaveformBar extends JComponent {
+    interface SeekListener {
+        /**
+         * fraction is 0..1 of the track, adjusting is true until the mouse is released
+         */
+        void seek(double fraction, boolean adjusting);
+    }
+
+    static final Color BACKGROUND = new Color(24, 24, 27);
+    static final Color PLAYED = new Color(70, 130, 180);
+    static final Color UNPLAYED = new Color(90, 90, 96);
+    static final Color CURSOR = new Color(220, 220, 220);
+
+    private WaveformPeaks peaks;
+    private SeekListener seekListener;
+    private boolean adjusting = false;
+
+    // Position in pixels, so repaints only happen when the played part actually grows
+    private double fraction = 0;
+    private int shownColumn = -1;
+
+    // Per-column peaks for the current width, rebuilt only when the width or the peaks change.
+    // Grown, never shrunk, so resizing back and forth doesn't allocate.
+    private int[] columnMin = new int[0];
+    private int[] columnMax = new int[0];
+    private int columnsFor = -1;
+
+    WaveformBar() {
+        setPreferredSize(new Dimension(200, 36));
+        setMinimumSize(new Dimension(50, 20));
+        setOpaque(true);
+        setCursor(new Cursor(Cursor.HAND_CURSOR));
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                adjusting = true;
+                seekTo(e.getX(), true);
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (adjusting) {
+                    seekTo(e.getX(), true);
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (adjusting) {
+                    adjusting = false;
+                    seekTo(e.getX(), false);
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    void setSeekListener(SeekListener seekListener) {
+        this.seekListener = seekListener;
+    }
+
+    /**
+     * Shows these peaks, null for a plain bar while they're being built
+     */
+    void setPeaks(WaveformPeaks peaks) {
+        if (this.peaks == peaks) {
+            return;
+        }
+        this.peaks = peaks;
+        columnsFor = -1;
+        repaint();
+    }
+
+    WaveformPeaks getPeaks() {
+        return peaks;
+    }
+
+    boolean isAdjusting() {
+        return adjusting;
+    }
+
+    /**
+     * Moves the played part to fraction of the track. Ignored while the user is dragging.
+     */
+    void setPosition(double fraction) {
+        if (adjusting) {
+            return;
+        }
+        showPosition(fraction);
+    }
+
+    private void showPosition(double fraction) {
+        this.fraction = Math.max(0, Math.min(1, fraction));
+        int column = (int) (this.fraction * getWidth());
+        if (column != shownColumn) {
+            int previous = shownColumn;
+            shownColumn = column;
+            if (previous < 0) {
+                repaint();
+            } else {
+                // Just the columns that changed colour plus both cursor positions
+                int from = Math.min(previous, column) - 1;
+                repaint(from, 0, Math.abs(column - previous) + 3, getHeight());
+            }
+        }
+    }
+
+    private void seekTo(int x, boolean adjusting) {
+        int width = getWidth();
+        if (width <= 0) {
+            return;
+        }
+        double seekFraction = Math.max(0, Math.min(1, x / (double) width));
+        showPosition(seekFraction);
+        if (seekListener != null) {
+            seekListener.seek(seekFraction, adjusting);
+        }
+    }
+
+    /**
+     * Folds the peaks down to one min/max per column from the coarsest level with enough buckets,
+     * so a multi-hour file costs about as much as a short one
+     */
+    private void buildColumns(int width) {
+        if (columnMin.length < width) {
+            columnMin = new int[width];
+            columnMax = new int[width];
+        }
+        columnsFor = width;
+
+        int level = peaks.levelFor(width);
+        byte[] mins = peaks.min[level];
+        byte[] maxs = peaks.max[level];
+        int buckets = mins.length;
+        for (int c = 0; c < width; c++) {
+            int from = (int) ((long) c * buckets / width);
+            int to = Math.max(from + 1, (int) ((long) (c + 1) * buckets / width));
+            int lo = 0;
+            int hi = 0;
+            for (int b = from; b < Math.min(to, buckets); b++) {
+                lo = Math.min(lo, mins[b]);
+                hi = Math.max(hi, maxs[b]);
+            }
+            columnMin[c] = lo;
+            columnMax[c] = hi;
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width, height);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        int played = (int) (fraction * width);
+        shownColumn = played;
+        int middle = height / 2;
+
+        if (peaks == null || peaks.min[0].length == 0) {
+            g.setColor(UNPLAYED);
+            g.fillRect(0, middle - 1, width, 2);
+            g.setColor(PLAYED);
+            g.fillRect(0, middle - 1, played, 2);
+        } else {
+            if (columnsFor != width) {
+                buildColumns(width);
+            }
+            // Only the columns inside the clip, a position update repaints a sliver
+            Rectangle clip = g.getClipBounds();
+            int from = clip == null ? 0 : Math.max(0, clip.x);
+            int to = clip == null ? width : Math.min(width, clip.x + clip.width);
+            double scale = (height - 2) / 254.0;
+            for (int c = from; c < to; c++) {
+                g.setColor(c < played ? PLAYED : UNPLAYED);
+                int top = middle - (int) Math.round(columnMax[c] * scale);
+                int bottom = middle - (int) Math.round(columnMin[c] * scale);
+                g.drawLine(c, top, c, Math.max(top, bottom));
+            }
+        }
+
+        g.setColor(CURSOR);
+        g.drawLine(Math.min(played, width - 1), 0, Math.min(played, width - 1), height - 1);
+    }
+}
@@ -0,0 +1,114 @@
+// Hands out waveform peaks for tracks: from the sidecar cache if it's current, otherwise generated
+// on a background thread and saved for next time. Results are delivered on the EDT.
+
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+public class WaveformCache {
+    // Peaks kept in memory for the last few tracks, a multi-hour file is a few MB
+    static final int MEMORY_ENTRIES = 8;
+
+    private final File directory;
+    private final ExecutorService workers = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "waveform");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    // Paths being loaded or generated and who's waiting for them, so asking twice doesn't do the work
+    // twice. Only touched on the EDT.
+    private final HashMap<String, ArrayList<Consumer<WaveformPeaks>>> pending = new HashMap<>();
+    // Access-ordered, only touched on the EDT
+    private final LinkedHashMap<String, WaveformPeaks> recent = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WaveformPeaks> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    WaveformCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the peaks for a file. Calls back straight away if they're in memory, otherwise later on the EDT
+     * once loaded or generated. Call from the EDT.
+     */
+    void request(String filePath, Consumer<WaveformPeaks> callback) {
+        WaveformPeaks peaks = recent.get(filePath);
+        if (peaks != null) {
+            callback.accept(peaks);
+            return;
+        }
+        load(filePath, callback);
+    }
+
+    /**
+     * Makes sure the file has peaks on disk, for the track that's up next
+     */
+    void prefetch(String filePath) {
+        if (filePath != null && !recent.containsKey(filePath)) {
+            load(filePath, null);
+        }
+    }
+
+    private void load(String filePath, Consumer<WaveformPeaks> callback) {
+        // Asking again while it's being built just adds to who gets told
+        ArrayList<Consumer<WaveformPeaks>> callbacks = pending.get(filePath);
+        if (callbacks != null) {
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+            return;
+        }
+        callbacks = new ArrayList<>(1);
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+        pending.put(filePath, callbacks);
+
+        workers.execute(() -> {
+            WaveformPeaks peaks = null;
+            try {
+                File file = new File(filePath);
+                long lastModified = file.lastModified();
+                long size = file.length();
+                File sidecar = sidecarFor(filePath);
+
+                peaks = WaveformPeaks.load(sidecar, filePath, lastModified, size);
+                if (peaks == null) {
+                    long start = System.nanoTime();
+                    peaks = WaveformPeaks.generate(filePath);
+                    peaks.save(sidecar, filePath, lastModified, size);
+                    System.out.println(String.format("Waveform for %s in %.1f ms", file.getName(), (System.nanoTime() - start) / 1e6));
+                }
+            } catch (Exception ex) {
+                System.err.println("Could not build waveform for " + filePath + ": " + ex.getMessage());
+            }
+
+            WaveformPeaks result = peaks;
+            SwingUtilities.invokeLater(() -> {
+                if (result != null) {
+                    recent.put(filePath, result);
+                }
+                for (Consumer<WaveformPeaks> waiting : pending.remove(filePath)) {
+                    waiting.accept(result);
+                }
+            });
+        });
+    }
+
+    private File sidecarFor(String filePath) {
+        UUID key = UUID.nameUUIDFromBytes(filePath.getBytes(StandardCharsets.UTF_8));
+        return new File(directory, key + ".peaks");
+    }
+}
@@ -0,0 +1,206 @@
+// Min/max peak summary of a track at a few zoom levels, built in one streaming pass and kept in a binary sidecar.
+
+import javax.sound.sampled.AudioFormat;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+public class WaveformPeaks {
+    static final int MAGIC = 0x4D505746; // "MPWF"
+    static final int VERSION = 1;
+
+    // Frames per bucket at each level, finest first. Each level is 8x coarser so whatever the width,
+    // some level has between 1 and 8 buckets per pixel column.
+    static final int[] FRAMES_PER_BUCKET = {256, 2048, 16384, 131072};
+
+    long frameLength;
+    float sampleRate;
+    // [level][bucket], -127..127 of full scale, the loudest channel in each bucket
+    byte[][] min = new byte[FRAMES_PER_BUCKET.length][];
+    byte[][] max = new byte[FRAMES_PER_BUCKET.length][];
+
+    int levels() {
+        return FRAMES_PER_BUCKET.length;
+    }
+
+    /**
+     * Coarsest level that still has at least one bucket per column, the finest if none does
+     */
+    int levelFor(int columns) {
+        for (int level = levels() - 1; level > 0; level--) {
+            if (min[level].length >= columns) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the whole file once through PcmSource, a buffer at a time. The coarser levels are
+     * folded from the finest one afterwards, the file isn't read again.
+     */
+    static WaveformPeaks generate(String filePath) throws Exception {
+        try (PcmSource source = PcmSource.open(filePath)) {
+            AudioFormat format = source.getFormat();
+            if (!DspChain.supports(format)) {
+                throw new IllegalArgumentException("Unsupported format " + format);
+            }
+            int channels = format.getChannels();
+            int bytesPerSample = format.getSampleSizeInBits() / 8;
+            int bucketFrames = FRAMES_PER_BUCKET[0];
+
+            long expected = source.getFrameLength();
+            int capacity = expected > 0 ? (int) Math.min(Integer.MAX_VALUE - 8, expected / bucketFrames + 1) : 1024;
+            byte[] mins = new byte[capacity];
+            byte[] maxs = new byte[capacity];
+            int buckets = 0;
+
+            float bucketMin = 0;
+            float bucketMax = 0;
+            int inBucket = 0;
+            long frames = 0;
+
+            byte[] bytes = new byte[AudioController.BUFFER_BYTES];
+            float[] samples = new float[AudioController.BUFFER_BYTES];
+            int n;
+            while ((n = source.read(bytes, 0, bytes.length)) > 0) {
+                int count = n / bytesPerSample / channels;
+                DspChain.decode(bytes, 0, count * channels, format, samples);
+                int i = 0;
+                for (int f = 0; f < count; f++) {
+                    for (int c = 0; c < channels; c++, i++) {
+                        float v = samples[i];
+                        if (v < bucketMin) {
+                            bucketMin = v;
+                        }
+                        if (v > bucketMax) {
+                            bucketMax = v;
+                        }
+                    }
+                    if (++inBucket == bucketFrames) {
+                        if (buckets == mins.length) {
+                            mins = Arrays.copyOf(mins, buckets * 2);
+                            maxs = Arrays.copyOf(maxs, buckets * 2);
+                        }
+                        mins[buckets] = quantize(bucketMin);
+                        maxs[buckets] = quantize(bucketMax);
+                        buckets++;
+                        bucketMin = 0;
+                        bucketMax = 0;
+                        inBucket = 0;
+                    }
+                }
+                frames += count;
+            }
+            if (inBucket > 0) {
+                if (buckets == mins.length) {
+                    mins = Arrays.copyOf(mins, buckets + 1);
+                    maxs = Arrays.copyOf(maxs, buckets + 1);
+                }
+                mins[buckets] = quantize(bucketMin);
+                maxs[buckets] = quantize(bucketMax);
+                buckets++;
+            }
+
+            WaveformPeaks peaks = new WaveformPeaks();
+            peaks.frameLength = frames;
+            peaks.sampleRate = format.getSampleRate();
+            peaks.min[0] = Arrays.copyOf(mins, buckets);
+            peaks.max[0] = Arrays.copyOf(maxs, buckets);
+            for (int level = 1; level < peaks.levels(); level++) {
+                peaks.fold(level);
+            }
+            return peaks;
+        }
+    }
+
+    private void fold(int level) {
+        int ratio = FRAMES_PER_BUCKET[level] / FRAMES_PER_BUCKET[level - 1];
+        byte[] finerMin = min[level - 1];
+        byte[] finerMax = max[level - 1];
+        int count = (finerMin.length + ratio - 1) / ratio;
+        min[level] = new byte[count];
+        max[level] = new byte[count];
+        for (int b = 0; b < count; b++) {
+            byte lo = 0;
+            byte hi = 0;
+            for (int i = b * ratio; i < Math.min(finerMin.length, (b + 1) * ratio); i++) {
+                lo = (byte) Math.min(lo, finerMin[i]);
+                hi = (byte) Math.max(hi, finerMax[i]);
+            }
+            min[level][b] = lo;
+            max[level][b] = hi;
+        }
+    }
+
+    private static byte quantize(float v) {
+        return (byte) Math.max(-127, Math.min(127, Math.round(v * 127)));
+    }
+
+    /**
+     * Loads a sidecar, null if it's missing, unreadable or for another version of the file
+     */
+    static WaveformPeaks load(File file, String filePath, long lastModified, long size) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(filePath)
+                    || in.readLong() != lastModified || in.readLong() != size) {
+                return null;
+            }
+            WaveformPeaks peaks = new WaveformPeaks();
+            peaks.frameLength = in.readLong();
+            peaks.sampleRate = in.readFloat();
+            if (in.readInt() != peaks.levels()) {
+                return null;
+            }
+            for (int level = 0; level < peaks.levels(); level++) {
+                int count = in.readInt();
+                peaks.min[level] = new byte[count];
+                peaks.max[level] = new byte[count];
+                in.readFully(peaks.min[level]);
+                in.readFully(peaks.max[level]);
+            }
+            return peaks;
+        } catch (IOException ex) {
+            System.err.println("Could not read waveform " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    void save(File file, String filePath, long lastModified, long size) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create waveform directory: " + dir);
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(filePath);
+            out.writeLong(lastModified);
+            out.writeLong(size);
+            out.writeLong(frameLength);
+            out.writeFloat(sampleRate);
+            out.writeInt(levels());
+            for (int level = 0; level < levels(); level++) {
+                out.writeInt(min[level].length);
+                out.write(min[level]);
+                out.write(max[level]);
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not write waveform " + file + ": " + ex.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.err.println("Could not replace waveform " + file + ": " + ex.getMessage());
+            tmp.delete();
+        }
+    }
+}
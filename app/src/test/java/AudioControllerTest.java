@@ -0,0 +1,102 @@
+// Engine thread and command queue: nothing runs until start(), listeners hear from the engine thread, and a burst
+// of commands only acts on the last track change. Uses missing files so no audio device is needed.
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioControllerTest {
+    @TempDir
+    Path dir;
+
+    private final AudioController controller = new AudioController();
+    // What the listener heard, "event path thread"
+    private final LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    AudioControllerTest() {
+        controller.addListener(new AudioListener() {
+            @Override
+            public void trackStarted(String filePath) {
+                events.add("started " + filePath + " " + Thread.currentThread().getName());
+            }
+
+            @Override
+            public void stopped() {
+                events.add("stopped - " + Thread.currentThread().getName());
+            }
+
+            @Override
+            public void error(String filePath, Exception ex) {
+                events.add("error " + filePath + " " + Thread.currentThread().getName());
+            }
+        });
+    }
+
+    @AfterEach
+    void closeController() throws Exception {
+        controller.close();
+        Thread engine = Diagnostics.audioThread;
+        if (engine != null) {
+            engine.join(5000);
+            assertFalse(engine.isAlive());
+        }
+    }
+
+    private String missing(String name) {
+        return dir.resolve(name).toString();
+    }
+
+    private String nextEvent() throws InterruptedException {
+        return events.poll(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void commandsWaitForStart() throws Exception {
+        controller.playSound(missing("a.wav"));
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+
+        controller.start();
+        assertEquals("error " + missing("a.wav") + " audio-engine", nextEvent());
+    }
+
+    @Test
+    void burstOfPlaysOnlyOpensTheLast() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            controller.playSound(missing(i + ".flac"));
+        }
+        controller.start();
+        assertEquals("error " + missing("19.flac") + " audio-engine", nextEvent());
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void stopAfterPlayDropsThePlay() throws Exception {
+        controller.playSound(missing("a.wav"));
+        controller.stop();
+        controller.start();
+        assertEquals("stopped - audio-engine", nextEvent());
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void unsupportedFilesAreNeverSent() throws Exception {
+        controller.start();
+        controller.playSound(missing("a.mp3"));
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void startTwiceKeepsOneEngineThread() {
+        controller.start();
+        Thread engine = Diagnostics.audioThread;
+        controller.start();
+        assertSame(engine, Diagnostics.audioThread);
+        assertTrue(engine.isAlive());
+    }
+}
@@ -0,0 +1,153 @@
+// Crossfade mixing: both sides follow the curve through the overlap, and the incoming track ends at full level
+// even when the outgoing one runs out early.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrossfaderTest {
+    static final AudioFormat STEREO_16 = new AudioFormat(TestAudio.SAMPLE_RATE, 16, 2, true, false);
+    static final int FADE_FRAMES = 8000;
+
+    @TempDir
+    Path dir;
+
+    private static int[][] constantSamples(int frames, int level) {
+        int[][] samples = new int[2][frames];
+        Arrays.fill(samples[0], level);
+        Arrays.fill(samples[1], level);
+        return samples;
+    }
+
+    private static short sampleAt(byte[] pcm, int index) {
+        return (short) ((pcm[2 * index + 1] << 8) | (pcm[2 * index] & 0xFF));
+    }
+
+    /**
+     * The outgoing track: a WAV at a constant level
+     */
+    private PcmSource outgoing(int frames, int level) throws Exception {
+        Path file = dir.resolve("out" + frames + "_" + level + ".wav");
+        TestAudio.writeWav(file, constantSamples(frames, level), 16, null);
+        return PcmSource.open(file.toString());
+    }
+
+    /**
+     * Mixes frames of the incoming level in buffers of 1000 frames, returns the left channel
+     */
+    private static short[] mix(Crossfader fader, int frames, int level) {
+        short[] left = new short[frames];
+        for (int at = 0; at < frames; at += 1000) {
+            int n = Math.min(1000, frames - at);
+            byte[] pcm = TestAudio.interleave(constantSamples(n, level), 16, 0, n);
+            fader.mix(pcm, 0, pcm.length, STEREO_16);
+            for (int f = 0; f < n; f++) {
+                assertEquals(sampleAt(pcm, 2 * f), sampleAt(pcm, 2 * f + 1));
+                left[at + f] = sampleAt(pcm, 2 * f);
+            }
+        }
+        return left;
+    }
+
+    @Test
+    void equalPowerFollowsSineAndCosine() throws Exception {
+        Crossfader fader = new Crossfader();
+        fader.start(outgoing(FADE_FRAMES * 2, 10000), FADE_FRAMES, 1f, Crossfader.Curve.EQUAL_POWER);
+        short[] mixed = mix(fader, FADE_FRAMES + 2000, 20000);
+
+        for (int f = 0; f < FADE_FRAMES; f += 250) {
+            double t = f / (double) FADE_FRAMES * Math.PI / 2;
+            assertEquals(20000 * Math.sin(t) + 10000 * Math.cos(t), mixed[f], 3, "frame " + f);
+        }
+        // Past the overlap only the incoming track is left, at full level
+        for (int f = FADE_FRAMES; f < mixed.length; f++) {
+            assertEquals(20000, mixed[f]);
+        }
+        assertFalse(fader.isActive());
+    }
+
+    @Test
+    void linearGainsAddUpToOne() throws Exception {
+        // The same level on both sides comes out unchanged all the way through
+        Crossfader fader = new Crossfader();
+        fader.start(outgoing(FADE_FRAMES, 12000), FADE_FRAMES, 1f, Crossfader.Curve.LINEAR);
+        for (short s : mix(fader, FADE_FRAMES, 12000)) {
+            assertEquals(12000, s, 2);
+        }
+    }
+
+    @Test
+    void outgoingScaleIsApplied() throws Exception {
+        Crossfader fader = new Crossfader();
+        fader.start(outgoing(FADE_FRAMES, 16000), FADE_FRAMES, 0.5f, Crossfader.Curve.LINEAR);
+        // Incoming is silent, so the first frame is just the outgoing track at its scale
+        assertEquals(8000, mix(fader, 1000, 0)[0], 1);
+    }
+
+    @Test
+    void fadeInCarriesOnWhenTheOutgoingTrackEnds() throws Exception {
+        Crossfader fader = new Crossfader();
+        fader.start(outgoing(FADE_FRAMES / 4, 10000), FADE_FRAMES, 1f, Crossfader.Curve.LINEAR);
+        short[] mixed = mix(fader, FADE_FRAMES, 20000);
+
+        assertFalse(fader.isActive());
+        // No jump where the outgoing track stops, the incoming one keeps rising along its curve
+        for (int f = FADE_FRAMES / 4; f < FADE_FRAMES; f += 100) {
+            assertEquals(20000.0 * f / FADE_FRAMES, mixed[f], 2, "frame " + f);
+        }
+    }
+
+    @Test
+    void cancelClosesTheOutgoingTrackAndStopsMixing() throws Exception {
+        boolean[] closed = new boolean[1];
+        PcmSource source = outgoing(FADE_FRAMES, 10000);
+        PcmSource watched = new PcmSource() {
+            @Override
+            public AudioFormat getFormat() {
+                return source.getFormat();
+            }
+
+            @Override
+            public long getFrameLength() {
+                return source.getFrameLength();
+            }
+
+            @Override
+            public long getFramePosition() {
+                return source.getFramePosition();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return source.read(buffer, offset, length);
+            }
+
+            @Override
+            public void seekFrame(long frame) throws IOException {
+                source.seekFrame(frame);
+            }
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                source.close();
+            }
+        };
+
+        Crossfader fader = new Crossfader();
+        fader.start(watched, FADE_FRAMES, 1f, Crossfader.Curve.EQUAL_POWER);
+        mix(fader, 1000, 20000);
+        fader.cancel();
+        assertTrue(closed[0]);
+        assertFalse(fader.isActive());
+        for (short s : mix(fader, 1000, 20000)) {
+            assertEquals(20000, s);
+        }
+    }
+}
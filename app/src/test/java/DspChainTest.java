@@ -0,0 +1,135 @@
+// Software volume: the sample conversions round-trip, gain changes ramp instead of jumping, and an idle chain
+// leaves the bytes alone.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DspChainTest {
+    static final float RATE = TestAudio.SAMPLE_RATE;
+    static final AudioFormat STEREO_16 = new AudioFormat(RATE, 16, 2, true, false);
+
+    private static short sampleAt(byte[] pcm, int index) {
+        return (short) ((pcm[2 * index + 1] << 8) | (pcm[2 * index] & 0xFF));
+    }
+
+    /**
+     * 16-bit stereo with every sample at the same level
+     */
+    private static byte[] constant(int frames, int level) {
+        int[][] samples = new int[2][frames];
+        Arrays.fill(samples[0], level);
+        Arrays.fill(samples[1], level);
+        return TestAudio.interleave(samples, 16, 0, frames);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {16, 24, 32})
+    void signedSamplesRoundTripExactly(int bits) {
+        AudioFormat format = new AudioFormat(RATE, bits, 2, true, false);
+        byte[] pcm = TestAudio.interleave(TestAudio.tone(1000, 2, bits, 1), bits, 0, 1000);
+        // Keep 32-bit samples to what a float holds exactly
+        if (bits == 32) {
+            for (int i = 0; i < pcm.length; i += 4) {
+                pcm[i] = 0;
+            }
+        }
+        float[] work = new float[2000];
+        DspChain.decode(pcm, 0, 2000, format, work);
+        byte[] back = new byte[pcm.length];
+        DspChain.encode(back, 0, 2000, format, work);
+        assertArrayEquals(pcm, back);
+    }
+
+    @Test
+    void idleChainLeavesTheBytesAlone() {
+        DspChain chain = new DspChain();
+        GainProcessor gain = new GainProcessor();
+        chain.add(gain);
+        assertTrue(gain.isIdle());
+
+        byte[] pcm = TestAudio.interleave(TestAudio.tone(1000, 2, 16, 2), 16, 0, 1000);
+        byte[] copy = pcm.clone();
+        chain.process(pcm, 0, pcm.length, STEREO_16);
+        assertArrayEquals(copy, pcm);
+    }
+
+    @Test
+    void gainChangeRampsToTheNewLevel() {
+        DspChain chain = new DspChain();
+        GainProcessor gain = new GainProcessor();
+        chain.add(gain);
+        gain.setGain(0.5f);
+
+        int frames = 4096;
+        int ramp = (int) (RATE * GainProcessor.RAMP_MILLIS / 1000f);
+        byte[] pcm = constant(frames, 16000);
+        chain.process(pcm, 0, pcm.length, STEREO_16);
+
+        // Steps down a frame at a time, no jump bigger than one step
+        int previous = 16000;
+        int step = (int) Math.ceil(8000.0 / ramp) + 1;
+        for (int f = 0; f < ramp; f++) {
+            int s = sampleAt(pcm, 2 * f);
+            assertEquals(s, sampleAt(pcm, 2 * f + 1));
+            assertTrue(s <= previous && previous - s <= step, "frame " + f);
+            previous = s;
+        }
+        for (int f = ramp; f < frames; f++) {
+            assertEquals(8000, sampleAt(pcm, 2 * f), 1);
+        }
+
+        // Once at the level it stays there from the first frame of the next buffer
+        pcm = constant(frames, 16000);
+        chain.process(pcm, 0, pcm.length, STEREO_16);
+        assertEquals(8000, sampleAt(pcm, 0), 1);
+    }
+
+    @Test
+    void jumpSkipsTheRampAndBoostClips() {
+        DspChain chain = new DspChain();
+        GainProcessor gain = new GainProcessor();
+        chain.add(gain);
+        gain.jumpTo(4f);
+
+        byte[] pcm = constant(100, 16000);
+        chain.process(pcm, 0, pcm.length, STEREO_16);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Short.MAX_VALUE, sampleAt(pcm, i));
+        }
+    }
+
+    @Test
+    void removedProcessorNoLongerRuns() {
+        DspChain chain = new DspChain();
+        GainProcessor gain = new GainProcessor();
+        chain.add(gain);
+        gain.jumpTo(0f);
+        chain.remove(gain);
+
+        byte[] pcm = constant(100, 16000);
+        chain.process(pcm, 0, pcm.length, STEREO_16);
+        assertEquals(16000, sampleAt(pcm, 0));
+    }
+
+    @Test
+    void unsupportedFormatIsLeftAlone() {
+        AudioFormat bigEndian24 = new AudioFormat(RATE, 24, 2, true, true);
+        assertFalse(DspChain.supports(bigEndian24));
+        assertTrue(DspChain.supports(new AudioFormat(RATE, 8, 2, false, false)));
+
+        DspChain chain = new DspChain();
+        GainProcessor gain = new GainProcessor();
+        chain.add(gain);
+        gain.jumpTo(0f);
+        byte[] pcm = TestAudio.interleave(TestAudio.tone(100, 2, 24, 3), 24, 0, 100);
+        byte[] copy = pcm.clone();
+        chain.process(pcm, 0, pcm.length, bigEndian24);
+        assertArrayEquals(copy, pcm);
+    }
+}
@@ -0,0 +1,78 @@
+// Duplicate finder: the same audio hashes the same in WAV and FLAC, and only same-content files are grouped.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateFinderTest {
+    @TempDir
+    Path dir;
+
+    private static Song song(Path file) throws Exception {
+        Song song = new Song();
+        song.name = file.getFileName().toString();
+        song.FilePath = file.toString();
+        song.size = Files.size(file);
+        song.lastModified = Files.getLastModifiedTime(file).toMillis();
+        return song;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {8, 16, 24})
+    void wavAndFlacOfTheSameAudioHashTheSame(int bits) throws Exception {
+        int[][] samples = TestAudio.tone(3 * 4096 + 7, 2, bits, bits);
+        Path wav = dir.resolve("a.wav");
+        Path flac = dir.resolve("a.flac");
+        TestAudio.writeWav(wav, samples, bits, "INFOjunk".getBytes());
+        TestAudio.writeFlac(flac, samples, bits, 4096, 0);
+
+        String hash = DuplicateFinder.hashOf(wav.toString());
+        assertEquals(hash, DuplicateFinder.hashOf(flac.toString()));
+        assertEquals(DuplicateFinder.shapeOf(wav.toString()), DuplicateFinder.shapeOf(flac.toString()));
+
+        // Without the STREAMINFO MD5 the FLAC is decoded and hashed, it has to come out the same
+        byte[] bytes = Files.readAllBytes(flac);
+        Arrays.fill(bytes, 26, 42, (byte) 0);
+        Files.write(flac, bytes);
+        assertEquals(hash, DuplicateFinder.hashOf(flac.toString()));
+    }
+
+    @Test
+    void groupsOnlyFilesWithTheSameAudio() throws Exception {
+        int[][] samples = TestAudio.tone(20000, 2, 16, 1);
+        int[][] other = TestAudio.tone(20000, 2, 16, 2);
+        Path wav = dir.resolve("song.wav");
+        Path flac = dir.resolve("song.flac");
+        Path sameShape = dir.resolve("other.wav");
+        TestAudio.writeWav(wav, samples, 16, null);
+        TestAudio.writeFlac(flac, samples, 16, 4096, 0);
+        TestAudio.writeWav(sameShape, other, 16, null);
+        Path broken = dir.resolve("broken.wav");
+        Files.write(broken, new byte[] {'R', 'I', 'F', 'F'});
+
+        ContentHashCache cache = new ContentHashCache(dir.resolve("hashes.cache").toFile());
+        DuplicateFinder finder = new DuplicateFinder(cache, 2);
+        List<DuplicateFinder.Group> groups = finder.find(List.of(song(wav), song(flac), song(sameShape), song(broken)));
+
+        assertEquals(1, groups.size());
+        assertEquals(List.of(wav.toString(), flac.toString()),
+                groups.get(0).songs.stream().map(s -> s.FilePath).toList());
+        // Keeping the smaller copy frees the bigger one
+        assertEquals(Math.max(Files.size(wav), Files.size(flac)), groups.get(0).reclaimableBytes);
+
+        // A file that's gone from the library is dropped from the cache
+        Song kept = song(wav);
+        finder.find(List.of(kept));
+        assertNotNull(cache.get(kept.FilePath, kept.size, kept.lastModified));
+        Song gone = song(flac);
+        assertNull(cache.get(gone.FilePath, gone.size, gone.lastModified));
+    }
+}
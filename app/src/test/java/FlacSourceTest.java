@@ -0,0 +1,172 @@
+// FLAC decoding: bit-exact output, the STREAMINFO MD5, seeking, and files with truncated or corrupt frames.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlacSourceTest {
+    static final int BLOCK_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] readAll(FlacSource source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10000 - 10000 % source.getFormat().getFrameSize()];
+        int n;
+        while ((n = source.read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void referenceFileDecodesToItsStreamInfoMd5() throws Exception {
+        Path file = Path.of(getClass().getResource("reference-16bit-stereo.flac").toURI());
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            FlacInfo info = source.getInfo();
+            assertTrue(info.hasMd5());
+            byte[] pcm = readAll(source);
+            assertEquals(info.totalSamples * info.channels * 2, pcm.length);
+            assertArrayEquals(info.md5, TestAudio.md5(pcm));
+            assertEquals(info.totalSamples, source.getFramePosition());
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"8, 1", "8, 2", "16, 1", "16, 2", "24, 1", "24, 2"})
+    void decodesBitExact(int bits, int channels) throws Exception {
+        int frames = 3 * BLOCK_SIZE + 123;
+        int[][] samples = TestAudio.tone(frames, channels, bits, bits + channels);
+        Path file = dir.resolve("tone.flac");
+        TestAudio.Flac flac = TestAudio.writeFlac(file, samples, bits, BLOCK_SIZE, 0);
+
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            assertEquals(frames, source.getFrameLength());
+            byte[] pcm = readAll(source);
+            assertArrayEquals(TestAudio.interleave(samples, bits, 0, frames), pcm);
+            assertArrayEquals(flac.md5, source.getInfo().md5);
+        }
+    }
+
+    @Test
+    void shortLastBlockOfTwoSamplesDecodes() throws Exception {
+        // The last block is too short to predict and goes out verbatim
+        int frames = 2 * BLOCK_SIZE + 2;
+        int[][] samples = TestAudio.tone(frames, 2, 16, 3);
+        Path file = dir.resolve("short.flac");
+        TestAudio.writeFlac(file, samples, 16, BLOCK_SIZE, 0);
+
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            assertArrayEquals(TestAudio.interleave(samples, 16, 0, frames), readAll(source));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 8})
+    void seeksToTheExactFrame(int seekPointEvery) throws Exception {
+        // Long enough that a seek without the table has to bisect
+        int frames = 5 * TestAudio.SAMPLE_RATE;
+        int[][] samples = TestAudio.tone(frames, 2, 16, 11);
+        Path file = dir.resolve("seek.flac");
+        TestAudio.writeFlac(file, samples, 16, BLOCK_SIZE, seekPointEvery);
+        assertTrue(Files.size(file) > 4 * FlacSource.SEEK_SLACK_BYTES);
+
+        SplittableRandom random = new SplittableRandom(42);
+        byte[] buffer = new byte[4 * 100];
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            for (int i = 0; i < 200; i++) {
+                int target = i == 0 ? frames - 100 : i == 1 ? 0 : random.nextInt(frames - 100);
+                source.seekFrame(target);
+                assertEquals(target, source.getFramePosition(), "position after seeking to " + target);
+                assertEquals(buffer.length, source.read(buffer, 0, buffer.length));
+                assertArrayEquals(TestAudio.interleave(samples, 16, target, target + 100), buffer,
+                        "samples after seeking to " + target);
+            }
+
+            source.seekFrame(frames);
+            assertEquals(-1, source.read(buffer, 0, buffer.length));
+        }
+    }
+
+    @Test
+    void truncatedFileEndsAfterTheLastWholeFrame() throws Exception {
+        int frames = 6 * BLOCK_SIZE;
+        int[][] samples = TestAudio.tone(frames, 2, 16, 5);
+        Path file = dir.resolve("truncated.flac");
+        TestAudio.Flac flac = TestAudio.writeFlac(file, samples, 16, BLOCK_SIZE, 0);
+
+        // Cut halfway into the fifth frame
+        byte[] bytes = Files.readAllBytes(file);
+        int cut = (int) ((flac.frameOffsets[4] + flac.frameOffsets[5]) / 2);
+        Files.write(file, Arrays.copyOf(bytes, cut));
+
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            assertArrayEquals(TestAudio.interleave(samples, 16, 0, 4 * BLOCK_SIZE), readAll(source));
+        }
+    }
+
+    @Test
+    void corruptFramesAreSkipped() throws Exception {
+        int frames = 6 * BLOCK_SIZE;
+        int[][] samples = TestAudio.tone(frames, 2, 16, 9);
+        Path file = dir.resolve("corrupt.flac");
+        TestAudio.Flac flac = TestAudio.writeFlac(file, samples, 16, BLOCK_SIZE, 0);
+
+        byte[] bytes = Files.readAllBytes(file);
+        // Frame 1: the header's block size no longer matches its CRC-8
+        bytes[(int) flac.frameOffsets[1] + 5] ^= 0x01;
+        // Frame 3: the first subframe header has its padding bit set
+        bytes[(int) flac.frameOffsets[3] + 8] = (byte) 0xFF;
+        Files.write(file, bytes);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int block : new int[] {0, 2, 4, 5}) {
+            expected.write(TestAudio.interleave(samples, 16, block * BLOCK_SIZE, (block + 1) * BLOCK_SIZE));
+        }
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            assertArrayEquals(expected.toByteArray(), readAll(source));
+            // Positions come from the frame headers again after a skip
+            assertEquals(frames, source.getFramePosition());
+        }
+    }
+
+    @Test
+    void frameWithADamagedBodyIsCaughtByItsCrc() throws Exception {
+        int frames = 4 * BLOCK_SIZE;
+        int[][] samples = TestAudio.tone(frames, 2, 16, 13);
+        Path file = dir.resolve("damaged.flac");
+        TestAudio.Flac flac = TestAudio.writeFlac(file, samples, 16, BLOCK_SIZE, 0);
+
+        // Frame 2: a bit of the first warm-up sample, the frame still parses but decodes to the wrong samples
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) flac.frameOffsets[2] + 9] ^= 0x10;
+        Files.write(file, bytes);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int block : new int[] {0, 1, 3}) {
+            expected.write(TestAudio.interleave(samples, 16, block * BLOCK_SIZE, (block + 1) * BLOCK_SIZE));
+        }
+        try (FlacSource source = new FlacSource(file.toString(), true)) {
+            assertArrayEquals(expected.toByteArray(), readAll(source));
+        }
+    }
+
+    @Test
+    void notAFlacFileIsRejected() throws Exception {
+        Path file = dir.resolve("not.flac");
+        Files.write(file, new byte[] {'R', 'I', 'F', 'F', 0, 0, 0, 0});
+        assertThrows(IOException.class, () -> new FlacSource(file.toString(), true));
+    }
+}
@@ -0,0 +1,131 @@
+// Library index: what's saved is what loads back, and an index for a different library or version is ignored.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LibraryIndexTest {
+    @TempDir
+    Path dir;
+
+    private static Song song(String name, long size, long lastModified) {
+        Song song = new Song();
+        song.name = name;
+        song.size = size;
+        song.lastModified = lastModified;
+        return song;
+    }
+
+    @Test
+    void roundTrips() {
+        File indexFile = dir.resolve("cache/library.idx").toFile();
+        String music = dir.resolve("Music").toString();
+
+        LibraryIndex index = new LibraryIndex(indexFile, music);
+        index.put("", 1000L, new ArrayList<>(), new ArrayList<>(List.of("Rock", "Jazz")));
+        index.put("Rock", 2000L, new ArrayList<>(List.of(song("a.wav", 123, 11), song("b é.flac", 1L << 33, 12))),
+                new ArrayList<>(List.of("Rock" + File.separator + "Live")));
+        index.put("Rock" + File.separator + "Live", 3000L, new ArrayList<>(List.of(song("c.wav", 5, 13))), new ArrayList<>());
+        index.save();
+        assertTrue(indexFile.isFile());
+        assertFalse(new File(indexFile.getPath() + ".tmp").exists());
+
+        LibraryIndex loaded = new LibraryIndex(indexFile, music);
+        loaded.load();
+        assertEquals(List.of("Rock", "Jazz"), loaded.get("", 1000L).subfolders);
+
+        LibraryIndex.Folder rock = loaded.get("Rock", 2000L);
+        assertNotNull(rock);
+        assertEquals(2, rock.songs.size());
+        Song b = rock.songs.get(1);
+        assertEquals("b é.flac", b.name);
+        assertEquals(1L << 33, b.size);
+        assertEquals(12, b.lastModified);
+        assertEquals("Rock", b.playlistName);
+        assertEquals(new File(music, "Rock").getAbsolutePath() + File.separator + "b é.flac", b.FilePath);
+        assertEquals(List.of("Rock" + File.separator + "Live"), rock.subfolders);
+
+        Song c = loaded.get("Rock" + File.separator + "Live", 3000L).songs.get(0);
+        assertEquals("c.wav", c.name);
+        assertEquals(5, c.size);
+        assertEquals(13, c.lastModified);
+    }
+
+    @Test
+    void changedFolderMtimeMisses() {
+        LibraryIndex index = new LibraryIndex(dir.resolve("library.idx").toFile(), "/music");
+        index.put("A", 10L, new ArrayList<>(), new ArrayList<>());
+        assertNotNull(index.get("A", 10L));
+        assertNull(index.get("A", 11L));
+        assertNull(index.get("B", 10L));
+    }
+
+    @Test
+    void songListsAreNotSharedWithTheCaller() {
+        LibraryIndex index = new LibraryIndex(dir.resolve("library.idx").toFile(), "/music");
+        ArrayList<Song> songs = new ArrayList<>(List.of(song("a.wav", 1, 1)));
+        index.put("A", 10L, songs, new ArrayList<>());
+        songs.add(song("b.wav", 2, 2));
+        assertEquals(1, index.get("A", 10L).songs.size());
+
+        index.get("A", 10L).songs.clear();
+        assertEquals(1, index.get("A", 10L).songs.size());
+    }
+
+    @Test
+    void removeDropsTheFolderAndEverythingUnderIt() {
+        LibraryIndex index = new LibraryIndex(dir.resolve("library.idx").toFile(), "/music");
+        index.put("A", 1L, new ArrayList<>(), new ArrayList<>());
+        index.put("A" + File.separator + "B", 1L, new ArrayList<>(), new ArrayList<>());
+        index.put("AB", 1L, new ArrayList<>(), new ArrayList<>());
+        index.remove("A");
+        assertNull(index.get("A", 1L));
+        assertNull(index.get("A" + File.separator + "B", 1L));
+        assertNotNull(index.get("AB", 1L));
+    }
+
+    @Test
+    void otherLibraryOrVersionIsIgnored() throws Exception {
+        File indexFile = dir.resolve("library.idx").toFile();
+        LibraryIndex index = new LibraryIndex(indexFile, "/music");
+        index.put("A", 1L, new ArrayList<>(), new ArrayList<>());
+        index.save();
+
+        LibraryIndex other = new LibraryIndex(indexFile, "/elsewhere");
+        other.load();
+        assertNull(other.get("A", 1L));
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile))) {
+            out.writeInt(LibraryIndex.MAGIC);
+            out.writeInt(LibraryIndex.VERSION - 1);
+            out.writeUTF("/music");
+            out.writeInt(0);
+        }
+        LibraryIndex old = new LibraryIndex(indexFile, "/music");
+        old.load();
+        assertNull(old.get("A", 1L));
+    }
+
+    @Test
+    void truncatedIndexLoadsEmpty() throws Exception {
+        File indexFile = dir.resolve("library.idx").toFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile))) {
+            out.writeInt(LibraryIndex.MAGIC);
+            out.writeInt(LibraryIndex.VERSION);
+            out.writeUTF("/music");
+            out.writeInt(3);
+            out.writeUTF("A");
+        }
+        LibraryIndex index = new LibraryIndex(indexFile, "/music");
+        index.load();
+        assertNull(index.get("A", 0L));
+    }
+}
@@ -0,0 +1,146 @@
+// Loudness: BS.1770 gating on made-up block energies, and the level of a known tone measured end to end.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoudnessAnalyzerTest {
+    static final int SUB_BLOCK_FRAMES = 4410;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Sub-block energies that average out to the given loudness
+     */
+    private static double[] subBlocks(double lufs, int count) {
+        double[] blocks = new double[count];
+        Arrays.fill(blocks, LoudnessAnalyzer.powerFor(lufs) * SUB_BLOCK_FRAMES);
+        return blocks;
+    }
+
+    private static double[] concat(double[]... parts) {
+        double[] all = new double[0];
+        for (double[] part : parts) {
+            int at = all.length;
+            all = Arrays.copyOf(all, at + part.length);
+            System.arraycopy(part, 0, all, at, part.length);
+        }
+        return all;
+    }
+
+    private static double gated(double[] blocks) {
+        LoudnessAnalyzer.GatingHistogram gating = new LoudnessAnalyzer.GatingHistogram(SUB_BLOCK_FRAMES);
+        for (double block : blocks) {
+            gating.addSubBlock(block);
+        }
+        return gating.loudness();
+    }
+
+    /**
+     * BS.1770 gating block by block, what the histogram approximates
+     */
+    private static double gatedExactly(double[] subBlocks) {
+        double[] power = new double[Math.max(0, subBlocks.length - 3)];
+        for (int b = 0; b < power.length; b++) {
+            power[b] = (subBlocks[b] + subBlocks[b + 1] + subBlocks[b + 2] + subBlocks[b + 3]) / (4.0 * SUB_BLOCK_FRAMES);
+        }
+        double gate = LoudnessAnalyzer.powerFor(LoudnessAnalyzer.ABSOLUTE_GATE_LUFS);
+        for (int pass = 0; pass < 2; pass++) {
+            double sum = 0;
+            int count = 0;
+            for (double p : power) {
+                if (p > gate) {
+                    sum += p;
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            if (pass == 1) {
+                return LoudnessAnalyzer.loudnessOf(sum / count);
+            }
+            gate = Math.max(gate, LoudnessAnalyzer.powerFor(LoudnessAnalyzer.loudnessOf(sum / count)
+                    + LoudnessAnalyzer.RELATIVE_GATE_LU));
+        }
+        throw new AssertionError();
+    }
+
+    @Test
+    void steadyLevelIsItsOwnLoudness() {
+        assertEquals(-23.0, gated(subBlocks(-23, 100)), 1e-9);
+    }
+
+    @Test
+    void silenceIsDroppedByTheAbsoluteGate() {
+        // Long enough that the few gating blocks straddling the change don't matter
+        double[] blocks = concat(subBlocks(-20, 2000), new double[2000]);
+        assertEquals(-20.0, gated(blocks), 0.01);
+    }
+
+    @Test
+    void quietPassagesAreDroppedByTheRelativeGate() {
+        // -45 is more than 10 LU under the -20 passage, it doesn't pull the loudness down
+        double[] blocks = concat(subBlocks(-20, 2000), subBlocks(-45, 2000));
+        assertEquals(-20.0, gated(blocks), 0.01);
+    }
+
+    @Test
+    void passagesWithinTenLuCount() {
+        // Both passages get through the gate, the result is the mean power
+        double[] blocks = concat(subBlocks(-20, 400), subBlocks(-26, 400));
+        double expected = LoudnessAnalyzer.loudnessOf((LoudnessAnalyzer.powerFor(-20) + LoudnessAnalyzer.powerFor(-26)) / 2);
+        assertEquals(expected, gated(blocks), 0.05);
+        assertTrue(expected < -20 && expected > -26);
+    }
+
+    @Test
+    void histogramMatchesBlockByBlockGating() {
+        // Levels spread over 40 LU, so plenty of blocks sit around the relative gate
+        SplittableRandom random = new SplittableRandom(7);
+        double[] blocks = new double[20000];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = LoudnessAnalyzer.powerFor(-50 + random.nextDouble() * 40) * SUB_BLOCK_FRAMES;
+        }
+        assertEquals(gatedExactly(blocks), gated(blocks), 0.05);
+    }
+
+    @Test
+    void silenceAndTooShortAreMinusInfinity() {
+        assertEquals(Double.NEGATIVE_INFINITY, gated(new double[100]));
+        assertEquals(Double.NEGATIVE_INFINITY, gated(subBlocks(-20, 3)));
+        assertEquals(Double.NEGATIVE_INFINITY, gated(subBlocks(-80, 100)));
+    }
+
+    @Test
+    void surroundChannelWeights() {
+        assertEquals(1.0, LoudnessAnalyzer.channelWeight(1, 2));
+        assertEquals(0.0, LoudnessAnalyzer.channelWeight(3, 6));
+        assertEquals(1.41, LoudnessAnalyzer.channelWeight(4, 6));
+    }
+
+    @Test
+    void stereoSineAtMinus20dBFSMeasuresMinus20Lufs() throws Exception {
+        // BS.1770 reference: a 997 Hz sine in both channels reads its dBFS level, K-weighting is about flat there
+        int frames = 5 * TestAudio.SAMPLE_RATE;
+        int[][] samples = new int[2][frames];
+        double amplitude = 32767 * Math.pow(10, -20 / 20.0);
+        for (int i = 0; i < frames; i++) {
+            int s = (int) Math.round(Math.sin(2 * Math.PI * 997 * i / TestAudio.SAMPLE_RATE) * amplitude);
+            samples[0][i] = s;
+            samples[1][i] = s;
+        }
+        Path file = dir.resolve("sine.wav");
+        TestAudio.writeWav(file, samples, 16, null);
+
+        LoudnessAnalyzer.Result result = LoudnessAnalyzer.analyze(file.toString());
+        assertEquals(-20.0, result.integratedLufs, 0.1);
+        assertEquals(0.1, result.peak, 0.001);
+    }
+}
@@ -0,0 +1,93 @@
+// Streaming WAV playback: samples come straight out of the mapping, bit-exact, from wherever the track is sought to.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedWavSourceTest {
+    static final int FRAMES = 30000;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] readAll(PcmSource source, int bufferBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferBytes];
+        int n;
+        while ((n = source.read(buffer, 0, buffer.length)) > 0) {
+            assertEquals(0, n % source.getFormat().getFrameSize());
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * What the source should give for these frames: the file's own bytes, or their top 16 bits if the line
+     * can't take the file's format and it's converted
+     */
+    private static byte[] expected(int[][] samples, int bits, int from, int to, int outBits) {
+        if (outBits == bits) {
+            return TestAudio.interleave(samples, bits, from, to);
+        }
+        int[][] top = new int[samples.length][];
+        for (int c = 0; c < samples.length; c++) {
+            top[c] = Arrays.stream(samples[c]).map(s -> s >> (bits - 16)).toArray();
+        }
+        return TestAudio.interleave(top, 16, from, to);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {16, 24})
+    void playsTheFileBitExact(int bits) throws Exception {
+        int[][] samples = TestAudio.tone(FRAMES, 2, bits, bits);
+        Path file = dir.resolve("a.wav");
+        TestAudio.writeWav(file, samples, bits, "LISTjunk".getBytes());
+
+        try (PcmSource source = PcmSource.open(file.toString())) {
+            assertInstanceOf(MappedWavSource.class, source);
+            assertEquals(FRAMES, source.getFrameLength());
+            int outBits = source.getFormat().getSampleSizeInBits();
+            // A buffer that isn't a whole number of frames only gets whole frames
+            assertArrayEquals(expected(samples, bits, 0, FRAMES, outBits), readAll(source, 4001));
+            assertEquals(FRAMES, source.getFramePosition());
+            assertEquals(-1, source.read(new byte[4096], 0, 4096));
+        }
+    }
+
+    @Test
+    void seeksToTheExactFrame() throws Exception {
+        int[][] samples = TestAudio.tone(FRAMES, 2, 16, 3);
+        Path file = dir.resolve("a.wav");
+        TestAudio.writeWav(file, samples, 16, null);
+
+        try (PcmSource source = PcmSource.open(file.toString())) {
+            for (int frame : new int[] {12345, 0, FRAMES - 1, 777}) {
+                source.seekFrame(frame);
+                assertEquals(frame, source.getFramePosition());
+                assertArrayEquals(TestAudio.interleave(samples, 16, frame, FRAMES), readAll(source, 4096),
+                        "from frame " + frame);
+            }
+            // Past the end is clamped to it
+            source.seekFrame(FRAMES + 100);
+            assertEquals(FRAMES, source.getFramePosition());
+            assertEquals(-1, source.read(new byte[4096], 0, 4096));
+        }
+    }
+
+    @Test
+    void fileThatIsntWavIsRejected() throws Exception {
+        Path file = dir.resolve("fake.wav");
+        Files.write(file, "this is not a wav file at all".getBytes());
+        assertThrows(UnsupportedAudioFileException.class, () -> PcmSource.open(file.toString()));
+    }
+}
@@ -0,0 +1,158 @@
+// PCM cache: tracks are kept as they play, evicted least recently played first, and dropped when the file changes.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PcmCacheTest {
+    static final int FRAMES = 10000;
+    // 16-bit stereo
+    static final int TRACK_BYTES = FRAMES * 4;
+
+    @TempDir
+    Path dir;
+
+    private String writeTrack(String name, int seed) throws IOException {
+        Path file = dir.resolve(name);
+        TestAudio.writeWav(file, TestAudio.tone(FRAMES, 2, 16, seed), 16, null);
+        return file.toString();
+    }
+
+    private static byte[] readAll(PcmSource source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4 * 1000];
+        int n;
+        while ((n = source.read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Plays a track through the cache from start to end
+     */
+    private static byte[] play(PcmCache cache, String path) throws Exception {
+        PcmSource cached = cache.open(path);
+        try (PcmSource source = cached != null ? cached : cache.record(path, PcmSource.open(path))) {
+            return readAll(source);
+        }
+    }
+
+    @Test
+    void playedTrackIsCachedAndPlaysBackTheSame() throws Exception {
+        PcmCache cache = new PcmCache(4 * TRACK_BYTES);
+        String path = writeTrack("a.wav", 1);
+        byte[] fromFile = play(cache, path);
+        assertEquals(TRACK_BYTES, fromFile.length);
+        assertTrue(cache.contains(path));
+        assertEquals(TRACK_BYTES, cache.getUsedBytes());
+
+        try (PcmSource source = cache.open(path)) {
+            assertInstanceOf(CachedPcmSource.class, source);
+            assertArrayEquals(fromFile, readAll(source));
+        }
+        assertEquals(1, cache.hits.get());
+    }
+
+    @Test
+    void readsAfterASeekOnlyCountIfTheyCarryOn() throws Exception {
+        PcmCache cache = new PcmCache(4 * TRACK_BYTES);
+        String path = writeTrack("a.wav", 2);
+        byte[] buffer = new byte[4 * 1000];
+        try (PcmSource source = cache.record(path, PcmSource.open(path))) {
+            source.read(buffer, 0, buffer.length);
+            // Jumping ahead leaves a hole, reading to the end from there doesn't complete the recording
+            source.seekFrame(FRAMES / 2);
+            readAll(source);
+            assertFalse(cache.contains(path));
+
+            // Going back and playing through fills it in
+            source.seekFrame(0);
+            readAll(source);
+        }
+        assertTrue(cache.contains(path));
+        try (PcmSource cached = cache.open(path); PcmSource file = PcmSource.open(path)) {
+            assertArrayEquals(readAll(file), readAll(cached));
+        }
+    }
+
+    @Test
+    void trackStoppedHalfwayIsDroppedAndGivesItsRoomBack() throws Exception {
+        PcmCache cache = new PcmCache(2 * TRACK_BYTES);
+        String stopped = writeTrack("stopped.wav", 3);
+        try (PcmSource source = cache.record(stopped, PcmSource.open(stopped))) {
+            source.read(new byte[4 * 1000], 0, 4 * 1000);
+        }
+        assertFalse(cache.contains(stopped));
+
+        // If the stopped track's reservation had leaked only one of these would fit
+        String a = writeTrack("a.wav", 4);
+        String b = writeTrack("b.wav", 5);
+        play(cache, a);
+        play(cache, b);
+        assertTrue(cache.contains(a));
+        assertTrue(cache.contains(b));
+        assertEquals(0, cache.evictions.get());
+    }
+
+    @Test
+    void leastRecentlyPlayedIsEvictedFirst() throws Exception {
+        PcmCache cache = new PcmCache(2 * TRACK_BYTES);
+        String a = writeTrack("a.wav", 6);
+        String b = writeTrack("b.wav", 7);
+        String c = writeTrack("c.wav", 8);
+        play(cache, a);
+        play(cache, b);
+        // Playing a again makes b the eldest
+        play(cache, a);
+        play(cache, c);
+
+        assertTrue(cache.contains(a));
+        assertFalse(cache.contains(b));
+        assertTrue(cache.contains(c));
+        assertEquals(1, cache.evictions.get());
+        assertEquals(2 * TRACK_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void changedFileIsAMiss() throws Exception {
+        PcmCache cache = new PcmCache(4 * TRACK_BYTES);
+        String path = writeTrack("a.wav", 9);
+        play(cache, path);
+        assertTrue(cache.contains(path));
+
+        TestAudio.writeWav(Path.of(path), TestAudio.tone(FRAMES + 1, 2, 16, 10), 16, null);
+        assertNull(cache.open(path));
+        assertFalse(cache.contains(path));
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    void tracksOverHalfTheBudgetAreNotRecorded() throws Exception {
+        PcmCache cache = new PcmCache(TRACK_BYTES);
+        String path = writeTrack("a.wav", 11);
+        try (PcmSource file = PcmSource.open(path)) {
+            assertSame(file, cache.record(path, file));
+        }
+
+        cache.setBudget(0);
+        try (PcmSource file = PcmSource.open(path)) {
+            assertSame(file, cache.record(path, file));
+        }
+    }
+
+    @Test
+    void shrinkingTheBudgetEvicts() throws Exception {
+        PcmCache cache = new PcmCache(4 * TRACK_BYTES);
+        play(cache, writeTrack("a.wav", 12));
+        play(cache, writeTrack("b.wav", 13));
+        cache.setBudget(TRACK_BYTES);
+        assertEquals(1, cache.size());
+        assertEquals(TRACK_BYTES, cache.getUsedBytes());
+    }
+}
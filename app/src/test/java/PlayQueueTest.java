@@ -0,0 +1,158 @@
+// Play order: plain and shuffled runs through a list, repeat modes, queued tracks and going back.
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayQueueTest {
+    private final PlayQueue queue = new PlayQueue();
+
+    private static int[] ids(int n) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = 100 + i;
+        }
+        return ids;
+    }
+
+    @Test
+    void playsInListOrderAndStopsAtTheEnd() {
+        queue.play(ids(4), 1);
+        assertEquals(101, queue.current());
+        assertEquals(102, queue.peekNext());
+        assertEquals(102, queue.peekNext());
+        assertEquals(102, queue.next(true));
+        assertEquals(103, queue.next(true));
+        assertEquals(-1, queue.peekNext());
+        assertEquals(-1, queue.next(true));
+    }
+
+    @Test
+    void repeatAllWrapsAround() {
+        queue.setRepeat(PlayQueue.Repeat.ALL);
+        queue.play(ids(3), 2);
+        assertEquals(100, queue.next(true));
+        assertEquals(101, queue.next(false));
+    }
+
+    @Test
+    void repeatOneHoldsOnlyWhenTheTrackEnds() {
+        queue.setRepeat(PlayQueue.Repeat.ONE);
+        queue.play(ids(3), 0);
+        assertEquals(100, queue.peekNext());
+        assertEquals(100, queue.next(true));
+        // Skipping still moves on
+        assertEquals(101, queue.next(false));
+    }
+
+    @Test
+    void shufflePlaysEveryTrackOnceStartingWithTheCurrent() {
+        queue.setShuffle(true);
+        queue.play(ids(50), 20);
+        assertEquals(120, queue.current());
+
+        Set<Integer> seen = new HashSet<>();
+        seen.add(queue.current());
+        for (int i = 1; i < 50; i++) {
+            int peeked = queue.peekNext();
+            int id = queue.next(true);
+            assertEquals(peeked, id);
+            assertTrue(seen.add(id), "played twice: " + id);
+        }
+        assertEquals(50, seen.size());
+        assertEquals(-1, queue.next(true));
+    }
+
+    @Test
+    void shuffleRepeatAllKeepsTheSameOrderEachRound() {
+        queue.setShuffle(true);
+        queue.setRepeat(PlayQueue.Repeat.ALL);
+        queue.play(ids(10), 0);
+        int[] first = new int[10];
+        first[0] = queue.current();
+        for (int i = 1; i < 10; i++) {
+            first[i] = queue.next(true);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(first[i], queue.next(true));
+        }
+    }
+
+    @Test
+    void turningShuffleOffCarriesOnFromTheCurrentTrack() {
+        queue.play(ids(10), 0);
+        queue.setShuffle(true);
+        int id = queue.next(true);
+        queue.setShuffle(false);
+        assertEquals(id, queue.current());
+        assertEquals(id + 1 < 110 ? id + 1 : -1, queue.peekNext());
+    }
+
+    @Test
+    void queuedTracksPlayFirstInTheirOrder() {
+        queue.play(ids(5), 0);
+        queue.addToQueue(7);
+        queue.addToQueue(8);
+        queue.playNext(9);
+        assertEquals(3, queue.queuedCount());
+        assertEquals(9, queue.next(false));
+        assertEquals(7, queue.next(false));
+        assertEquals(8, queue.next(true));
+        // Then the list carries on where it was
+        assertEquals(101, queue.next(true));
+        assertEquals(0, queue.queuedCount());
+    }
+
+    @Test
+    void queueGrowsPastItsInitialSize() {
+        queue.play(ids(2), 0);
+        for (int i = 0; i < 40; i++) {
+            queue.addToQueue(i);
+        }
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, queue.next(false));
+        }
+        queue.addToQueue(1);
+        queue.clearQueued();
+        assertEquals(101, queue.next(false));
+    }
+
+    @Test
+    void previousWalksBackThroughHistory() {
+        queue.play(ids(5), 0);
+        queue.next(true);
+        queue.next(true);
+        assertEquals(102, queue.current());
+        assertEquals(101, queue.previous());
+        assertEquals(100, queue.previous());
+        assertEquals(-1, queue.previous());
+        // The order is back in step with where we went
+        assertEquals(101, queue.next(true));
+    }
+
+    @Test
+    void historyKeepsOnlyTheNewest() {
+        queue.setRepeat(PlayQueue.Repeat.ALL);
+        queue.play(ids(7), 0);
+        for (int i = 0; i < PlayQueue.HISTORY_SIZE + 100; i++) {
+            queue.next(false);
+        }
+        int back = 0;
+        while (queue.previous() >= 0) {
+            back++;
+        }
+        assertEquals(PlayQueue.HISTORY_SIZE, back);
+    }
+
+    @Test
+    void moveToFollowsTheOrderWhenItCan() {
+        queue.play(ids(5), 0);
+        queue.moveTo(101);
+        assertEquals(101, queue.current());
+        assertEquals(102, queue.peekNext());
+        assertEquals(100, queue.previous());
+    }
+}
@@ -0,0 +1,111 @@
+// Prefetching: the pre-read head plus the rest of the source is the whole track, and what's prefetched
+// is what the play queue moves on to.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefetchedTrackTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] playAll(PrefetchedTrack track) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(track.head, 0, track.headBytes);
+        byte[] buffer = new byte[AudioController.BUFFER_BYTES];
+        int n;
+        while ((n = track.source.read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        track.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    void headAndRestAreTheWholeTrack() throws Exception {
+        int frames = 3 * TestAudio.SAMPLE_RATE;
+        int[][] samples = TestAudio.tone(frames, 2, 16, 1);
+        Path wav = dir.resolve("a.wav");
+        Path flac = dir.resolve("a.flac");
+        TestAudio.writeWav(wav, samples, 16, null);
+        TestAudio.writeFlac(flac, samples, 16, 4096, 0);
+        byte[] pcm = TestAudio.interleave(samples, 16, 0, frames);
+
+        PcmCache cache = new PcmCache(0);
+        for (Path file : new Path[] {wav, flac}) {
+            PrefetchedTrack track = PrefetchedTrack.open(file.toString(), cache);
+            assertNotNull(track);
+            assertEquals(file.toString(), track.path);
+            assertEquals(AudioController.BUFFER_BYTES, track.headBytes);
+            assertArrayEquals(pcm, playAll(track), file.getFileName().toString());
+        }
+    }
+
+    @Test
+    void playedThroughPrefetchComesFromTheCacheNextTime() throws Exception {
+        int[][] samples = TestAudio.tone(TestAudio.SAMPLE_RATE, 2, 16, 2);
+        Path wav = dir.resolve("a.wav");
+        TestAudio.writeWav(wav, samples, 16, null);
+
+        PcmCache cache = new PcmCache(64L * 1024 * 1024);
+        byte[] first = playAll(PrefetchedTrack.open(wav.toString(), cache));
+        assertTrue(cache.contains(wav.toString()));
+
+        PrefetchedTrack again = PrefetchedTrack.open(wav.toString(), cache);
+        assertInstanceOf(CachedPcmSource.class, again.source);
+        assertArrayEquals(first, playAll(again));
+    }
+
+    @Test
+    void unplayableFilesAreNotPrefetched() throws Exception {
+        Path broken = dir.resolve("broken.wav");
+        Files.write(broken, new byte[] {'R', 'I', 'F', 'F', 0, 0, 0, 0});
+        assertNull(PrefetchedTrack.open(broken.toString(), new PcmCache(0)));
+        assertNull(PrefetchedTrack.open(dir.resolve("missing.flac").toString(), new PcmCache(0)));
+    }
+
+    @Test
+    void prefetchFollowsTheQueue() throws Exception {
+        // Each track is a different tone, so the head tells which file was prefetched
+        int tracks = 6;
+        String[] paths = new String[tracks];
+        byte[][] heads = new byte[tracks][];
+        int[] ids = new int[tracks];
+        for (int i = 0; i < tracks; i++) {
+            int[][] samples = TestAudio.tone(TestAudio.SAMPLE_RATE / 2, 2, 16, 10 + i);
+            Path file = dir.resolve("t" + i + ".wav");
+            TestAudio.writeWav(file, samples, 16, null);
+            paths[i] = file.toString();
+            heads[i] = TestAudio.interleave(samples, 16, 0, AudioController.BUFFER_BYTES / 4);
+            ids[i] = i;
+        }
+
+        PlayQueue queue = new PlayQueue();
+        queue.setShuffle(true);
+        queue.play(ids, 0);
+        PcmCache cache = new PcmCache(0);
+        int played = 1;
+        while (queue.peekNext() >= 0) {
+            // The player prefetches peekNext(), then moves the queue on when the engine switches to it
+            int next = queue.peekNext();
+            if (played == 2) {
+                // Something queued in between replaces the prefetch
+                int queued = next == 5 ? 4 : 5;
+                queue.addToQueue(queued);
+                next = queue.peekNext();
+                assertEquals(queued, next);
+            }
+            PrefetchedTrack track = PrefetchedTrack.open(paths[next], cache);
+            assertArrayEquals(heads[next], track.head);
+            track.close();
+            assertEquals(next, queue.next(true));
+            played++;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+// Search-as-you-type index: matching on every field, removals, re-adds and compaction.
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+    private final SearchIndex index = new SearchIndex();
+    private final int[] results = new int[SearchIndex.MAX_RESULTS];
+
+    private static Song song(int id, String name, String title, String artist, String playlist) {
+        Song song = new Song();
+        song.id = id;
+        song.name = name;
+        song.title = title;
+        song.artist = artist;
+        song.playlistName = playlist;
+        return song;
+    }
+
+    private int[] search(String query) {
+        int n = index.search(query, results);
+        int[] found = Arrays.copyOf(results, n);
+        Arrays.sort(found);
+        return found;
+    }
+
+    @Test
+    void matchesEveryTermAcrossFields() {
+        index.add(song(0, "01 Intro.wav", "Intro", "The Band", "Live"));
+        index.add(song(1, "02 Outro.flac", "Outro", "The Band", "Studio"));
+        index.add(song(2, "track.wav", null, null, "Live"));
+
+        assertArrayEquals(new int[] {0, 1}, search("band"));
+        assertArrayEquals(new int[] {0}, search("BAND live"));
+        assertArrayEquals(new int[] {0, 2}, search("  live "));
+        assertArrayEquals(new int[] {1}, search("outro"));
+        assertArrayEquals(new int[0], search("band track"));
+        assertArrayEquals(new int[0], search("zzz"));
+        assertArrayEquals(new int[0], search(""));
+    }
+
+    @Test
+    void shortTermsMatchBySingleCharacters() {
+        index.add(song(0, "ab.wav", null, null, "x"));
+        index.add(song(1, "ba.wav", null, null, "y"));
+        index.add(song(2, "cd.wav", null, null, "z"));
+
+        assertArrayEquals(new int[] {0}, search("ab"));
+        assertArrayEquals(new int[] {0, 1}, search("a"));
+        assertArrayEquals(new int[0], search("q"));
+    }
+
+    @Test
+    void extensionAndFieldBoundariesDontMatch() {
+        index.add(song(0, "song.wav", "Alpha", "Beta", "List"));
+        // The extension isn't searchable
+        assertArrayEquals(new int[0], search("wav"));
+        // A term never spans two fields
+        assertArrayEquals(new int[0], search("alphabeta"));
+    }
+
+    @Test
+    void removedAndReplacedSongs() {
+        index.add(song(0, "first.wav", null, null, "a"));
+        index.add(song(1, "second.wav", null, null, "a"));
+        index.remove(song(0, "first.wav", null, null, "a"));
+        assertArrayEquals(new int[0], search("first"));
+        assertEquals(1, index.size());
+
+        // Re-adding an ID replaces what it was indexed under
+        index.add(song(1, "renamed.wav", null, null, "a"));
+        assertArrayEquals(new int[0], search("second"));
+        assertArrayEquals(new int[] {1}, search("renamed"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void staysCorrectThroughCompaction() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            for (int id = 0; id < 200; id++) {
+                index.add(song(id, "t" + id + "x r" + round + "x.wav", null, null, "p"));
+            }
+        }
+        assertEquals(200, index.size());
+        assertArrayEquals(new int[0], search("r3x"));
+        assertArrayEquals(new int[] {7}, search("t7x r19x"));
+        assertEquals(200, search("r19x").length);
+
+        // Same answers from the rebuilt table
+        index.awaitCompaction();
+        assertArrayEquals(new int[0], search("r3x"));
+        assertArrayEquals(new int[] {7}, search("t7x r19x"));
+        assertEquals(200, search("r19x").length);
+    }
+
+    @Test
+    void changesMadeWhileCompactingAreKept() throws Exception {
+        // Keep re-adding and removing while compactions run in the background, then check the final table
+        for (int round = 0; round < 50; round++) {
+            for (int id = round; id < 300; id++) {
+                index.add(song(id, "t" + id + "x r" + round + "x.wav", null, null, "p"));
+            }
+            index.remove(song(round, "", null, null, "p"));
+        }
+        index.awaitCompaction();
+        assertEquals(250, index.size());
+        assertArrayEquals(new int[0], search("t3x"));
+        assertArrayEquals(new int[] {77}, search("t77x r49x"));
+        assertEquals(250, search("r49x").length);
+        assertArrayEquals(new int[0], search("r48x"));
+    }
+
+    @Test
+    void resultsAreCapped() {
+        for (int id = 0; id < SearchIndex.MAX_RESULTS + 50; id++) {
+            index.add(song(id, "common " + id + ".wav", null, null, "p"));
+        }
+        assertEquals(SearchIndex.MAX_RESULTS, index.search("common", new int[SearchIndex.MAX_RESULTS + 50]));
+        assertEquals(10, index.search("common", new int[10]));
+    }
+}
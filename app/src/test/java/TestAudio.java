@@ -0,0 +1,276 @@
+// Writes small WAV and FLAC files for the tests, with the samples kept so decoded output can be checked.
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+final class TestAudio {
+    static final int SAMPLE_RATE = 44100;
+
+    private TestAudio() {
+    }
+
+    static class Flac {
+        // File offset of every frame
+        long[] frameOffsets;
+        byte[] md5;
+    }
+
+    /**
+     * A sine tone with noise on it, samples[channel][frame]
+     */
+    static int[][] tone(int frames, int channels, int bits, int seed) {
+        double step = 2 * Math.PI * (220 + seed % 440) / SAMPLE_RATE;
+        double peak = (1L << (bits - 1)) * 0.5;
+        int noise = Math.max(1, 1 << (bits - 8));
+        SplittableRandom random = new SplittableRandom(seed);
+        int[][] samples = new int[channels][frames];
+        for (int i = 0; i < frames; i++) {
+            int sine = (int) (Math.sin(i * step) * peak);
+            for (int c = 0; c < channels; c++) {
+                samples[c][i] = sine + random.nextInt(2 * noise + 1) - noise;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Interleaved signed little-endian whole bytes from frame from (inclusive) to to
+     */
+    static byte[] interleave(int[][] samples, int bits, int from, int to) {
+        int bytesPerSample = (bits + 7) / 8;
+        byte[] out = new byte[(to - from) * samples.length * bytesPerSample];
+        int o = 0;
+        for (int i = from; i < to; i++) {
+            for (int[] channel : samples) {
+                for (int b = 0; b < bytesPerSample; b++) {
+                    out[o++] = (byte) (channel[i] >> (8 * b));
+                }
+            }
+        }
+        return out;
+    }
+
+    static byte[] md5(byte[] data) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Writes a PCM WAV, extraChunk (if not null) goes between fmt and data as a LIST chunk
+     */
+    static void writeWav(Path file, int[][] samples, int bits, byte[] extraChunk) throws IOException {
+        int channels = samples.length;
+        byte[] data = interleave(samples, bits, 0, samples[0].length);
+        if (bits == 8) {
+            // 8-bit WAV is unsigned
+            for (int i = 0; i < data.length; i++) {
+                data[i] ^= (byte) 0x80;
+            }
+        }
+        int blockAlign = channels * bits / 8;
+        int extra = extraChunk == null ? 0 : 8 + extraChunk.length + (extraChunk.length & 1);
+
+        ByteBuffer header = ByteBuffer.allocate(36 + extra + 8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(28 + extra + 8 + data.length).putInt(0x45564157); // RIFF, WAVE
+        header.putInt(0x20746D66).putInt(16).putShort((short) 1).putShort((short) channels); // fmt
+        header.putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * blockAlign);
+        header.putShort((short) blockAlign).putShort((short) bits);
+        if (extraChunk != null) {
+            header.putInt(0x5453494C).putInt(extraChunk.length).put(extraChunk); // LIST
+            if ((extraChunk.length & 1) != 0) {
+                header.put((byte) 0);
+            }
+        }
+        header.putInt(0x61746164).putInt(data.length); // data
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(header.array());
+            out.write(data);
+        }
+    }
+
+    /**
+     * Writes a FLAC with fixed-size blocks, order-2 fixed prediction and one Rice partition per subframe.
+     * The STREAMINFO carries the MD5 of the samples, seekPointEvery (in blocks, 0 for none) adds a seek table.
+     */
+    static Flac writeFlac(Path file, int[][] samples, int bits, int blockSize, int seekPointEvery) throws IOException {
+        int channels = samples.length;
+        int frames = samples[0].length;
+        int blocks = (frames + blockSize - 1) / blockSize;
+        int points = seekPointEvery > 0 ? (blocks + seekPointEvery - 1) / seekPointEvery : 0;
+
+        Flac flac = new Flac();
+        flac.frameOffsets = new long[blocks];
+        flac.md5 = md5(interleave(samples, bits, 0, frames));
+
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        BitWriter w = new BitWriter();
+        int sizeCode = bits == 8 ? 1 : bits == 12 ? 2 : bits == 16 ? 4 : bits == 20 ? 5 : bits == 24 ? 6 : 0;
+        int maxFrameSize = 0;
+        long[] audioOffsets = new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int first = b * blockSize;
+            int n = Math.min(blockSize, frames - first);
+            audioOffsets[b] = audio.size();
+
+            w.reset();
+            w.write(0xFFF8, 16);
+            w.write(7 << 4, 8); // block size as 16 bits at the end of the header, sample rate from STREAMINFO
+            w.write((channels - 1) << 4 | sizeCode << 1, 8);
+            writeUtf8(w, b);
+            w.write(n - 1, 16);
+            w.write(crc8(w.bytes, w.length()), 8);
+            for (int[] channel : samples) {
+                writeFixed2Subframe(w, Arrays.copyOfRange(channel, first, first + n), n, bits);
+            }
+            w.align();
+            w.write(crc16(w.bytes, w.length()), 16);
+            audio.write(w.bytes, 0, w.length());
+            maxFrameSize = Math.max(maxFrameSize, w.length());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 34 + (points > 0 ? 4 + points * 18 : 0));
+        header.putInt(0x664C6143); // fLaC
+        header.putInt((points > 0 ? 0 : 0x80000000) | 34);
+        header.putShort((short) blockSize).putShort((short) blockSize);
+        header.put((byte) 0).putShort((short) 0); // min frame size unknown
+        header.put((byte) (maxFrameSize >> 16)).putShort((short) maxFrameSize);
+        header.putLong((long) SAMPLE_RATE << 44 | (long) (channels - 1) << 41 | (long) (bits - 1) << 36 | frames);
+        header.put(flac.md5);
+        if (points > 0) {
+            header.putInt(0x80000000 | 3 << 24 | points * 18); // last block, SEEKTABLE
+            for (int p = 0; p < points; p++) {
+                int block = p * seekPointEvery;
+                header.putLong((long) block * blockSize).putLong(audioOffsets[block])
+                        .putShort((short) Math.min(blockSize, frames - block * blockSize));
+            }
+        }
+        for (int b = 0; b < blocks; b++) {
+            flac.frameOffsets[b] = header.capacity() + audioOffsets[b];
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(header.array());
+            audio.writeTo(out);
+        }
+        return flac;
+    }
+
+    private static void writeFixed2Subframe(BitWriter w, int[] s, int n, int bits) {
+        if (n < 3) {
+            // Too short to predict, verbatim
+            w.write(1 << 1, 8);
+            for (int i = 0; i < n; i++) {
+                w.write(s[i], bits);
+            }
+            return;
+        }
+        w.write(10 << 1, 8); // FIXED, order 2
+        w.write(s[0], bits);
+        w.write(s[1], bits);
+        long sum = 0;
+        for (int i = 2; i < n; i++) {
+            sum += Math.abs(s[i] - 2 * s[i - 1] + s[i - 2]);
+        }
+        long mean = Math.max(1, sum / (n - 2));
+        int param = Math.min(14, 63 - Long.numberOfLeadingZeros(mean));
+        w.write(0, 2); // Rice, 4-bit parameter
+        w.write(0, 4); // one partition
+        w.write(param, 4);
+        for (int i = 2; i < n; i++) {
+            int r = s[i] - 2 * s[i - 1] + s[i - 2];
+            int v = (r << 1) ^ (r >> 31);
+            int q = v >>> param;
+            for (; q >= 32; q -= 32) {
+                w.write(0, 32);
+            }
+            w.write(1, q + 1);
+            w.write(v & ((1 << param) - 1), param);
+        }
+    }
+
+    private static void writeUtf8(BitWriter w, long value) {
+        if (value < 0x80) {
+            w.write((int) value, 8);
+            return;
+        }
+        int extra = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3 : value < 0x4000000 ? 4 : 5;
+        w.write((0xFF00 >> (extra + 1) & 0xFF) | (int) (value >>> (6 * extra)), 8);
+        for (int i = extra - 1; i >= 0; i--) {
+            w.write(0x80 | (int) (value >>> (6 * i)) & 0x3F, 8);
+        }
+    }
+
+    private static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1 ^ 0x8005) & 0xFFFF : crc << 1 & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+
+    /**
+     * MSB-first bit packing into a growable byte array, one frame at a time
+     */
+    private static final class BitWriter {
+        byte[] bytes = new byte[64 * 1024];
+        private int bytePos;
+        private long acc;
+        private int accBits;
+
+        void reset() {
+            bytePos = 0;
+            acc = 0;
+            accBits = 0;
+        }
+
+        void write(int value, int n) {
+            if (n == 0) {
+                return;
+            }
+            acc = acc << n | (value & 0xFFFFFFFFL) & ((1L << n) - 1);
+            accBits += n;
+            while (accBits >= 8) {
+                if (bytePos == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                accBits -= 8;
+                bytes[bytePos++] = (byte) (acc >>> accBits);
+            }
+        }
+
+        void align() {
+            if (accBits > 0) {
+                write(0, 8 - accBits);
+            }
+        }
+
+        int length() {
+            return bytePos;
+        }
+    }
+}
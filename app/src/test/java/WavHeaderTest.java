@@ -0,0 +1,127 @@
+// WAV header parsing: the fmt fields, chunk walking and the data chunk's length.
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WavHeaderTest {
+    @TempDir
+    Path dir;
+
+    private static WavHeader read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return WavHeader.read(channel);
+        }
+    }
+
+    @Test
+    void readsPlainPcm() throws Exception {
+        Path file = dir.resolve("plain.wav");
+        TestAudio.writeWav(file, TestAudio.tone(1000, 2, 16, 1), 16, null);
+
+        WavHeader header = read(file);
+        assertEquals(WavHeader.WAVE_FORMAT_PCM, header.formatTag);
+        assertEquals(2, header.channels);
+        assertEquals(TestAudio.SAMPLE_RATE, header.sampleRate);
+        assertEquals(16, header.bitsPerSample);
+        assertEquals(4, header.blockAlign);
+        assertEquals(44, header.dataOffset);
+        assertEquals(1000, header.getFrameLength());
+        assertEquals(-1, header.listOffset);
+
+        AudioFormat format = header.toAudioFormat();
+        assertEquals(AudioFormat.Encoding.PCM_SIGNED, format.getEncoding());
+        assertFalse(format.isBigEndian());
+    }
+
+    @Test
+    void eightBitIsUnsigned() throws Exception {
+        Path file = dir.resolve("eight.wav");
+        TestAudio.writeWav(file, TestAudio.tone(100, 1, 8, 1), 8, null);
+        assertEquals(AudioFormat.Encoding.PCM_UNSIGNED, read(file).toAudioFormat().getEncoding());
+    }
+
+    @Test
+    void skipsOddSizedChunksWithTheirPadding() throws Exception {
+        Path file = dir.resolve("list.wav");
+        byte[] list = "INFOINAM\u0005\u0000\u0000\u0000Song\u0000".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+        assertEquals(1, list.length & 1);
+        TestAudio.writeWav(file, TestAudio.tone(500, 2, 16, 1), 16, list);
+
+        WavHeader header = read(file);
+        assertEquals(36 + 8, header.listOffset);
+        assertEquals(list.length, header.listLength);
+        assertEquals(36 + 8 + list.length + 1 + 8, header.dataOffset);
+        assertEquals(500, header.getFrameLength());
+    }
+
+    @Test
+    void bogusDataSizeFallsBackToTheFileLength() throws Exception {
+        for (int bogus : new int[] {0, 0xFFFFFFFF, 1 << 30}) {
+            Path file = dir.resolve("bogus.wav");
+            TestAudio.writeWav(file, TestAudio.tone(300, 2, 16, 1), 16, null);
+            patchInt(file, 40, bogus);
+            assertEquals(300, read(file).getFrameLength(), "data size " + Integer.toHexString(bogus));
+        }
+    }
+
+    @Test
+    void extensibleFormatUsesTheSubFormat() throws Exception {
+        ByteBuffer wav = ByteBuffer.allocate(12 + 8 + 40 + 8 + 8).order(ByteOrder.LITTLE_ENDIAN);
+        wav.putInt(0x46464952).putInt(wav.capacity() - 8).putInt(0x45564157);
+        wav.putInt(0x20746D66).putInt(40).putShort((short) WavHeader.WAVE_FORMAT_EXTENSIBLE).putShort((short) 2);
+        wav.putInt(48000).putInt(48000 * 8).putShort((short) 8).putShort((short) 32);
+        wav.putShort((short) 22).putShort((short) 32).putInt(3); // cbSize, valid bits, channel mask
+        wav.putShort((short) WavHeader.WAVE_FORMAT_IEEE_FLOAT).put(new byte[14]); // sub-format GUID
+        wav.putInt(0x61746164).putInt(8).putLong(0);
+        Path file = dir.resolve("float.wav");
+        Files.write(file, wav.array());
+
+        WavHeader header = read(file);
+        assertTrue(header.isFloat());
+        assertEquals(AudioFormat.Encoding.PCM_FLOAT, header.toAudioFormat().getEncoding());
+        assertEquals(1, header.getFrameLength());
+    }
+
+    @Test
+    void offsetOfFrameIsClamped() throws Exception {
+        Path file = dir.resolve("clamp.wav");
+        TestAudio.writeWav(file, TestAudio.tone(100, 2, 16, 1), 16, null);
+        WavHeader header = read(file);
+        assertEquals(44, header.offsetOfFrame(-5));
+        assertEquals(44 + 10 * 4, header.offsetOfFrame(10));
+        assertEquals(44 + 100 * 4, header.offsetOfFrame(1000));
+    }
+
+    @Test
+    void rejectsFilesThatArentWav() throws Exception {
+        Path notRiff = dir.resolve("not.wav");
+        Files.write(notRiff, new byte[] {'f', 'L', 'a', 'C', 0, 0, 0, 0, 0, 0, 0, 0});
+        assertThrows(IOException.class, () -> read(notRiff));
+
+        Path noData = dir.resolve("nodata.wav");
+        TestAudio.writeWav(noData, TestAudio.tone(10, 2, 16, 1), 16, null);
+        patchInt(noData, 36, 0x61746177); // "data" -> "wata"
+        assertThrows(IOException.class, () -> read(noData));
+
+        Path shortFile = dir.resolve("short.wav");
+        Files.write(shortFile, new byte[] {'R', 'I', 'F', 'F'});
+        assertThrows(IOException.class, () -> read(shortFile));
+    }
+
+    private static void patchInt(Path file, int offset, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+        Files.write(file, bytes);
+    }
+}
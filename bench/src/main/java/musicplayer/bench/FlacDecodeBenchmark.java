@@ -0,0 +1,71 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FLAC decode throughput on one thread: open a track and read it to the end the way the engine does.
+ * The score is milliseconds per track, the track's length divided by it is how many times faster than
+ * real time decoding runs. The WAV case is the same read loop over a memory-mapped file, for scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlacDecodeBenchmark {
+    static final MethodHandle OPEN = Player.staticMethod("PcmSource", "open", Player.type("PcmSource"), String.class);
+    static final MethodHandle READ = Player.method("PcmSource", "read", int.class, byte[].class, int.class, int.class);
+
+    @Param({"flac", "wav"})
+    String container;
+
+    @Param({"16", "24"})
+    int bits;
+
+    @Param({"60"})
+    int seconds;
+
+    Path dir;
+    String file;
+    final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("musicplayer-bench-");
+        Path track = dir.resolve("track." + container);
+        int frames = seconds * SyntheticLibrary.SAMPLE_RATE;
+        if ("flac".equals(container)) {
+            SyntheticLibrary.writeFlac(track, frames, 2, bits, 1);
+        } else {
+            SyntheticLibrary.writeWav(track, frames, 2, bits, 1);
+        }
+        file = track.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public long decodeTrack() throws Throwable {
+        Object source = OPEN.invoke(file);
+        long total = 0;
+        try {
+            int n;
+            while ((n = (int) READ.invoke(source, buffer, 0, buffer.length)) > 0) {
+                total += n;
+            }
+        } finally {
+            ((Closeable) source).close();
+        }
+        return total;
+    }
+}
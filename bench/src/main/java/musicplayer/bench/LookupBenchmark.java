@@ -0,0 +1,103 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Song lookups the UI does per row and per keystroke: path by track ID, track ID by path, and library search
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LookupBenchmark {
+    static final MethodHandle NEW_SONG = Player.constructor("Song");
+    static final MethodHandle SET_PATH = Player.setter("Song", "FilePath", String.class);
+    static final MethodHandle SET_NAME = Player.setter("Song", "name", String.class);
+    static final MethodHandle SET_PLAYLIST = Player.setter("Song", "playlistName", String.class);
+    static final MethodHandle NEW_MANAGEMENT = Player.constructor("SongManagement");
+    static final MethodHandle ADD_PLAYLIST = Player.method("SongManagement", "addPlaylist",
+            void.class, String.class, ArrayList.class);
+    static final MethodHandle GET_SONG_PATH = Player.method("SongManagement", "getSongPath", String.class, int.class);
+    static final MethodHandle SEARCH = Player.method("SongManagement", "search", int.class, String.class, int[].class);
+    static final MethodHandle REGISTRY = Player.getter("SongManagement", "registry", Player.type("SongRegistry"));
+    static final MethodHandle ID_FOR_PATH = Player.method("SongRegistry", "idForPath", int.class, String.class);
+
+    static final String[] WORDS = {"love", "night", "blue", "dance", "river", "fire", "heart", "road",
+            "dream", "light", "summer", "rain", "moon", "gold", "city", "song", "king", "star", "wild", "home"};
+
+    @Param({"10000", "100000"})
+    int tracks;
+
+    Object management;
+    Object registry;
+    String[] paths;
+    int[] ids;
+    int[] results = new int[500];
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        management = NEW_MANAGEMENT.invoke();
+        registry = REGISTRY.invoke(management);
+        SplittableRandom random = new SplittableRandom(42);
+        paths = new String[tracks];
+
+        // 100 playlists, songs named like real ones so the search index has realistic grams
+        int perPlaylist = Math.max(1, tracks / 100);
+        ArrayList<Object> songs = new ArrayList<>();
+        for (int t = 0; t < tracks; t++) {
+            String playlist = String.format("playlist-%03d", t / perPlaylist);
+            String name = String.format("%s %s track-%06d.wav",
+                    WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)], t);
+            Object song = NEW_SONG.invoke();
+            paths[t] = "/music/" + playlist + "/" + name;
+            SET_PATH.invoke(song, paths[t]);
+            SET_NAME.invoke(song, name);
+            SET_PLAYLIST.invoke(song, playlist);
+            songs.add(song);
+            if (songs.size() == perPlaylist || t == tracks - 1) {
+                ADD_PLAYLIST.invoke(management, playlist, songs);
+                songs = new ArrayList<>();
+            }
+        }
+
+        // Random access order fixed up front so every iteration does the same work
+        ids = new int[4096];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(tracks);
+        }
+    }
+
+    @Benchmark
+    public String songPathById() throws Throwable {
+        int id = ids[next++ & (ids.length - 1)];
+        return (String) GET_SONG_PATH.invoke(management, id);
+    }
+
+    @Benchmark
+    public int idByPath() throws Throwable {
+        String path = paths[ids[next++ & (ids.length - 1)]];
+        return (int) ID_FOR_PATH.invoke(registry, path);
+    }
+
+    /**
+     * Queries in their own state so only the search benchmark is run once per query
+     */
+    @State(Scope.Benchmark)
+    public static class Query {
+        @Param({"lo", "moon", "river gold", "track-0042"})
+        String text;
+    }
+
+    @Benchmark
+    public int search(Query query) throws Throwable {
+        return (int) SEARCH.invoke(management, query.text, results);
+    }
+}
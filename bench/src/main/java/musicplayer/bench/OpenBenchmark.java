@@ -0,0 +1,90 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a file path to the first buffer of samples, what playSound waits on before audio starts.
+ * PcmSource.open is what the engine uses, StreamSource is the AudioSystem route it falls back to,
+ * and the PCM cache is what going back to a recently played track costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenBenchmark {
+    static final MethodHandle OPEN = Player.staticMethod("PcmSource", "open", Player.type("PcmSource"), String.class);
+    static final MethodHandle NEW_STREAM = Player.constructor("StreamSource", String.class);
+    static final MethodHandle READ = Player.method("PcmSource", "read", int.class, byte[].class, int.class, int.class);
+    static final MethodHandle NEW_CACHE = Player.constructor("PcmCache", long.class);
+    static final MethodHandle CACHE_IN_BACKGROUND = Player.method("PcmCache", "cacheInBackground", void.class, String.class);
+    static final MethodHandle CACHE_CONTAINS = Player.method("PcmCache", "contains", boolean.class, String.class);
+    static final MethodHandle CACHE_OPEN = Player.method("PcmCache", "open", Player.type("PcmSource"), String.class);
+
+    @Param({"16", "24"})
+    int bits;
+
+    @Param({"30"})
+    int seconds;
+
+    Path dir;
+    String file;
+    Object cache;
+    final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        dir = Files.createTempDirectory("musicplayer-bench-");
+        Path wav = dir.resolve("track.wav");
+        SyntheticLibrary.writeWav(wav, seconds * SyntheticLibrary.SAMPLE_RATE, 2, bits, 1);
+        file = wav.toString();
+
+        cache = NEW_CACHE.invoke(256L * 1024 * 1024);
+        CACHE_IN_BACKGROUND.invoke(cache, file);
+        while (!(boolean) CACHE_CONTAINS.invoke(cache, file)) {
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public int openToFirstSample() throws Throwable {
+        Object source = OPEN.invoke(file);
+        try {
+            return (int) READ.invoke(source, buffer, 0, buffer.length);
+        } finally {
+            ((Closeable) source).close();
+        }
+    }
+
+    @Benchmark
+    public int streamOpenToFirstSample() throws Throwable {
+        Object source = NEW_STREAM.invoke(file);
+        try {
+            return (int) READ.invoke(source, buffer, 0, buffer.length);
+        } finally {
+            ((Closeable) source).close();
+        }
+    }
+
+    @Benchmark
+    public int cachedOpenToFirstSample() throws Throwable {
+        Object source = CACHE_OPEN.invoke(cache, file);
+        try {
+            return (int) READ.invoke(source, buffer, 0, buffer.length);
+        } finally {
+            ((Closeable) source).close();
+        }
+    }
+}
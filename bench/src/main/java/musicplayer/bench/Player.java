@@ -0,0 +1,72 @@
+package musicplayer.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Handles onto the player's classes. They live in the default package, which Java code in a named
+ * package (and JMH needs one) can't reference, so everything goes through method handles.
+ * Keep the handles in static finals so the JIT treats them as constants.
+ */
+final class Player {
+    private Player() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Player class missing: " + name, ex);
+        }
+    }
+
+    private static MethodHandles.Lookup lookupIn(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    static MethodHandle constructor(String className, Class<?>... params) {
+        Class<?> type = type(className);
+        try {
+            return lookupIn(type).findConstructor(type, MethodType.methodType(void.class, params));
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("No constructor on " + className, ex);
+        }
+    }
+
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... params) {
+        Class<?> type = type(className);
+        try {
+            return lookupIn(type).findVirtual(type, name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("No method " + className + "." + name, ex);
+        }
+    }
+
+    static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... params) {
+        Class<?> type = type(className);
+        try {
+            return lookupIn(type).findStatic(type, name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("No method " + className + "." + name, ex);
+        }
+    }
+
+    static MethodHandle setter(String className, String field, Class<?> fieldType) {
+        Class<?> type = type(className);
+        try {
+            return lookupIn(type).findSetter(type, field, fieldType);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("No field " + className + "." + field, ex);
+        }
+    }
+
+    static MethodHandle getter(String className, String field, Class<?> fieldType) {
+        Class<?> type = type(className);
+        try {
+            return lookupIn(type).findGetter(type, field, fieldType);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("No field " + className + "." + field, ex);
+        }
+    }
+}
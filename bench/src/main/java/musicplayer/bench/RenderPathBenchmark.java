@@ -0,0 +1,82 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-buffer work on the audio thread between the file and the line: reading one engine buffer,
+ * converted to 16-bit where the line can't take the file's format, then the software volume stage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderPathBenchmark {
+    static final MethodHandle OPEN = Player.staticMethod("PcmSource", "open", Player.type("PcmSource"), String.class);
+    static final MethodHandle SEEK = Player.method("PcmSource", "seekFrame", void.class, long.class);
+    static final MethodHandle READ = Player.method("PcmSource", "read", int.class, byte[].class, int.class, int.class);
+    static final MethodHandle FORMAT = Player.method("PcmSource", "getFormat", AudioFormat.class);
+    static final MethodHandle NEW_CHAIN = Player.constructor("DspChain");
+    static final MethodHandle NEW_GAIN = Player.constructor("GainProcessor");
+    static final MethodHandle ADD = Player.method("DspChain", "add", void.class, Player.type("AudioProcessor"));
+    static final MethodHandle SET_GAIN = Player.method("GainProcessor", "setGain", void.class, float.class);
+    static final MethodHandle PROCESS = Player.method("DspChain", "process",
+            void.class, byte[].class, int.class, int.class, AudioFormat.class);
+
+    @Param({"16", "24", "32"})
+    int bits;
+
+    Path dir;
+    Object source;
+    AudioFormat format;
+    Object chain;
+    final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        dir = Files.createTempDirectory("musicplayer-bench-");
+        Path wav = dir.resolve("track.wav");
+        SyntheticLibrary.writeWav(wav, 60 * SyntheticLibrary.SAMPLE_RATE, 2, bits, 1);
+        source = OPEN.invoke(wav.toString());
+        format = (AudioFormat) FORMAT.invoke(source);
+
+        // Volume below unity so the gain stage does real work every buffer
+        chain = NEW_CHAIN.invoke();
+        Object gain = NEW_GAIN.invoke();
+        SET_GAIN.invoke(gain, 0.8f);
+        ADD.invoke(chain, gain);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ((Closeable) source).close();
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public int readBuffer() throws Throwable {
+        int n = (int) READ.invoke(source, buffer, 0, buffer.length);
+        if (n < 0) {
+            // Loop the track like a long playlist would
+            SEEK.invoke(source, 0L);
+            n = (int) READ.invoke(source, buffer, 0, buffer.length);
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int readBufferWithGain() throws Throwable {
+        int n = readBuffer();
+        PROCESS.invoke(chain, buffer, 0, n, format);
+        return n;
+    }
+}
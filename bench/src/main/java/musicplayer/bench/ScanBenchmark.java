@@ -0,0 +1,73 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Library scanning as done by SongManagement.scrapeAndADD: a cold scan with an empty library index,
+ * and a warm one where every folder's mtime matches the index so nothing is listed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+    static final MethodHandle NEW_INDEX = Player.constructor("LibraryIndex", File.class, String.class);
+    static final MethodHandle INDEX_LOAD = Player.method("LibraryIndex", "load", void.class);
+    static final MethodHandle INDEX_SAVE = Player.method("LibraryIndex", "save", void.class);
+    static final MethodHandle NEW_SCANNER = Player.constructor("LibraryScanner",
+            String.class, Player.type("LibraryIndex"), int.class);
+    static final MethodHandle SCAN = Player.method("LibraryScanner", "scan", java.util.TreeMap.class);
+
+    @Param({"1000", "10000"})
+    int tracks;
+
+    @Param({"50"})
+    int folders;
+
+    @Param({"16"})
+    int concurrency;
+
+    Path library;
+    String musicDirectory;
+    File emptyIndexFile;
+    Object warmIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        library = SyntheticLibrary.create(folders, tracks, 1024);
+        musicDirectory = library.toString() + File.separator;
+        emptyIndexFile = library.resolve("missing.idx").toFile();
+
+        // Build, save and reload an index so the warm scan starts the way the app does
+        File indexFile = library.resolve("library.idx").toFile();
+        Object index = NEW_INDEX.invoke(indexFile, musicDirectory);
+        SCAN.invoke(NEW_SCANNER.invoke(musicDirectory, index, concurrency));
+        INDEX_SAVE.invoke(index);
+        warmIndex = NEW_INDEX.invoke(indexFile, musicDirectory);
+        INDEX_LOAD.invoke(warmIndex);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticLibrary.delete(library);
+    }
+
+    @Benchmark
+    public Map<?, ?> coldScan() throws Throwable {
+        Object index = NEW_INDEX.invoke(emptyIndexFile, musicDirectory);
+        return (Map<?, ?>) SCAN.invoke(NEW_SCANNER.invoke(musicDirectory, index, concurrency));
+    }
+
+    @Benchmark
+    public Map<?, ?> warmScan() throws Throwable {
+        return (Map<?, ?>) SCAN.invoke(NEW_SCANNER.invoke(musicDirectory, warmIndex, concurrency));
+    }
+}
@@ -0,0 +1,72 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seek latency as setPosition sees it: move to a random frame and read the buffer that plays next.
+ * The FLAC case seeks through the seek table, bisection on frame headers and decoding up to the frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeekBenchmark {
+    static final MethodHandle OPEN = Player.staticMethod("PcmSource", "open", Player.type("PcmSource"), String.class);
+    static final MethodHandle NEW_STREAM = Player.constructor("StreamSource", String.class);
+    static final MethodHandle SEEK = Player.method("PcmSource", "seekFrame", void.class, long.class);
+    static final MethodHandle READ = Player.method("PcmSource", "read", int.class, byte[].class, int.class, int.class);
+
+    @Param({"mapped", "stream", "flac"})
+    String reader;
+
+    @Param({"300"})
+    int seconds;
+
+    Path dir;
+    Object source;
+    long[] frames = new long[1024];
+    int next;
+    final byte[] buffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        dir = Files.createTempDirectory("musicplayer-bench-");
+        int totalFrames = seconds * SyntheticLibrary.SAMPLE_RATE;
+        if ("flac".equals(reader)) {
+            Path flac = dir.resolve("track.flac");
+            SyntheticLibrary.writeFlac(flac, totalFrames, 2, 16, 1);
+            source = OPEN.invoke(flac.toString());
+        } else {
+            Path wav = dir.resolve("track.wav");
+            SyntheticLibrary.writeWav(wav, totalFrames, 2, 16, 1);
+            source = "mapped".equals(reader) ? OPEN.invoke(wav.toString()) : NEW_STREAM.invoke(wav.toString());
+        }
+
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = random.nextLong(totalFrames);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ((Closeable) source).close();
+        SyntheticLibrary.delete(dir);
+    }
+
+    @Benchmark
+    public int seekAndRead() throws Throwable {
+        SEEK.invoke(source, frames[next++ & (frames.length - 1)]);
+        return (int) READ.invoke(source, buffer, 0, buffer.length);
+    }
+}
@@ -0,0 +1,275 @@
+package musicplayer.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Writes music libraries of made-up WAV (and FLAC) files into a temp directory for the benchmarks
+ */
+final class SyntheticLibrary {
+    static final int SAMPLE_RATE = 44100;
+    static final int FLAC_BLOCK_SIZE = 4096;
+    static final int FLAC_SEEK_POINT_SECONDS = 10;
+
+    private SyntheticLibrary() {
+    }
+
+    /**
+     * Creates folders/playlists holding tracks short WAVs between them, returns the library root
+     */
+    static Path create(int folders, int tracks, int framesPerTrack) throws IOException {
+        Path root = Files.createTempDirectory("musicplayer-bench-");
+        for (int f = 0; f < folders; f++) {
+            Files.createDirectory(root.resolve(String.format("playlist-%03d", f)));
+        }
+        for (int t = 0; t < tracks; t++) {
+            Path folder = root.resolve(String.format("playlist-%03d", t % folders));
+            writeWav(folder.resolve(String.format("track-%06d.wav", t)), framesPerTrack, 2, 16, t);
+        }
+        return root;
+    }
+
+    /**
+     * Writes one PCM WAV of a sine tone, 16/24/32-bit little-endian integer samples
+     */
+    static void writeWav(Path file, int frames, int channels, int bits, int seed) throws IOException {
+        int bytesPerSample = bits / 8;
+        int blockAlign = channels * bytesPerSample;
+        long dataLength = (long) frames * blockAlign;
+
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt((int) (36 + dataLength)).putInt(0x45564157); // RIFF, WAVE
+        header.putInt(0x20746D66).putInt(16).putShort((short) 1).putShort((short) channels); // fmt
+        header.putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * blockAlign);
+        header.putShort((short) blockAlign).putShort((short) bits);
+        header.putInt(0x61746164).putInt((int) dataLength); // data
+
+        double step = 2 * Math.PI * (220 + seed % 440) / SAMPLE_RATE;
+        double peak = (1L << (bits - 1)) * 0.5;
+        byte[] block = new byte[64 * 1024 - (64 * 1024) % blockAlign];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(header.array());
+            int frame = 0;
+            while (frame < frames) {
+                int n = 0;
+                while (n < block.length && frame < frames) {
+                    long sample = (long) (Math.sin(frame * step) * peak);
+                    for (int c = 0; c < channels; c++) {
+                        for (int b = 0; b < bytesPerSample; b++) {
+                            block[n++] = (byte) (sample >> (8 * b));
+                        }
+                    }
+                    frame++;
+                }
+                out.write(block, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Writes a FLAC of a sine tone with some noise on it, so the residuals take real bits like music does.
+     * Simple encoder: fixed 4096-sample blocks, order-2 fixed prediction per channel, one Rice partition per
+     * subframe, and a seek point every 10 seconds.
+     */
+    static void writeFlac(Path file, int frames, int channels, int bits, int seed) throws IOException {
+        double step = 2 * Math.PI * (220 + seed % 440) / SAMPLE_RATE;
+        double peak = (1L << (bits - 1)) * 0.5;
+        int noise = 1 << (bits - 8);
+        SplittableRandom random = new SplittableRandom(seed);
+
+        int blocks = (frames + FLAC_BLOCK_SIZE - 1) / FLAC_BLOCK_SIZE;
+        int blocksPerPoint = FLAC_SEEK_POINT_SECONDS * SAMPLE_RATE / FLAC_BLOCK_SIZE;
+        int points = (blocks + blocksPerPoint - 1) / blocksPerPoint;
+        long[] pointOffsets = new long[points];
+
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        BitWriter w = new BitWriter();
+        int[][] block = new int[channels][FLAC_BLOCK_SIZE];
+        int sizeCode = bits == 8 ? 1 : bits == 16 ? 4 : bits == 24 ? 6 : 0;
+        int maxFrameSize = 0;
+        for (int b = 0; b < blocks; b++) {
+            int first = b * FLAC_BLOCK_SIZE;
+            int n = Math.min(FLAC_BLOCK_SIZE, frames - first);
+            for (int i = 0; i < n; i++) {
+                int sine = (int) (Math.sin((first + i) * step) * peak);
+                for (int c = 0; c < channels; c++) {
+                    block[c][i] = sine + random.nextInt(2 * noise + 1) - noise;
+                }
+            }
+            if (b % blocksPerPoint == 0) {
+                pointOffsets[b / blocksPerPoint] = audio.size();
+            }
+
+            w.reset();
+            w.write(0xFFF8, 16);
+            w.write(7 << 4, 8); // block size as 16 bits at the end of the header, sample rate from STREAMINFO
+            w.write((channels - 1) << 4 | sizeCode << 1, 8);
+            writeUtf8(w, b);
+            w.write(n - 1, 16);
+            w.write(crc8(w.bytes, w.length()), 8);
+            for (int c = 0; c < channels; c++) {
+                writeFixed2Subframe(w, block[c], n, bits);
+            }
+            w.align();
+            w.write(crc16(w.bytes, w.length()), 16);
+            audio.write(w.bytes, 0, w.length());
+            maxFrameSize = Math.max(maxFrameSize, w.length());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 34 + 4 + points * 18);
+        header.putInt(0x664C6143); // fLaC
+        header.putInt(34);
+        header.putShort((short) FLAC_BLOCK_SIZE).putShort((short) FLAC_BLOCK_SIZE);
+        header.put((byte) 0).putShort((short) 0); // min frame size unknown
+        header.put((byte) (maxFrameSize >> 16)).putShort((short) maxFrameSize);
+        header.putLong((long) SAMPLE_RATE << 44 | (long) (channels - 1) << 41 | (long) (bits - 1) << 36 | frames);
+        header.put(new byte[16]); // no MD5
+        header.putInt(0x80000000 | 3 << 24 | points * 18); // last block, SEEKTABLE
+        for (int p = 0; p < points; p++) {
+            int sample = p * blocksPerPoint * FLAC_BLOCK_SIZE;
+            header.putLong(sample).putLong(pointOffsets[p]).putShort((short) Math.min(FLAC_BLOCK_SIZE, frames - sample));
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(header.array());
+            audio.writeTo(out);
+        }
+    }
+
+    private static void writeFixed2Subframe(BitWriter w, int[] s, int n, int bits) {
+        if (n < 3) {
+            // Too short to predict, verbatim
+            w.write(1 << 1, 8);
+            for (int i = 0; i < n; i++) {
+                w.write(s[i], bits);
+            }
+            return;
+        }
+        w.write(10 << 1, 8); // FIXED, order 2
+        w.write(s[0], bits);
+        w.write(s[1], bits);
+        long sum = 0;
+        for (int i = 2; i < n; i++) {
+            sum += Math.abs(s[i] - 2 * s[i - 1] + s[i - 2]);
+        }
+        long mean = Math.max(1, sum / (n - 2));
+        int param = Math.min(14, 63 - Long.numberOfLeadingZeros(mean));
+        w.write(0, 2); // Rice, 4-bit parameter
+        w.write(0, 4); // one partition
+        w.write(param, 4);
+        for (int i = 2; i < n; i++) {
+            int r = s[i] - 2 * s[i - 1] + s[i - 2];
+            int v = (r << 1) ^ (r >> 31);
+            int q = v >>> param;
+            for (; q >= 32; q -= 32) {
+                w.write(0, 32);
+            }
+            w.write(1, q + 1);
+            w.write(v & ((1 << param) - 1), param);
+        }
+    }
+
+    private static void writeUtf8(BitWriter w, long value) {
+        if (value < 0x80) {
+            w.write((int) value, 8);
+            return;
+        }
+        int extra = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3 : value < 0x4000000 ? 4 : 5;
+        w.write((0xFF00 >> (extra + 1) & 0xFF) | (int) (value >>> (6 * extra)), 8);
+        for (int i = extra - 1; i >= 0; i--) {
+            w.write(0x80 | (int) (value >>> (6 * i)) & 0x3F, 8);
+        }
+    }
+
+    private static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int b = 0; b < 8; b++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1 ^ 0x8005) & 0xFFFF : crc << 1 & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+
+    /**
+     * MSB-first bit packing into a growable byte array, one frame at a time
+     */
+    private static final class BitWriter {
+        byte[] bytes = new byte[64 * 1024];
+        private int bytePos;
+        private long acc;
+        private int accBits;
+
+        void reset() {
+            bytePos = 0;
+            acc = 0;
+            accBits = 0;
+        }
+
+        void write(int value, int n) {
+            if (n == 0) {
+                return;
+            }
+            acc = acc << n | (value & 0xFFFFFFFFL) & ((1L << n) - 1);
+            accBits += n;
+            while (accBits >= 8) {
+                if (bytePos == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                accBits -= 8;
+                bytes[bytePos++] = (byte) (acc >>> accBits);
+            }
+        }
+
+        void align() {
+            if (accBits > 0) {
+                write(0, 8 - accBits);
+            }
+        }
+
+        /**
+         * Whole bytes written, call after align() or at a byte boundary
+         */
+        int length() {
+            return bytePos;
+        }
+    }
+
+    static void delete(Path root) {
+        if (root == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}